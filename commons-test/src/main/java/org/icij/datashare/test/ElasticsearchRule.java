@@ -6,6 +6,7 @@ import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
 import org.elasticsearch.client.*;
+import org.elasticsearch.common.settings.Settings;
 import org.junit.rules.ExternalResource;
 
 import java.io.IOException;
@@ -39,7 +40,7 @@ public class ElasticsearchRule extends ExternalResource {
         if (! client.indices().exists(request)) {
             CreateIndexRequest createReq = new CreateIndexRequest(indexName);
             byte[] settings = toByteArray(getClass().getClassLoader().getResourceAsStream(SETTINGS_RESOURCE_NAME));
-            createReq.settings(new String(settings), JSON);
+            createReq.settings(Settings.builder().loadFromSource(new String(settings), JSON).put("index.number_of_shards", 1));
             byte[] mapping = toByteArray(getClass().getClassLoader().getResourceAsStream(MAPPING_RESOURCE_NAME));
             createReq.mapping("doc", new String(mapping), JSON);
             client.indices().create(createReq);
@@ -6,6 +6,7 @@ import org.icij.datashare.db.JooqBatchSearchRepository;
 import org.icij.datashare.mode.CommonMode;
 import org.icij.datashare.tasks.BatchSearchRunner;
 import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.QueryAnalyzer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,7 +35,8 @@ public class BatchSearchApp {
         return new BatchSearchApp(
                 new BatchSearchRunner(injector.getInstance(Indexer.class),
                         injector.getInstance(BatchSearchRepository.class),
-                        injector.getInstance(PropertiesProvider.class), nullUser()),
+                        injector.getInstance(PropertiesProvider.class),
+                        injector.getInstance(QueryAnalyzer.class), nullUser()),
                 injector.getInstance(BlockingQueue.class));
     }
 
@@ -9,7 +9,7 @@ import org.icij.datashare.mode.CommonMode;
 import org.icij.datashare.tasks.TaskFactory;
 import org.icij.datashare.tasks.TaskManager;
 import org.icij.datashare.text.Document;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
 import org.icij.datashare.text.nlp.Pipeline;
 import org.icij.extract.queue.DocumentQueue;
 import org.slf4j.Logger;
@@ -57,14 +57,14 @@ class CliApp {
         TaskFactory taskFactory = injector.getInstance(TaskFactory.class);
 
         Set<Pipeline.Type> nlpPipelines = parseAll(properties.getProperty(DatashareCliOptions.NLP_PIPELINES_OPT));
-        Indexer indexer = injector.getInstance(Indexer.class);
+        ElasticsearchIndexer indexer = injector.getInstance(ElasticsearchIndexer.class);
 
         if (resume(properties)) {
             RedisUserDocumentQueue queue = new RedisUserDocumentQueue(nullUser(), new PropertiesProvider(properties));
             boolean queueIsEmpty = queue.isEmpty();
             queue.close();
 
-            if (indexer.search(properties.getProperty("defaultProject"), Document.class).withSource(false).without(nlpPipelines.toArray(new Pipeline.Type[]{})).execute().count() == 0 && queueIsEmpty) {
+            if (indexer.search(properties.getProperty("defaultProject"), Document.class).without(nlpPipelines.toArray(new Pipeline.Type[]{})).count(1) == 0 && queueIsEmpty) {
                 logger.info("nothing to resume, exiting normally");
                 System.exit(0);
             }
@@ -94,7 +94,8 @@ public class CommonMode extends AbstractModule {
 
         RestHighLevelClient esClient = createESClient(propertiesProvider);
         bind(RestHighLevelClient.class).toInstance(esClient);
-        bind(Indexer.class).to(ElasticsearchIndexer.class).asEagerSingleton();
+        bind(ElasticsearchIndexer.class).asEagerSingleton();
+        bind(Indexer.class).to(ElasticsearchIndexer.class);
         bind(TaskManager.class).toInstance(new TaskManager(propertiesProvider));
         install(new FactoryModuleBuilder().build(TaskFactory.class));
 
@@ -1,6 +1,7 @@
 package org.icij.datashare.mode;
 
 import net.codestory.http.routes.Routes;
+import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.nlp.OptimaizeLanguageGuesser;
 import org.icij.datashare.session.LocalUserFilter;
 import org.icij.datashare.text.indexing.LanguageGuesser;
@@ -13,6 +14,7 @@ public class NerMode extends CommonMode {
 
     @Override
     protected void configure() {
+        bind(PropertiesProvider.class).toInstance(propertiesProvider);
         bind(LanguageGuesser.class).to(OptimaizeLanguageGuesser.class);
     }
 
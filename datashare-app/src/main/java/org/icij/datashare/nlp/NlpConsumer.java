@@ -5,23 +5,36 @@ import org.icij.datashare.com.Message;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.text.NamedEntity;
 import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer.EntityRef;
+import org.icij.datashare.text.indexing.elasticsearch.NlpMessagePublisher;
 import org.icij.datashare.text.nlp.DatashareListener;
 import org.icij.datashare.text.nlp.Pipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.util.stream.Collectors.toList;
 import static org.icij.datashare.com.Message.Field.*;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
 
 public class NlpConsumer implements DatashareListener {
+    static final int MAX_DOCUMENTS_PER_GET = 100;
+    static final int DOCUMENTS_PER_ASYNC_GET = 10;
     private final Indexer indexer;
     private final BlockingQueue<Message> messageQueue;
     private final Pipeline nlpPipeline;
     private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final AtomicInteger savedDocuments = new AtomicInteger();
+    private final AtomicInteger failedDocuments = new AtomicInteger();
 
     @Inject
     public NlpConsumer(Pipeline pipeline, Indexer indexer, BlockingQueue<Message> messageQueue) {
@@ -34,14 +47,18 @@ public class NlpConsumer implements DatashareListener {
     public Integer call() {
         boolean exitAsked = false;
         int nbMessages = 0;
+        Message pending = null;
         while (! exitAsked) {
             try {
-                Message message = messageQueue.poll(30, TimeUnit.SECONDS);
+                Message message = pending != null ? pending : messageQueue.poll(30, TimeUnit.SECONDS);
+                pending = null;
                 if (message != null) {
                     switch (message.type) {
                         case EXTRACT_NLP:
-                            findNamedEntities(message.content.get(INDEX_NAME), message.content.get(DOC_ID), message.content.get(R_ID));
-                            nbMessages++;
+                            List<Message> documentMessages = new ArrayList<>(NlpMessagePublisher.split(message));
+                            pending = pollDocumentMessages(message.content.get(INDEX_NAME), documentMessages);
+                            findNamedEntities(message.content.get(INDEX_NAME), documentMessages);
+                            nbMessages += documentMessages.size();
                             break;
                         case SHUTDOWN:
                             exitAsked = true;
@@ -49,8 +66,11 @@ public class NlpConsumer implements DatashareListener {
                         default:
                             logger.info("ignore {}", message);
                     }
+                    if (pending == null && messageQueue.isEmpty()) {
+                        flushNamedEntities();
+                    }
                     synchronized (messageQueue) {
-                        if (messageQueue.isEmpty()) {
+                        if (pending == null && messageQueue.isEmpty()) {
                             logger.debug("queue is empty notifying messageQueue {}", messageQueue.hashCode());
                             messageQueue.notify();
                         }
@@ -60,18 +80,101 @@ public class NlpConsumer implements DatashareListener {
                 logger.warn("error in consumer main loop", e);
             }
         }
+        try {
+            flushNamedEntities();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         logger.info("exiting main loop");
         return nbMessages;
     }
 
+    private void flushNamedEntities() throws InterruptedException {
+        if (indexer instanceof ElasticsearchIndexer) {
+            ((ElasticsearchIndexer) indexer).flushBatched();
+            logger.info("named entities of {} documents saved ({} failures)", savedDocuments.get(), failedDocuments.get());
+        }
+    }
+
+    /**
+     * adds to documentMessages the EXTRACT_NLP messages of the same index that are already in the queue, without
+     * waiting, so that their documents are fetched together (at most MAX_DOCUMENTS_PER_GET documents).
+     *
+     * @return the first polled message that cannot be added, to be processed next, or null
+     */
+    private Message pollDocumentMessages(String projectName, List<Message> documentMessages) {
+        while (documentMessages.size() < MAX_DOCUMENTS_PER_GET) {
+            Message next = messageQueue.poll();
+            if (next == null) {
+                return null;
+            }
+            if (next.type != EXTRACT_NLP || !projectName.equals(next.content.get(INDEX_NAME))) {
+                return next;
+            }
+            documentMessages.addAll(NlpMessagePublisher.split(next));
+        }
+        return null;
+    }
+
+    /**
+     * when the indexer supports it, the documents of the messages are fetched with asynchronous multi get
+     * requests of DOCUMENTS_PER_ASYNC_GET documents, all sent before the entities of the first ones are
+     * extracted: the next documents are fetched while the pipeline processes the current ones.
+     */
+    private void findNamedEntities(final String projectName, final List<Message> documentMessages) throws InterruptedException {
+        if (!(indexer instanceof ElasticsearchIndexer)) {
+            for (Message documentMessage : documentMessages) {
+                findNamedEntities(projectName, documentMessage.content.get(DOC_ID), documentMessage.content.get(R_ID));
+            }
+            return;
+        }
+        List<EntityRef> refs = documentMessages.stream().map(m -> new EntityRef(m.content.get(DOC_ID), m.content.get(R_ID))).collect(toList());
+        List<List<EntityRef>> pages = new ArrayList<>();
+        List<CompletableFuture<List<Document>>> fetchedPages = new ArrayList<>();
+        for (int i = 0; i < refs.size(); i += DOCUMENTS_PER_ASYNC_GET) {
+            List<EntityRef> page = refs.subList(i, Math.min(i + DOCUMENTS_PER_ASYNC_GET, refs.size()));
+            pages.add(page);
+            fetchedPages.add(((ElasticsearchIndexer) indexer).getAsync(projectName, page, null, null));
+        }
+        for (int p = 0; p < pages.size(); p++) {
+            List<Document> docs;
+            try {
+                docs = fetchedPages.get(p).get();
+            } catch (ExecutionException e) {
+                logger.error("cannot get documents " + pages.get(p), e.getCause());
+                continue;
+            }
+            for (int i = 0; i < docs.size(); i++) {
+                findNamedEntities(projectName, pages.get(p).get(i).id, docs.get(i));
+            }
+        }
+    }
+
+    private void onSaved(String documentId, boolean saved) {
+        if (saved) {
+            savedDocuments.incrementAndGet();
+        } else {
+            failedDocuments.incrementAndGet();
+            logger.error("named entities of document {} have not been saved", documentId);
+        }
+    }
+
     void findNamedEntities(final String projectName, final String id, final String routing) throws InterruptedException {
+        findNamedEntities(projectName, id, (Document) indexer.get(projectName, id, routing));
+    }
+
+    private void findNamedEntities(final String projectName, final String id, final Document doc) throws InterruptedException {
         try {
-            Document doc = indexer.get(projectName, id, routing);
             if (doc != null) {
                 logger.info("extracting {} entities for document {}", nlpPipeline.getType(), doc.getId());
                 if (nlpPipeline.initialize(doc.getLanguage())) {
                     List<NamedEntity> namedEntities = nlpPipeline.process(doc);
-                    indexer.bulkAdd(projectName, nlpPipeline.getType(), namedEntities, doc);
+                    if (indexer instanceof ElasticsearchIndexer) {
+                        ((ElasticsearchIndexer) indexer).bulkAddBatched(projectName, nlpPipeline.getType(), namedEntities, doc)
+                                .thenAccept(saved -> onSaved(doc.getId(), saved));
+                    } else {
+                        indexer.bulkAdd(projectName, nlpPipeline.getType(), namedEntities, doc);
+                    }
                     logger.info("added {} named entities to document {}", namedEntities.size(), doc.getId());
                     nlpPipeline.terminate(doc.getLanguage());
                 }
@@ -4,6 +4,7 @@ import org.icij.datashare.com.Channel;
 import org.icij.datashare.com.DataBus;
 import org.icij.datashare.com.Message;
 import org.icij.datashare.monitoring.Monitorable;
+import org.icij.datashare.text.indexing.elasticsearch.NlpMessagePublisher;
 import org.icij.datashare.text.nlp.DatashareListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,11 +42,13 @@ public class NlpForwarder implements DatashareListener,Monitorable {
             totalToProcess.getAndAdd(parseLong(stringValue));
         }
         if (message.type == EXTRACT_NLP) {
-            logger.debug("forwarding message {} to message queue", message);
-            if (messageQueue.offer(message)) {
-                processed.incrementAndGet();
-            } else {
-                logger.warn("cannot offer message {} to queue, it must be reprocessed later", message);
+            for (Message documentMessage : NlpMessagePublisher.split(message)) {
+                logger.debug("forwarding message {} to message queue", documentMessage);
+                if (messageQueue.offer(documentMessage)) {
+                    processed.incrementAndGet();
+                } else {
+                    logger.warn("cannot offer message {} to queue, it must be reprocessed later", documentMessage);
+                }
             }
         }
     }
@@ -1,5 +1,7 @@
 package org.icij.datashare.nlp;
 
+import com.google.inject.Inject;
+import com.optimaize.langdetect.DetectedLanguage;
 import com.optimaize.langdetect.LanguageDetector;
 import com.optimaize.langdetect.LanguageDetectorBuilder;
 import com.optimaize.langdetect.i18n.LdLocale;
@@ -7,23 +9,76 @@ import com.optimaize.langdetect.ngram.NgramExtractors;
 import com.optimaize.langdetect.profiles.LanguageProfileReader;
 import com.optimaize.langdetect.text.CommonTextObjectFactories;
 import com.optimaize.langdetect.text.TextObjectFactory;
+import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.text.Language;
 import org.icij.datashare.text.indexing.LanguageGuesser;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import static java.lang.Math.max;
+import static java.util.Map.Entry.comparingByValue;
+
+/**
+ * Guesses the language of a text with optimaize language detector.
+ *
+ * By default the whole text is analyzed. When languageSampleSize is set, at most languageSampleCount windows
+ * of languageSampleSize chars evenly spread over the text are analyzed, and the detection stops at the first
+ * window which language probability is greater than languageConfidence. If no window is confident enough,
+ * the language with the highest sum of probabilities over the windows is returned.
+ */
 public class OptimaizeLanguageGuesser implements LanguageGuesser {
+    public static final String LANGUAGE_SAMPLE_SIZE_PROP = "languageSampleSize";
+    public static final String LANGUAGE_SAMPLE_COUNT_PROP = "languageSampleCount";
+    public static final String LANGUAGE_CONFIDENCE_PROP = "languageConfidence";
+    private static final LdLocale DEFAULT_LOCALE = LdLocale.fromString("en");
+
     private final LanguageDetector languageDetector;
+    private final int sampleSize;
+    private final int sampleCount;
+    private final double confidence;
+    private final ThreadLocal<TextObjectFactory> textObjectFactory = ThreadLocal.withInitial(CommonTextObjectFactories::forDetectingOnLargeText);
 
     public OptimaizeLanguageGuesser() throws IOException {
+        this(new PropertiesProvider());
+    }
+
+    @Inject
+    public OptimaizeLanguageGuesser(PropertiesProvider propertiesProvider) throws IOException {
         this.languageDetector = LanguageDetectorBuilder.create(NgramExtractors.standard())
                         .withProfiles(new LanguageProfileReader().readAllBuiltIn())
                         .build();
+        this.sampleSize = propertiesProvider.get(LANGUAGE_SAMPLE_SIZE_PROP).map(Integer::parseInt).orElse(0);
+        this.sampleCount = propertiesProvider.get(LANGUAGE_SAMPLE_COUNT_PROP).map(Integer::parseInt).orElse(3);
+        this.confidence = propertiesProvider.get(LANGUAGE_CONFIDENCE_PROP).map(Double::parseDouble).orElse(0.95);
     }
 
     @Override
     public Language guess(String text) {
-        TextObjectFactory textObjectFactory = CommonTextObjectFactories.forDetectingOnLargeText();
-        return Language.parse(languageDetector.detect(textObjectFactory.forText(text)).or(LdLocale.fromString("en")).getLanguage());
+        if (sampleSize <= 0) {
+            TextObjectFactory textObjectFactory = CommonTextObjectFactories.forDetectingOnLargeText();
+            return Language.parse(languageDetector.detect(textObjectFactory.forText(text)).or(DEFAULT_LOCALE).getLanguage());
+        }
+        return guessFromSamples(text);
+    }
+
+    private Language guessFromSamples(String text) {
+        TextObjectFactory factory = textObjectFactory.get();
+        if (text.length() <= (long) sampleSize * sampleCount) {
+            return Language.parse(languageDetector.detect(factory.forText(text)).or(DEFAULT_LOCALE).getLanguage());
+        }
+        Map<LdLocale, Double> scores = new HashMap<>();
+        int step = (text.length() - sampleSize) / max(sampleCount - 1, 1);
+        for (int i = 0; i < sampleCount; i++) {
+            int start = i * step;
+            List<DetectedLanguage> probabilities = languageDetector.getProbabilities(factory.forText(text.subSequence(start, start + sampleSize)));
+            if (!probabilities.isEmpty() && probabilities.get(0).getProbability() >= confidence) {
+                return Language.parse(probabilities.get(0).getLocale().getLanguage());
+            }
+            probabilities.forEach(detected -> scores.merge(detected.getLocale(), detected.getProbability(), Double::sum));
+        }
+        return Language.parse(scores.entrySet().stream().max(comparingByValue()).map(Map.Entry::getKey).orElse(DEFAULT_LOCALE).getLanguage());
     }
 }
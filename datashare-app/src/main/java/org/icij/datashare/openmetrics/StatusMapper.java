@@ -4,6 +4,7 @@ import org.icij.datashare.time.DatashareTime;
 
 import java.lang.reflect.Field;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -36,6 +37,8 @@ public class StatusMapper {
                 String status = "";
                 if (String.class.equals(field.getType())) {
                     numberValue = "Nan";
+                } else if (Collection.class.isAssignableFrom(field.getType())) {
+                    numberValue = ((Collection<?>) value).size();
                 } else if (boolean.class.equals(field.getType()) || Boolean.class.equals(field.getType())) {
                     numberValue = (Boolean) value ? 1 : 0;
                     status = String.format("status=\"%s\",", (Boolean) value ? "OK" : "KO");
@@ -14,6 +14,9 @@ import org.icij.datashare.batch.SearchException;
 import org.icij.datashare.monitoring.Monitorable;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer.ElasticsearchSearcher;
+import org.icij.datashare.text.indexing.elasticsearch.QueryAnalyzer;
 import org.icij.datashare.time.DatashareTime;
 import org.icij.datashare.user.User;
 import org.icij.datashare.user.UserTask;
@@ -43,19 +46,33 @@ public class BatchSearchRunner implements Callable<Integer>, Monitorable, UserTa
      */
     static final int MAX_SCROLL_SIZE = 3500;
     static final int MAX_BATCH_RESULT_SIZE = 60000;
+    /**
+     * the fields of the documents saved in the batch search results. The metadata are dynamically mapped, so the
+     * creation date may not have doc values (it is mapped as text if the first value isn't a date): it is read
+     * from the _source.
+     */
+    static final String[] DOC_VALUE_FIELDS = {"rootDocument", "path", "contentType", "contentLength"};
+    static final String[] SOURCE_FIELDS = {"metadata.tika_metadata_creation_date"};
 
     private final Indexer indexer;
     private final PropertiesProvider propertiesProvider;
     private final User user;
     private final BatchSearchRepository repository;
+    private final QueryAnalyzer queryAnalyzer;
     private int totalNbBatches = 0;
     private int totalProcessed = 0;
 
+    public BatchSearchRunner(Indexer indexer, BatchSearchRepository repository, PropertiesProvider propertiesProvider, User user) {
+        this(indexer, repository, propertiesProvider, queryAnalyzer(indexer, propertiesProvider), user);
+    }
+
     @Inject
-    public BatchSearchRunner(Indexer indexer, BatchSearchRepository repository, PropertiesProvider propertiesProvider, @Assisted User user) {
+    public BatchSearchRunner(Indexer indexer, BatchSearchRepository repository, PropertiesProvider propertiesProvider,
+                             QueryAnalyzer queryAnalyzer, @Assisted User user) {
         this.indexer = indexer;
         this.repository = repository;
         this.propertiesProvider = propertiesProvider;
+        this.queryAnalyzer = queryAnalyzer;
         this.user = user;
     }
 
@@ -89,13 +106,13 @@ public class BatchSearchRunner implements Callable<Integer>, Monitorable, UserTa
         repository.setState(batchSearch.uuid, State.RUNNING);
         String query = null;
         try {
+            queryAnalyzer.prepare(batchSearch.queries.keySet(), batchSearch.fuzziness, batchSearch.phraseMatches);
             for (String s : batchSearch.queries.keySet()) {
                 query = s;
-                Indexer.Searcher searcher = indexer.search(batchSearch.project.getId(), Document.class).
+                Indexer.Searcher searcher = withResultFields(indexer.search(batchSearch.project.getId(), Document.class).
                         with(query, batchSearch.fuzziness, batchSearch.phraseMatches).
                         withFieldValues("contentType", batchSearch.fileTypes.toArray(new String[]{})).
-                        withPrefixQuery("dirname", batchSearch.paths.toArray(new String[]{})).
-                        withoutSource("content").limit(scrollSize);
+                        withPrefixQuery("dirname", batchSearch.paths.toArray(new String[]{}))).limit(scrollSize);
                 List<? extends Entity> docsToProcess = searcher.scroll().collect(toList());
 
                 long beforeScrollLoop = DatashareTime.getInstance().currentTimeMillis();
@@ -109,6 +126,7 @@ public class BatchSearchRunner implements Callable<Integer>, Monitorable, UserTa
                     numberOfResults += docsToProcess.size();
                     docsToProcess = searcher.scroll().collect(toList());
                 }
+                searcher.clearScroll();
             }
         } catch (ElasticsearchStatusException esEx) {
             logger.error("elasticsearch exception when running batch " + batchSearch.uuid, esEx);
@@ -125,6 +143,27 @@ public class BatchSearchRunner implements Callable<Integer>, Monitorable, UserTa
         return numberOfResults;
     }
 
+    /**
+     * with elasticsearch only the doc values and the source fields of the results are fetched, the other fields
+     * of the sources (content, other metadata...) are neither loaded nor parsed
+     */
+    private static Indexer.Searcher withResultFields(Indexer.Searcher searcher) {
+        if (searcher instanceof ElasticsearchSearcher) {
+            return ((ElasticsearchSearcher) searcher).withDocValues(DOC_VALUE_FIELDS).withSource(SOURCE_FIELDS);
+        }
+        return searcher.withoutSource("content");
+    }
+
+    /**
+     * the queries are prepared with the analyzer of the elasticsearch indexer so that its searches find them in cache
+     */
+    private static QueryAnalyzer queryAnalyzer(Indexer indexer, PropertiesProvider propertiesProvider) {
+        if (indexer instanceof ElasticsearchIndexer) {
+            return ((ElasticsearchIndexer) indexer).getQueryAnalyzer();
+        }
+        return new QueryAnalyzer(propertiesProvider);
+    }
+
     @Override
     public double getProgressRate() {
         return totalProcessed == 0 && totalNbBatches == 0 ? 0 : (double) totalProcessed/totalNbBatches;
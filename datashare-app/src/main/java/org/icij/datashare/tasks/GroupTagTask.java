@@ -0,0 +1,55 @@
+package org.icij.datashare.tasks;
+
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import org.icij.datashare.monitoring.Monitorable;
+import org.icij.datashare.text.Project;
+import org.icij.datashare.text.Tag;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer.GroupTagResult;
+import org.icij.datashare.user.User;
+import org.icij.datashare.user.UserTask;
+import org.icij.task.DefaultTask;
+
+import java.util.List;
+
+/**
+ * tags or untags a group of documents in the index (see {@link ElasticsearchIndexer#groupTag}).
+ * The result has the ids of the documents that could not be updated.
+ */
+public class GroupTagTask extends DefaultTask<GroupTagResult> implements UserTask, Monitorable {
+    private final ElasticsearchIndexer indexer;
+    private final User user;
+    private final Project project;
+    private final List<String> documentIds;
+    private final Tag[] tags;
+    private final boolean untag;
+    private volatile double progress = 0;
+
+    @Inject
+    public GroupTagTask(final ElasticsearchIndexer indexer, @Assisted User user, @Assisted Project project,
+                        @Assisted List<String> documentIds, @Assisted Tag[] tags, @Assisted Boolean untag) {
+        this.indexer = indexer;
+        this.user = user;
+        this.project = project;
+        this.documentIds = documentIds;
+        this.tags = tags;
+        this.untag = untag;
+    }
+
+    @Override
+    public GroupTagResult call() throws Exception {
+        return untag ? indexer.groupUntag(project, documentIds, rate -> progress = rate, tags) :
+                indexer.groupTag(project, documentIds, rate -> progress = rate, tags);
+    }
+
+    @Override
+    public double getProgressRate() {
+        return progress;
+    }
+
+    @Override
+    public User getUser() {
+        return user;
+    }
+}
@@ -11,6 +11,7 @@ import org.icij.datashare.com.Publisher;
 import org.icij.datashare.com.ShutdownMessage;
 import org.icij.datashare.monitoring.Monitorable;
 import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchSpewer;
+import org.icij.datashare.text.indexing.elasticsearch.IngestMode;
 import org.icij.datashare.user.User;
 import org.icij.extract.document.DigestIdentifier;
 import org.icij.extract.document.DocumentFactory;
@@ -18,6 +19,7 @@ import org.icij.extract.extractor.DocumentConsumer;
 import org.icij.extract.extractor.Extractor;
 import org.icij.extract.extractor.UpdatableDigester;
 import org.icij.extract.queue.DocumentQueueDrainer;
+import org.icij.extract.report.ReportMap;
 import org.icij.extract.report.Reporter;
 import org.icij.task.Options;
 import org.icij.task.annotation.OptionsClass;
@@ -41,18 +43,25 @@ public class IndexTask extends PipelineTask implements Monitorable{
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final DocumentQueueDrainer drainer;
     private final DocumentConsumer consumer;
+    private final ElasticsearchSpewer spewer;
     private final Publisher publisher;
+    private final IngestMode ingestMode;
+    private final boolean useIngestMode;
+    private final String indexName;
     private long totalToProcess;
     private final Integer parallelism;
 
     @Inject
-    public IndexTask(final ElasticsearchSpewer spewer, final Publisher publisher, final DocumentCollectionFactory factory, @Assisted User user, @Assisted String queueName,
-                     @Assisted final Properties properties) {
+    public IndexTask(final ElasticsearchSpewer spewer, final Publisher publisher, final IngestMode ingestMode, final DocumentCollectionFactory factory,
+                     @Assisted User user, @Assisted String queueName, @Assisted final Properties properties) {
         super(DatashareCli.Stage.INDEX, user, queueName, factory, new PropertiesProvider(properties));
         PropertiesProvider propertiesProvider = new PropertiesProvider(properties);
         parallelism = propertiesProvider.get("parallelism").map(Integer::parseInt).orElse(Runtime.getRuntime().availableProcessors());
         this.publisher = publisher;
-        String indexName = propertiesProvider.get("defaultProject").orElse("local-datashare");
+        this.spewer = spewer;
+        this.ingestMode = ingestMode;
+        this.useIngestMode = propertiesProvider.get(IngestMode.INGEST_MODE_PROP).map(Boolean::parseBoolean).orElse(false);
+        this.indexName = propertiesProvider.get("defaultProject").orElse("local-datashare");
         spewer.withIndex(indexName); // TODO: remove this
         spewer.createIndex();
 
@@ -68,13 +77,29 @@ public class IndexTask extends PipelineTask implements Monitorable{
         consumer = new DocumentConsumer(spewer, extractor, this.parallelism);
         if (propertiesProvider.getProperties().get(MAP_NAME_OPTION) != null) {
             logger.info("report map enabled with name set to {}", propertiesProvider.getProperties().get(MAP_NAME_OPTION));
-            consumer.setReporter(new Reporter(factory.createMap(propertiesProvider, propertiesProvider.getProperties().get(MAP_NAME_OPTION).toString())));
+            ReportMap reportMap = factory.createMap(propertiesProvider, propertiesProvider.getProperties().get(MAP_NAME_OPTION).toString());
+            consumer.setReporter(new Reporter(reportMap));
+            spewer.withReportMap(reportMap);
         }
         drainer = new DocumentQueueDrainer(queue, consumer).configure(allTaskOptions);
     }
 
     @Override
     public Long call() throws Exception {
+        if (useIngestMode) {
+            ingestMode.start(indexName);
+        }
+        try {
+            return index();
+        } finally {
+            spewer.close();
+            if (useIngestMode) {
+                ingestMode.stop(indexName);
+            }
+        }
+    }
+
+    private Long index() throws Exception {
         logger.info("Processing up to {} file(s) in parallel", parallelism);
         totalToProcess = drainer.drain(POISON).get();
         drainer.shutdown();
@@ -91,6 +116,7 @@ public class IndexTask extends PipelineTask implements Monitorable{
         } catch (InterruptedException iex) {
             logger.info("Got InterruptedException while waiting for the consumer shutdown.");
         }
+        spewer.flush();
         publisher.publish(Channel.NLP, new ShutdownMessage());
 
         if (consumer.getReporter() != null) consumer.getReporter().close();
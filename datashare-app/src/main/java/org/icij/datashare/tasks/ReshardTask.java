@@ -0,0 +1,43 @@
+package org.icij.datashare.tasks;
+
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import org.icij.datashare.monitoring.Monitorable;
+import org.icij.datashare.text.indexing.elasticsearch.IndexResharder;
+import org.icij.datashare.user.User;
+import org.icij.datashare.user.UserTask;
+import org.icij.task.DefaultTask;
+
+/**
+ * changes the number of shards of a project index (see {@link IndexResharder})
+ */
+public class ReshardTask extends DefaultTask<Long> implements UserTask, Monitorable {
+    private final IndexResharder resharder;
+    private final User user;
+    private final String indexName;
+    private final int shards;
+    private volatile double progress = 0;
+
+    @Inject
+    public ReshardTask(final IndexResharder resharder, @Assisted User user, @Assisted String indexName, @Assisted Integer shards) {
+        this.resharder = resharder;
+        this.user = user;
+        this.indexName = indexName;
+        this.shards = shards;
+    }
+
+    @Override
+    public Long call() throws Exception {
+        return resharder.reshard(indexName, shards, rate -> progress = rate);
+    }
+
+    @Override
+    public double getProgressRate() {
+        return progress;
+    }
+
+    @Override
+    public User getUser() {
+        return user;
+    }
+}
@@ -9,7 +9,9 @@ import org.icij.datashare.com.Message;
 import org.icij.datashare.com.Publisher;
 import org.icij.datashare.com.ShutdownMessage;
 import org.icij.datashare.text.Document;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer.ElasticsearchSearcher;
+import org.icij.datashare.text.indexing.elasticsearch.NlpMessagePublisher;
 import org.icij.datashare.text.nlp.Pipeline;
 import org.icij.datashare.user.User;
 import org.icij.datashare.user.UserTask;
@@ -17,12 +19,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.stream.Stream;
 
 import static java.lang.String.valueOf;
-import static java.util.stream.Collectors.toList;
 
 public class ResumeNlpTask implements Callable<Long>, UserTask {
     Logger logger = LoggerFactory.getLogger(getClass());
@@ -30,12 +31,14 @@ public class ResumeNlpTask implements Callable<Long>, UserTask {
     private final User user;
     private String projectName;
     private final Publisher publisher;
-    private final Indexer indexer;
+    private final NlpMessagePublisher nlpPublisher;
+    private final ElasticsearchIndexer indexer;
 
     @Inject
-    public ResumeNlpTask(final Publisher publisher, final Indexer indexer, final PropertiesProvider propertiesProvider,
+    public ResumeNlpTask(final Publisher publisher, final ElasticsearchIndexer indexer, final PropertiesProvider propertiesProvider,
                          @Assisted final User user, @Assisted final Set<Pipeline.Type> nlpPipelines) {
         this.publisher = publisher;
+        this.nlpPublisher = new NlpMessagePublisher(publisher, propertiesProvider);
         this.indexer = indexer;
         this.nlpPipelines = nlpPipelines;
         this.user = user;
@@ -45,22 +48,17 @@ public class ResumeNlpTask implements Callable<Long>, UserTask {
     @Override
     public Long call() throws IOException {
         logger.info("resuming NLP name finding for index {} and {}", projectName, nlpPipelines);
-        Indexer.Searcher searcher = indexer.search(projectName, Document.class).withSource("rootDocument").without(nlpPipelines.toArray(new Pipeline.Type[] {}));
-        List<? extends Entity> docsToProcess = searcher.scroll().collect(toList());
-        long totalHits = searcher.totalHits();
+        ElasticsearchSearcher searcher = indexer.search(projectName, Document.class).withSource("rootDocument").without(nlpPipelines.toArray(new Pipeline.Type[] {}));
+        long totalHits = searcher.count();
         this.publisher.publish(Channel.NLP, new Message(Message.Type.INIT_MONITORING).add(Message.Field.VALUE, valueOf(totalHits)));
 
-        do {
-            docsToProcess.forEach(doc -> this.publisher.publish(Channel.NLP,
-                    new Message(Message.Type.EXTRACT_NLP)
-                            .add(Message.Field.INDEX_NAME, projectName)
-                            .add(Message.Field.DOC_ID, doc.getId())
-                            .add(Message.Field.R_ID, ((Document) doc).getRootDocument())));
-            docsToProcess = searcher.scroll().collect(toList());
-        } while (docsToProcess.size() != 0);
+        try (Stream<? extends Entity> docs = searcher.stream()) {
+            docs.forEach(doc -> nlpPublisher.publish(projectName, doc.getId(), ((Document) doc).getRootDocument()));
+        } finally {
+            nlpPublisher.close();
+        }
         logger.info("sent {} message for {} files without {} pipeline tags", Message.Type.EXTRACT_NLP, totalHits, nlpPipelines);
 
-        searcher.clearScroll();
         this.publisher.publish(Channel.NLP, new ShutdownMessage());
 
         return totalHits;
@@ -1,11 +1,13 @@
 package org.icij.datashare.tasks;
 
+import com.google.common.collect.Iterators;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import org.icij.datashare.Entity;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.text.Document;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer.ElasticsearchSearcher;
 import org.icij.datashare.user.User;
 import org.icij.datashare.user.UserTask;
 import org.icij.extract.extractor.ExtractionStatus;
@@ -16,19 +18,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static java.lang.Integer.parseInt;
-import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 import static org.icij.datashare.cli.DatashareCliOptions.SCROLL_SIZE;
 
 public class ScanIndexTask extends DefaultTask<Long> implements UserTask {
     private final Logger logger = LoggerFactory.getLogger(getClass());
-    private final Indexer indexer;
+    private final ElasticsearchIndexer indexer;
     private final int scrollSize;
     private final String projectName;
     private final ReportMap reportMap;
@@ -36,7 +40,7 @@ public class ScanIndexTask extends DefaultTask<Long> implements UserTask {
     private final int scrollSlices;
 
     @Inject
-    public ScanIndexTask(DocumentCollectionFactory factory, final Indexer indexer, final PropertiesProvider propertiesProvider,
+    public ScanIndexTask(DocumentCollectionFactory factory, final ElasticsearchIndexer indexer, final PropertiesProvider propertiesProvider,
                          @Assisted User user, @Assisted String reportName) {
         this.user = user;
         this.scrollSize = parseInt(propertiesProvider.get(SCROLL_SIZE).orElse("1000"));
@@ -56,18 +60,18 @@ public class ScanIndexTask extends DefaultTask<Long> implements UserTask {
     }
 
     private Long slicedScroll(int sliceNum) {
-        Indexer.Searcher search = indexer.search(projectName, Document.class).withSource("path").limit(scrollSize);
-        List<? extends Entity> docsToProcess = new ArrayList<>();
+        ElasticsearchSearcher search = indexer.search(projectName, Document.class).withSource("path").limit(scrollSize);
         long nbProcessed = 0;
-        do {
-            try {
-                docsToProcess = search.scroll(sliceNum, scrollSlices).collect(toList());
-                reportMap.putAll(docsToProcess.stream().map(d -> ((Document) d).getPath()).collect(toMap(p -> p, p -> new Report(ExtractionStatus.SUCCESS), (a, b) -> b)));
-                nbProcessed += docsToProcess.size();
-            } catch (IOException e) {
-                logger.error("error in slice {}", sliceNum, e);
+        try (Stream<? extends Entity> docs = search.stream(sliceNum, scrollSlices)) {
+            Iterator<List<Path>> pages = Iterators.partition(docs.map(d -> ((Document) d).getPath()).iterator(), scrollSize);
+            while (pages.hasNext()) {
+                List<Path> paths = pages.next();
+                reportMap.putAll(paths.stream().collect(toMap(p -> p, p -> new Report(ExtractionStatus.SUCCESS), (a, b) -> b)));
+                nbProcessed += paths.size();
             }
-        } while (docsToProcess.size() != 0);
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("error in slice {}", sliceNum, e);
+        }
         return nbProcessed;
     }
 
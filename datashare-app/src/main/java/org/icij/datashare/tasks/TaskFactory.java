@@ -1,10 +1,13 @@
 package org.icij.datashare.tasks;
 
 import org.icij.datashare.nlp.NlpApp;
+import org.icij.datashare.text.Project;
+import org.icij.datashare.text.Tag;
 import org.icij.datashare.text.nlp.Pipeline;
 import org.icij.datashare.user.User;
 
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
@@ -17,6 +20,8 @@ public interface TaskFactory {
     DelApiKeyTask createDelApiKey(User user);
     GetApiKeyTask createGetApiKey(User user);
     ScanIndexTask createScanIndexTask(User user, String reportName);
+    ReshardTask createReshardTask(User user, String indexName, Integer shards);
+    GroupTagTask createGroupTagTask(User user, Project project, List<String> documentIds, Tag[] tags, Boolean untag);
 
     ScanTask createScanTask(User user, String queueName, final Path path, Properties properties);
     IndexTask createIndexTask(final User user, String queueName, final Properties properties);
@@ -2,33 +2,46 @@ package org.icij.datashare.web;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import net.codestory.http.Context;
+import net.codestory.http.Query;
 import net.codestory.http.annotations.*;
 import net.codestory.http.errors.ForbiddenException;
-import net.codestory.http.io.InputStreams;
 import net.codestory.http.payload.Payload;
+import net.codestory.http.payload.StreamingOutput;
 import net.codestory.http.types.ContentTypes;
 import org.icij.datashare.Repository;
 import org.icij.datashare.Repository.AggregateList;
 import org.icij.datashare.session.DatashareUser;
+import org.icij.datashare.tasks.TaskFactory;
+import org.icij.datashare.tasks.TaskManager;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.text.FileExtension;
 import org.icij.datashare.text.Tag;
 import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
 import org.icij.datashare.text.indexing.elasticsearch.SourceExtractor;
 import org.icij.datashare.user.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static java.lang.Math.min;
 import static java.util.Arrays.stream;
+import static java.util.Collections.emptyList;
 import static java.util.Optional.ofNullable;
+import static net.codestory.http.payload.Payload.badRequest;
 import static net.codestory.http.payload.Payload.ok;
 import static org.icij.datashare.text.Project.isAllowed;
 import static org.icij.datashare.text.Project.project;
@@ -36,13 +49,28 @@ import static org.icij.datashare.text.Project.project;
 @Singleton
 @Prefix("/api")
 public class DocumentResource {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentResource.class);
+    static final int MAX_CACHED_SIBLINGS = 100;
+    static final int DEFAULT_CONTENT_PAGES_SIZE = 10;
+    static final int MAX_CONTENT_PAGES_SIZE = 100;
     private final Repository repository;
     private final Indexer indexer;
+    private final TaskManager taskManager;
+    private final TaskFactory taskFactory;
+    private final SourceExtractor sourceExtractor;
+
+    public DocumentResource(Repository repository, Indexer indexer, TaskManager taskManager, TaskFactory taskFactory) {
+        this(repository, indexer, taskManager, taskFactory, new SourceExtractor());
+    }
 
     @Inject
-    public DocumentResource(Repository repository, Indexer indexer) {
+    public DocumentResource(Repository repository, Indexer indexer, TaskManager taskManager, TaskFactory taskFactory,
+                            SourceExtractor sourceExtractor) {
         this.repository = repository;
         this.indexer = indexer;
+        this.taskManager = taskManager;
+        this.taskFactory = taskFactory;
+        this.sourceExtractor = sourceExtractor;
     }
 
     /**
@@ -54,10 +82,14 @@ public class DocumentResource {
      *
      * Returns 403 if the user has no access to the requested index.
      *
+     * The file is streamed. A single byte range can be requested with a Range header (206 Partial Content,
+     * or 416 if it is out of the file). The document id is sent as ETag, and the file isn't sent again if it
+     * matches the If-None-Match header (304 Not Modified).
+     *
      * @param project
      * @param id
      * @param routing
-     * @return 200 or 404 or 403 (Forbidden)
+     * @return 200, 206, 304, 416, 404 or 403 (Forbidden)
      *
      * Example :
      *
@@ -69,11 +101,56 @@ public class DocumentResource {
         boolean inline = context.request().query().getBoolean("inline");
         if (((DatashareUser)context.currentUser()).isGranted(project) &&
                 isAllowed(repository.getProject(project), context.request().clientAddress())) {
-            return routing == null ? getPayload(indexer.get(project, id), project, inline) : getPayload(indexer.get(project, id, routing),project, inline);
+            return routing == null ? getPayload(indexer.get(project, id), project, inline, context) : getPayload(indexer.get(project, id, routing),project, inline, context);
         }
         throw new ForbiddenException();
     }
 
+    /**
+     * Returns the content pages of a document indexed with contentPages=true, as a json list of strings. The
+     * document content field has its maxContentLength first chars, and the pages have the rest of the content,
+     * by maxContentLength chars, in order.
+     *
+     * The routing can be omitted if it is a top level document, or it can be the same as the id.
+     *
+     * the request parameters are :
+     * - from: the index of the first page (default 0)
+     * - size: the number of pages (default 10, at most 100)
+     *
+     * @param project
+     * @param id
+     * @param routing
+     * @return 200 and the pages, 400 if from or size aren't positive integers or 403 (Forbidden)
+     *
+     * Example :
+     *
+     * $(curl -i "http://localhost:8080/api/apigen-datashare/documents/content/pages/bd2ef02d39043cc5cd8c5050e81f6e73c608cafde339c9b7ed68b2919482e8dc7da92e33aea9cafec2419c97375f684f?size=2")
+     */
+    @Get("/:project/documents/content/pages/:id?routing=:routing")
+    public Payload getContentPages(final String project, final String id, final String routing, final Context context) throws IOException {
+        if (!((DatashareUser)context.currentUser()).isGranted(project) ||
+                !isAllowed(repository.getProject(project), context.request().clientAddress())) {
+            throw new ForbiddenException();
+        }
+        Query query = context.request().query();
+        int from;
+        int size;
+        try {
+            from = ofNullable(query.get("from")).map(Integer::parseInt).orElse(0);
+            size = ofNullable(query.get("size")).map(Integer::parseInt).orElse(DEFAULT_CONTENT_PAGES_SIZE);
+        } catch (NumberFormatException e) {
+            return badRequest();
+        }
+        if (from < 0 || size < 0) {
+            return badRequest();
+        }
+        if (!(indexer instanceof ElasticsearchIndexer)) {
+            return new Payload(emptyList());
+        }
+        return new Payload(((ElasticsearchIndexer) indexer).getContentPages(project, id, ofNullable(routing).orElse(id),
+                from, min(size, MAX_CONTENT_PAGES_SIZE)));
+    }
+
     /**
      * Group star the documents. The id list is passed in the request body as a json list.
      *
@@ -185,11 +262,12 @@ public class DocumentResource {
     /**
      * Group tag the documents. The document id list and the tag list are passed in the request body.
      *
-     * It answers 200 if the change has been done.
+     * The tags are saved in the database, then the documents are tagged in the index by a background task.
+     * It answers 200 with the task, that can be followed with /api/task/:id.
      *
      * @param projectId
      * @param query
-     * @return 200
+     * @return 200 and the tag task
      *
      * Example :
      * $(curl -i -XPOST  -H "Content-Type: application/json"  localhost:8080/api/apigen-datashare/documents/batchUpdate/tag -d '{"docIds": ["bd2ef02d39043cc5cd8c5050e81f6e73c608cafde339c9b7ed68b2919482e8dc7da92e33aea9cafec2419c97375f684f", "7473df320bee9919abe3dc179d7d2861e1ba83ee7fe42c9acee588d886fe9aef0627df6ae26b72f075120c2c9d1c9b61"], "tags": ["foo", "bar"]}')
@@ -197,18 +275,19 @@ public class DocumentResource {
     @Post("/:project/documents/batchUpdate/tag")
     public Payload groupTagDocument(final String projectId, BatchTagQuery query, Context context) throws IOException {
         repository.tag(project(projectId), query.docIds, query.tagsAsArray((User)context.currentUser()));
-        indexer.tag(project(projectId), query.docIds, query.tagsAsArray((User)context.currentUser()));
-        return Payload.ok();
+        return new Payload(new TaskResource.TaskResponse(taskManager.startTask(taskFactory.createGroupTagTask((User)context.currentUser(),
+                project(projectId), query.docIds, query.tagsAsArray((User)context.currentUser()), false))));
     }
 
     /**
      * Group untag the documents. The document id list and the tag list are passed in the request body.
      *
-     * It answers 200 if the change has been done.
+     * The tags are saved in the database, then the documents are untagged in the index by a background task.
+     * It answers 200 with the task, that can be followed with /api/task/:id.
      *
      * @param projectId
      * @param query
-     * @return 200
+     * @return 200 and the untag task
      *
      * Example :
      * $(curl -i -XPOST  -H "Content-Type: application/json"  localhost:8080/api/documents/apigen-datashare/batchUpdate/untag -d '{"docIds": ["bd2ef02d39043cc5cd8c5050e81f6e73c608cafde339c9b7ed68b2919482e8dc7da92e33aea9cafec2419c97375f684f", "7473df320bee9919abe3dc179d7d2861e1ba83ee7fe42c9acee588d886fe9aef0627df6ae26b72f075120c2c9d1c9b61"], "tags": ["foo", "bar"]}')
@@ -216,8 +295,8 @@ public class DocumentResource {
     @Post("/:project/documents/batchUpdate/untag")
     public Payload groupUntagDocument(final String projectId, BatchTagQuery query,  Context context) throws IOException {
         repository.untag(project(projectId), query.docIds, query.tagsAsArray((User)context.currentUser()));
-        indexer.untag(project(projectId), query.docIds, query.tagsAsArray((User)context.currentUser()));
-        return Payload.ok();
+        return new Payload(new TaskResource.TaskResponse(taskManager.startTask(taskFactory.createGroupTagTask((User)context.currentUser(),
+                project(projectId), query.docIds, query.tagsAsArray((User)context.currentUser()), true))));
     }
 
     /**
@@ -346,14 +425,158 @@ public class DocumentResource {
         return new Result<>(repository.unrecommend(project(projectId), (DatashareUser)context.currentUser(), docIds));
     }
 
-    private Payload getPayload(Document doc, String index, boolean inline) throws IOException {
-        try (InputStream from = new SourceExtractor().getSource(project(index), doc)) {
+    /**
+     * streams the source of the document, or the byte range of the Range header if the length of the source is known.
+     * The document id is a digest of its content so it is used as ETag.
+     *
+     * The source is closed by the streaming of the response, or before returning when the response has no body
+     * (HEAD requests, errors).
+     */
+    private Payload getPayload(Document doc, String index, boolean inline, Context context) throws IOException {
+        String etag = "\"" + doc.getId() + "\"";
+        if (matches(context.header("If-None-Match"), etag)) {
+            return new Payload(304).withHeader("ETag", etag);
+        }
+        InputStream from;
+        try {
+            from = sourceExtractor.getSource(project(index), doc, () -> siblingIds(index, doc));
+        } catch (FileNotFoundException fnf) {
+            return Payload.notFound();
+        }
+        try {
+            long length = length(from);
+            ByteRange range = ByteRange.parse(context.header("Range"), length);
+            if (range == null) {
+                from.close();
+                return new Payload(416).withHeader("Content-Range", "bytes */" + length);
+            }
             String contentType = ofNullable(doc.getContentType()).orElse(ContentTypes.get(doc.getPath().toFile().getName()));
-            Payload payload = new Payload(contentType, InputStreams.readBytes(from));
+            StreamingOutput output;
+            if ("HEAD".equalsIgnoreCase(context.method())) {
+                from.close();
+                output = to -> {};
+            } else {
+                output = to -> {
+                    try (InputStream source = from) {
+                        copy(source, to, range.start, range.length());
+                    }
+                };
+            }
+            Payload payload = new Payload(contentType, output, range.partial ? 206 : 200).withHeader("ETag", etag);
+            if (length >= 0) {
+                payload = payload.withHeader("Accept-Ranges", "bytes").withHeader("Content-Length", String.valueOf(range.length()));
+            }
+            if (range.partial) {
+                payload = payload.withHeader("Content-Range", "bytes " + range.start + "-" + range.end + "/" + length);
+            }
             String fileName = doc.isRootDocument() ? doc.getName(): doc.getId().substring(0, 10) + "." + FileExtension.get(contentType);
             return inline ? payload: payload.withHeader("Content-Disposition", "attachment;filename=\"" + fileName + "\"");
-        } catch (FileNotFoundException fnf) {
-            return Payload.notFound();
+        } catch (IOException | RuntimeException e) {
+            from.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the length of the source, -1 if it is unknown
+     */
+    private static long length(InputStream source) throws IOException {
+        if (source instanceof FileInputStream) {
+            return ((FileInputStream) source).getChannel().size();
+        } else if (source instanceof ByteArrayInputStream) {
+            return source.available();
+        }
+        return -1;
+    }
+
+    /**
+     * copies count bytes of the source from start. The files are sent with {@link FileChannel#transferTo}.
+     */
+    static void copy(InputStream source, OutputStream to, long start, long count) throws IOException {
+        if (source instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) source).getChannel();
+            WritableByteChannel target = Channels.newChannel(to);
+            long position = start;
+            long end = start + count;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        } else {
+            ByteStreams.skipFully(source, start);
+            ByteStreams.copy(ByteStreams.limit(source, count), to);
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        return ifNoneMatch != null && Stream.of(ifNoneMatch.split(",")).map(String::trim)
+                .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                .anyMatch(tag -> tag.equals(etag) || tag.equals("*"));
+    }
+
+    /**
+     * @return the ids of the documents embedded in the same parent as doc, which sources are cached when doc is extracted
+     */
+    private Collection<String> siblingIds(String index, Document doc) {
+        if (!(indexer instanceof ElasticsearchIndexer)) {
+            return emptyList();
+        }
+        try {
+            return ((ElasticsearchIndexer) indexer).getChildrenIds(index, doc.getParentDocument(), doc.getRootDocument(), MAX_CACHED_SIBLINGS);
+        } catch (IOException e) {
+            LOGGER.warn("cannot get the siblings of document {}", doc.getId(), e);
+            return emptyList();
+        }
+    }
+
+    /**
+     * the first and last bytes (inclusive) of a single range "bytes=start-end", "bytes=start-" or "bytes=-suffixLength".
+     * The other ranges (multiple or invalid ones) are ignored and the whole source is sent.
+     */
+    static class ByteRange {
+        final long start;
+        final long end;
+        final boolean partial;
+
+        ByteRange(long start, long end, boolean partial) {
+            this.start = start;
+            this.end = end;
+            this.partial = partial;
+        }
+
+        long length() {
+            return end == Long.MAX_VALUE ? Long.MAX_VALUE : end - start + 1;
+        }
+
+        /**
+         * @return the range of the header, the whole source if there is no valid range or if the length is unknown,
+         * or null if the range cannot be satisfied
+         */
+        static ByteRange parse(String header, long length) {
+            ByteRange whole = new ByteRange(0, length < 0 ? Long.MAX_VALUE : length - 1, false);
+            if (header == null || length < 0 || !header.startsWith("bytes=") || header.contains(",")) {
+                return whole;
+            }
+            String[] bounds = header.substring("bytes=".length()).trim().split("-", -1);
+            try {
+                if (bounds.length != 2 || bounds[0].isEmpty() && bounds[1].isEmpty()) {
+                    return whole;
+                } else if (bounds[0].isEmpty()) {
+                    long suffixLength = Long.parseLong(bounds[1]);
+                    return suffixLength <= 0 || length == 0 ? null : new ByteRange(Math.max(0, length - suffixLength), length - 1, true);
+                }
+                long start = Long.parseLong(bounds[0]);
+                Long lastByte = bounds[1].isEmpty() ? null : Long.parseLong(bounds[1]);
+                if (lastByte != null && lastByte < start) {
+                    return whole;
+                }
+                return start >= length ? null : new ByteRange(start, lastByte == null ? length - 1 : Math.min(lastByte, length - 1), true);
+            } catch (NumberFormatException e) {
+                return whole;
+            }
         }
     }
 
@@ -7,13 +7,20 @@ import net.codestory.http.Query;
 import net.codestory.http.annotations.*;
 import net.codestory.http.errors.UnauthorizedException;
 import net.codestory.http.payload.Payload;
+import net.codestory.http.payload.StreamingOutput;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.client.Response;
 import org.icij.datashare.session.DatashareUser;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
 
 import java.io.IOException;
 import java.net.URLEncoder;
 
 import static java.lang.String.join;
+import static java.lang.System.currentTimeMillis;
+import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.toList;
 import static net.codestory.http.payload.Payload.created;
 import static net.codestory.http.payload.Payload.ok;
@@ -22,11 +29,13 @@ import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfig
 @Singleton
 @Prefix("/api/index")
 public class IndexResource {
-    private final Indexer indexer;
+    private final ElasticsearchIndexer indexer;
+    private final SearchResponseCache searchCache;
 
     @Inject
-    public IndexResource(Indexer indexer) {
+    public IndexResource(ElasticsearchIndexer indexer, SearchResponseCache searchCache) {
         this.indexer = indexer;
+        this.searchCache = searchCache;
     }
 
     /**
@@ -67,6 +76,8 @@ public class IndexResource {
     /**
       * The search endpoint is just a proxy in front of Elasticsearch, everything sent is forwarded to Elasticsearch. DELETE method is not allowed.
       *
+      * The responses of _search and _count requests are cached (see {@link SearchResponseCache}).
+      *
       * Path can be of the form :
       * * _search/scroll
       * * index_name/_search
@@ -81,7 +92,7 @@ public class IndexResource {
       */
     @Post("/search/:path:")
     public Payload esPost(final String path, Context context, final net.codestory.http.Request request) throws IOException {
-        return createPayload(indexer.executeRaw("POST", checkPath(path, context), new String(request.contentAsBytes())));
+        return proxy("POST", path, checkPath(path, context), request.contentAsBytes(), context);
     }
 
     /**
@@ -100,15 +111,13 @@ public class IndexResource {
      */
     @Get("/search/:path:")
     public Payload esGet(final String path, Context context) throws IOException {
-        String url;
         byte[] getBody = context.request().contentAsBytes();
         if (getBody != null && getBody.length > 0) {
             // hack to remove when we will upgrade elasticsearch-py/ES to v7
-            url = path + "?source_content_type=application%2Fjson&source=" + URLEncoder.encode(new String(getBody), "utf-8");
-        } else {
-            url = checkPath(path, context);
+            String url = path + "?source_content_type=application%2Fjson&source=" + URLEncoder.encode(new String(getBody), "utf-8");
+            return createPayload(indexer.executeRaw("GET", url, null, acceptsGzip(context)));
         }
-        return createPayload(indexer.executeRaw("GET", url, ""));
+        return proxy("GET", path, checkPath(path, context), null, context);
     }
 
     /**
@@ -138,6 +147,55 @@ public class IndexResource {
         throw new UnauthorizedException();
     }
 
+    /**
+     * forwards the request body bytes and streams the response bytes of elasticsearch without decoding them.
+     * If the client accepts gzip, the response is compressed by elasticsearch and forwarded compressed.
+     * A gzip compressed request body is forwarded with its encoding.
+     */
+    private Payload proxy(String method, String path, String url, byte[] body, Context context) throws IOException {
+        boolean gzip = acceptsGzip(context);
+        String contentEncoding = context.header("Content-Encoding");
+        SearchResponseCache.Key key = contentEncoding == null ? cacheKey(path, url, body, gzip, context) : null;
+        if (key != null) {
+            SearchResponseCache.CachedResponse cached = searchCache.get(key);
+            if (cached != null) {
+                return createPayload(cached);
+            }
+        }
+        ByteArrayEntity entity = body == null ? null : new ByteArrayEntity(body, ContentType.APPLICATION_JSON);
+        if (entity != null && contentEncoding != null) {
+            entity.setContentEncoding(contentEncoding);
+        }
+        long readAt = currentTimeMillis();
+        Response response = indexer.executeRaw(method, url, entity, gzip);
+        if (key != null) {
+            SearchResponseCache.CachedResponse cached = searchCache.put(key, readAt, response);
+            if (cached != null) {
+                return createPayload(cached);
+            }
+        }
+        return createPayload(response);
+    }
+
+    /**
+     * the scroll requests and the requests on indices with wildcards are not cached
+     */
+    private SearchResponseCache.Key cacheKey(String path, String url, byte[] body, boolean gzip, Context context) {
+        String[] pathParts = path.split("/");
+        String lastPart = pathParts[pathParts.length - 1];
+        if (pathParts.length < 2 || pathParts[0].startsWith("_") || pathParts[0].contains("*") ||
+                !("_search".equals(lastPart) || "_count".equals(lastPart)) || context.query().get("scroll") != null) {
+            return null;
+        }
+        return searchCache.key(asList(pathParts[0].split(",")), ((DatashareUser) context.currentUser()).getProjects(),
+                url, body, gzip);
+    }
+
+    private static boolean acceptsGzip(Context context) {
+        String acceptEncoding = context.header("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
     private String getUrlString(Context context, String s) {
         if (context.query().keyValues().size() > 0) {
             s += "?" + getQueryAsString(context.query());
@@ -149,7 +207,19 @@ public class IndexResource {
         return join("&", query.keyValues().entrySet().stream().map(e -> e.getKey() + "=" + e.getValue()).collect(toList()));
     }
 
-    private Payload createPayload(String responseBody) {
-        return new Payload("application/json", responseBody);
+    private Payload createPayload(Response response) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return new Payload("application/json", "");
+        }
+        return withContentEncoding(new Payload("application/json", (StreamingOutput) entity::writeTo), response.getHeader("Content-Encoding"));
+    }
+
+    private Payload createPayload(SearchResponseCache.CachedResponse cached) {
+        return withContentEncoding(new Payload("application/json", (StreamingOutput) output -> output.write(cached.content)), cached.contentEncoding);
+    }
+
+    private static Payload withContentEncoding(Payload payload, String contentEncoding) {
+        return contentEncoding == null ? payload : payload.withHeader("Content-Encoding", contentEncoding);
     }
 }
@@ -2,6 +2,8 @@ package org.icij.datashare.web;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import net.codestory.http.Context;
+import net.codestory.http.Query;
 import net.codestory.http.annotations.Get;
 import net.codestory.http.annotations.Options;
 import net.codestory.http.annotations.Prefix;
@@ -9,22 +11,27 @@ import net.codestory.http.annotations.Put;
 import net.codestory.http.payload.Payload;
 import org.icij.datashare.Entity;
 import org.icij.datashare.text.NamedEntity;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
 
 import java.io.IOException;
 import java.util.List;
 
+import static java.lang.Math.min;
+import static java.util.Optional.ofNullable;
 import static java.util.stream.Collectors.toList;
 import static net.codestory.http.errors.NotFoundException.notFoundIfNull;
+import static net.codestory.http.payload.Payload.badRequest;
 import static net.codestory.http.payload.Payload.ok;
 
 @Singleton
 @Prefix("/api")
 public class NamedEntityResource {
-    private final Indexer indexer;
+    static final int DEFAULT_ENTITY_STATS_SIZE = 50;
+    static final int MAX_ENTITY_STATS_SIZE = 1000;
+    private final ElasticsearchIndexer indexer;
 
     @Inject
-    public NamedEntityResource(final Indexer indexer) {
+    public NamedEntityResource(final ElasticsearchIndexer indexer) {
         this.indexer = indexer;
     }
 
@@ -43,6 +50,40 @@ public class NamedEntityResource {
         return notFoundIfNull(indexer.get(project, id, documentId));
     }
 
+    /**
+     * Returns the stats of the most frequent named entities of the project, sorted by number of documents
+     * and then of occurrences. The hidden named entities are not returned.
+     * The stats are only kept when datashare is run with entityStats=true.
+     *
+     * @param project
+     * @return 200 and the list of stats (mentionNorm, category, documents, occurrences), or 400 if from or size
+     * aren't positive integers
+     *
+     * the request parameters are :
+     * - category: the category of the named entities (all the categories if it is not given)
+     * - from: the index of the first stats (default 0)
+     * - size: the number of stats (default 50, at most 1000)
+     *
+     * Example :
+     * $(curl "localhost:8080/api/apigen-datashare/entityStats?category=PERSON&size=10")
+     */
+    @Get("/:project/entityStats")
+    public Payload getEntityStats(final String project, Context context) throws IOException {
+        Query query = context.request().query();
+        int from;
+        int size;
+        try {
+            from = ofNullable(query.get("from")).map(Integer::parseInt).orElse(0);
+            size = ofNullable(query.get("size")).map(Integer::parseInt).orElse(DEFAULT_ENTITY_STATS_SIZE);
+        } catch (NumberFormatException e) {
+            return badRequest();
+        }
+        if (from < 0 || size < 0) {
+            return badRequest();
+        }
+        return new Payload(indexer.getEntityStats(project, query.get("category"), from, min(size, MAX_ENTITY_STATS_SIZE)));
+    }
+
     /**
      * preflight request for hide
      * @param mentionNorm
@@ -0,0 +1,228 @@
+package org.icij.datashare.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.common.unit.TimeValue;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.text.indexing.elasticsearch.IndexWrites;
+import org.icij.datashare.text.indexing.elasticsearch.IngestMode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.INDEX_REFRESH_INTERVAL_PROP;
+
+/**
+ * Caches the responses of the search requests forwarded to elasticsearch by {@link IndexResource}.
+ *
+ * The responses are keyed by the indices, the url, the request body (with its keys sorted), the projects granted
+ * to the user and the response encoding. They are evicted when the cache is larger than searchCacheSizeMb, after
+ * searchCacheTtlSeconds, or when one of their indices is written by this process (see {@link IndexWrites}).
+ * As the writes are only visible after the next index refresh, the responses read less than the refresh interval
+ * of their indices (indexRefreshInterval, 1s by default) after a write are not cached. The responses of indices
+ * that are not refreshed periodically (a refresh interval of -1, or an index in {@link IngestMode}) and the
+ * responses larger than 1/16 of the cache are not cached either.
+ *
+ * Writes made by other processes are only seen when the responses expire.
+ */
+@Singleton
+public class SearchResponseCache {
+    public static final String SEARCH_CACHE_SIZE_MB_PROP = "searchCacheSizeMb";
+    public static final String SEARCH_CACHE_TTL_PROP = "searchCacheTtlSeconds";
+    static final int DEFAULT_SEARCH_CACHE_SIZE_MB = 32;
+    static final int DEFAULT_SEARCH_CACHE_TTL_SECONDS = 60;
+    static final long DEFAULT_REFRESH_DELAY_MS = 1000;
+    private static final ObjectMapper SORTED_KEYS_MAPPER = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private final PropertiesProvider propertiesProvider;
+    private final IndexWrites indexWrites;
+    private final IngestMode ingestMode;
+    private final Cache<Key, CachedResponse> cache;
+    private final long maxResponseBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Inject
+    public SearchResponseCache(PropertiesProvider propertiesProvider, IndexWrites indexWrites, IngestMode ingestMode) {
+        this.propertiesProvider = propertiesProvider;
+        this.indexWrites = indexWrites;
+        this.ingestMode = ingestMode;
+        int sizeMb = propertiesProvider.get(SEARCH_CACHE_SIZE_MB_PROP).map(Integer::parseInt).orElse(DEFAULT_SEARCH_CACHE_SIZE_MB);
+        int ttlSeconds = propertiesProvider.get(SEARCH_CACHE_TTL_PROP).map(Integer::parseInt).orElse(DEFAULT_SEARCH_CACHE_TTL_SECONDS);
+        this.maxResponseBytes = sizeMb * 1024L * 1024L / 16;
+        this.cache = sizeMb <= 0 || ttlSeconds <= 0 ? null : CacheBuilder.newBuilder()
+                .maximumWeight(sizeMb * 1024L * 1024L)
+                .<Key, CachedResponse>weigher((key, response) -> 2 * (key.url.length() + key.body.length()) + response.content.length)
+                .expireAfterWrite(ttlSeconds, SECONDS)
+                .build();
+    }
+
+    /**
+     * @param indices the indices read by the request
+     * @param projects the projects granted to the user
+     * @param url the url of the request with its parameters
+     * @param body the body of the request
+     * @param gzip true if the response can be gzip compressed
+     * @return the key of the request, or null if it cannot be cached (the cache is disabled, the body isn't valid
+     * json or one of the indices isn't refreshed periodically)
+     */
+    public Key key(List<String> indices, List<String> projects, String url, byte[] body, boolean gzip) {
+        if (cache == null) {
+            return null;
+        }
+        long refreshDelay = refreshDelay(indices);
+        String normalizedBody = normalize(body);
+        if (refreshDelay < 0 || normalizedBody == null) {
+            return null;
+        }
+        return new Key(indices, projects, url, normalizedBody, gzip, refreshDelay);
+    }
+
+    /**
+     * @return the cached response, or null if there is none or if it has been read before the last write to its indices
+     */
+    public CachedResponse get(Key key) {
+        CachedResponse cached = cache.getIfPresent(key);
+        if (cached != null && cached.readAt > indexWrites.lastWrite(key.indices) + key.refreshDelay) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * reads the response of elasticsearch and caches it if it is not larger than 1/16 of the cache.
+     *
+     * @param readAt the time when the request has been sent
+     * @return the read response, or null if it cannot be cached (its length is too large or its indices have been
+     * written since readAt). In that case the response isn't read.
+     */
+    public CachedResponse put(Key key, long readAt, Response response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null || entity.getContentLength() > maxResponseBytes ||
+                readAt <= indexWrites.lastWrite(key.indices) + key.refreshDelay) {
+            cache.invalidate(key);
+            return null;
+        }
+        CachedResponse read = new CachedResponse(EntityUtils.toByteArray(entity), response.getHeader("Content-Encoding"), readAt);
+        if (read.content.length <= maxResponseBytes) {
+            cache.put(key, read);
+        }
+        return read;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * @return the largest refresh interval of the indices in milliseconds, or -1 if one of them isn't refreshed
+     * periodically
+     */
+    long refreshDelay(List<String> indices) {
+        Set<String> ingestingIndices = ingestMode.getIndices();
+        long refreshDelay = DEFAULT_REFRESH_DELAY_MS;
+        for (String index : indices == null ? new ArrayList<String>() : indices) {
+            if (ingestingIndices.contains(index)) {
+                return -1;
+            }
+            long indexRefreshDelay = getIndexProperty(index, INDEX_REFRESH_INTERVAL_PROP)
+                    .map(interval -> TimeValue.parseTimeValue(interval, INDEX_REFRESH_INTERVAL_PROP).millis())
+                    .orElse(DEFAULT_REFRESH_DELAY_MS);
+            if (indexRefreshDelay < 0) {
+                return -1;
+            }
+            refreshDelay = Math.max(refreshDelay, indexRefreshDelay);
+        }
+        return refreshDelay;
+    }
+
+    private Optional<String> getIndexProperty(String indexName, String property) {
+        Optional<String> indexProperty = propertiesProvider.get(indexName + "." + property);
+        return indexProperty.isPresent() ? indexProperty : propertiesProvider.get(property);
+    }
+
+    static String normalize(byte[] body) {
+        if (body == null || body.length == 0) {
+            return "";
+        }
+        try {
+            Object json = SORTED_KEYS_MAPPER.readValue(body, Object.class);
+            return SORTED_KEYS_MAPPER.writeValueAsString(json);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static class CachedResponse {
+        final byte[] content;
+        final String contentEncoding;
+        final long readAt;
+
+        CachedResponse(byte[] content, String contentEncoding, long readAt) {
+            this.content = content;
+            this.contentEncoding = contentEncoding;
+            this.readAt = readAt;
+        }
+    }
+
+    public static class Key {
+        final List<String> indices;
+        final List<String> projects;
+        final String url;
+        final String body;
+        final boolean gzip;
+        final long refreshDelay;
+
+        Key(List<String> indices, List<String> projects, String url, String body, boolean gzip, long refreshDelay) {
+            this.indices = sorted(indices);
+            this.projects = sorted(projects);
+            this.url = url;
+            this.body = body;
+            this.gzip = gzip;
+            this.refreshDelay = refreshDelay;
+        }
+
+        private static List<String> sorted(List<String> values) {
+            List<String> sorted = values == null ? new ArrayList<>() : new ArrayList<>(values);
+            sorted.sort(null);
+            return sorted;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return gzip == key.gzip && indices.equals(key.indices) && projects.equals(key.projects) &&
+                    url.equals(key.url) && body.equals(key.body);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(indices, projects, url, body, gzip);
+        }
+    }
+}
@@ -11,32 +11,55 @@ import org.icij.datashare.Repository;
 import org.icij.datashare.com.DataBus;
 import org.icij.datashare.openmetrics.StatusMapper;
 import org.icij.datashare.tasks.DocumentCollectionFactory;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
+import org.icij.datashare.text.indexing.elasticsearch.IngestMode;
+import org.icij.datashare.text.indexing.elasticsearch.SourceExtractor;
 import org.icij.extract.queue.DocumentQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.Set;
+
 @Singleton
 @Prefix("/api")
 public class StatusResource {
     Logger logger = LoggerFactory.getLogger(getClass());
     private PropertiesProvider propertiesProvider;
     private final Repository repository;
-    private final Indexer indexer;
+    private final ElasticsearchIndexer indexer;
     private final DataBus dataBus;
+    private final IngestMode ingestMode;
+    private final SearchResponseCache searchCache;
+    private final SourceExtractor sourceExtractor;
     private DocumentQueue queue;
 
+    public StatusResource(PropertiesProvider propertiesProvider, Repository repository, ElasticsearchIndexer indexer, DataBus dataBus, IngestMode ingestMode, SearchResponseCache searchCache, DocumentCollectionFactory documentCollectionFactory) {
+        this(propertiesProvider, repository, indexer, dataBus, ingestMode, searchCache, new SourceExtractor(), documentCollectionFactory);
+    }
+
     @Inject
-    public StatusResource(PropertiesProvider propertiesProvider, Repository repository, Indexer indexer, DataBus dataBus, DocumentCollectionFactory documentCollectionFactory) {
+    public StatusResource(PropertiesProvider propertiesProvider, Repository repository, ElasticsearchIndexer indexer, DataBus dataBus, IngestMode ingestMode,
+                          SearchResponseCache searchCache, SourceExtractor sourceExtractor, DocumentCollectionFactory documentCollectionFactory) {
         this.propertiesProvider = propertiesProvider;
         this.repository = repository;
         this.indexer = indexer;
         this.dataBus = dataBus;
+        this.ingestMode = ingestMode;
+        this.searchCache = searchCache;
+        this.sourceExtractor = sourceExtractor;
         this.queue = documentCollectionFactory.createQueue(propertiesProvider, propertiesProvider.get(PropertiesProvider.QUEUE_NAME_OPTION).orElse("extract:queue"));
     }
 
     /**
      * Retrieve the status of databus connection, database connection, shared queues and index.
+     * The indices that are currently in ingest mode (no refresh, no replicas) are listed in ingest_mode_indices.
+     * index_document_count is the number of documents of the default project (-1 if it cannot be counted).
+     * search_cache_hits and search_cache_misses count the search proxy requests answered with and without the cache.
+     * source_memory_bytes (source_memory_peak_bytes at most) and source_spilled_bytes are the sizes of the extracted
+     * embedded sources being sent from memory and from temporary files. source_spills counts the sources extracted
+     * into temporary files.
      * Adding "format=openmetrics" parameter to the url will return the status witn openmetrics format.
      *
      * @return the status of datashare elements
@@ -56,7 +79,9 @@ public class StatusResource {
         } catch (RuntimeException ex){
             logger.error("Queue Health Error : ",ex);
         }
-        Status status = new Status(repository.getHealth(), indexer.getHealth(), dataBus.getHealth(), queueStatus, queueSize);
+        Status status = new Status(repository.getHealth(), indexer.getHealth(), dataBus.getHealth(), queueStatus, queueSize, countDocuments(), ingestMode.getIndices(),
+                searchCache.getHits(), searchCache.getMisses(), sourceExtractor.getMemoryBytes(), sourceExtractor.getPeakMemoryBytes(),
+                sourceExtractor.getSpilledBytes(), sourceExtractor.getSpills());
         if ("openmetrics".equals(context.request().query().get("format"))) {
             return new Payload("text/plain;version=0.0.4",
                     new StatusMapper("datashare", status, propertiesProvider.get("platform").orElse(null)).toString());
@@ -65,19 +90,45 @@ public class StatusResource {
         }
     }
 
+    private long countDocuments() {
+        try {
+            return indexer.search(propertiesProvider.get("defaultProject").orElse("local-datashare"), Document.class).count();
+        } catch (IOException | RuntimeException ex) {
+            logger.error("Index count Error : ", ex);
+            return -1;
+        }
+    }
+
     public static class Status {
         public final boolean database;
         public final boolean index;
         public final boolean databus;
         public final boolean document_queue_status;
         public final int document_queue_size;
+        public final long index_document_count;
+        public final Set<String> ingest_mode_indices;
+        public final long search_cache_hits;
+        public final long search_cache_misses;
+        public final long source_memory_bytes;
+        public final long source_memory_peak_bytes;
+        public final long source_spilled_bytes;
+        public final long source_spills;
 
-        Status(boolean database, boolean index, boolean databus, boolean queue, int queueSize) {
+        Status(boolean database, boolean index, boolean databus, boolean queue, int queueSize, long indexDocumentCount, Set<String> ingestModeIndices,
+               long searchCacheHits, long searchCacheMisses, long sourceMemoryBytes, long sourceMemoryPeakBytes, long sourceSpilledBytes, long sourceSpills) {
             this.database = database;
             this.index = index;
             this.databus = databus;
             this.document_queue_status = queue;
             this.document_queue_size = queueSize;
+            this.index_document_count = indexDocumentCount;
+            this.ingest_mode_indices = ingestModeIndices;
+            this.search_cache_hits = searchCacheHits;
+            this.search_cache_misses = searchCacheMisses;
+            this.source_memory_bytes = sourceMemoryBytes;
+            this.source_memory_peak_bytes = sourceMemoryPeakBytes;
+            this.source_spilled_bytes = sourceSpilledBytes;
+            this.source_spills = sourceSpills;
         }
     }
 }
@@ -12,6 +12,7 @@ import net.codestory.http.payload.Payload;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.extension.PipelineRegistry;
 import org.icij.datashare.extract.OptionsWrapper;
+import org.icij.datashare.session.DatashareUser;
 import org.icij.datashare.tasks.IndexTask;
 import org.icij.datashare.tasks.TaskFactory;
 import org.icij.datashare.tasks.TaskManager;
@@ -38,6 +39,8 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 import static net.codestory.http.errors.NotFoundException.notFoundIfNull;
+import static net.codestory.http.payload.Payload.badRequest;
+import static net.codestory.http.payload.Payload.forbidden;
 import static net.codestory.http.payload.Payload.ok;
 import static org.apache.commons.lang3.SystemUtils.IS_OS_WINDOWS;
 import static org.icij.datashare.PropertiesProvider.MAP_NAME_OPTION;
@@ -161,6 +164,39 @@ public class TaskResource {
                 propertiesProvider.createOverriddenWith(optionsWrapper.getOptions()))));
     }
 
+    /**
+     * Changes the number of shards of a project index. The documents are reindexed in a temporary index
+     * "[project]-reshard", then the project index is recreated with the new number of shards and the
+     * documents are reindexed back. The new layout is kept in the "datashare-[project]" index template.
+     *
+     * Nothing should be written in the index while it is resharded.
+     *
+     * @param project
+     * @param optionsWrapper with the "shards" option
+     * @return 200 and the created task, 403 if the user is not granted on the project, 400 if the shards option is missing
+     * or is not a positive number
+     *
+     * Example :
+     * $(curl -XPOST localhost:8080/api/task/reshard/local-datashare -d '{"options":{"shards":"4"}}')
+     */
+    @Post("/reshard/:project")
+    public Payload reshard(final String project, final OptionsWrapper optionsWrapper, Context context) {
+        if (!((DatashareUser) context.currentUser()).isGranted(project)) {
+            return forbidden();
+        }
+        int shards;
+        try {
+            shards = Integer.parseInt(optionsWrapper.getOptions().get("shards"));
+        } catch (NumberFormatException e) {
+            return badRequest();
+        }
+        if (shards < 1) {
+            return badRequest();
+        }
+        return new Payload(new TaskResponse(taskManager.startTask(
+                taskFactory.createReshardTask((User) context.currentUser(), project, shards))));
+    }
+
     /**
      * Cleans all DONE tasks.
      *
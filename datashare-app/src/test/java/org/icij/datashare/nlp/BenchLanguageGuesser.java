@@ -0,0 +1,78 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.text.Language;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+
+public class BenchLanguageGuesser {
+    static Logger logger = LoggerFactory.getLogger(BenchLanguageGuesser.class);
+    private static final List<Sample> SENTENCES = asList(
+            new Sample(Language.FRENCH, OptimaizeLanguageGuesserTest.FRENCH_TEXT),
+            new Sample(Language.ENGLISH, OptimaizeLanguageGuesserTest.ENGLISH_TEXT),
+            new Sample(Language.SPANISH, "El consorcio internacional de periodistas de investigación publica investigaciones " +
+                    "sobre los paraísos fiscales y la corrupción en todo el mundo. "),
+            new Sample(Language.GERMAN, "Das internationale Konsortium investigativer Journalisten veröffentlicht Recherchen " +
+                    "über Steueroasen und Korruption auf der ganzen Welt. "));
+
+    @Test
+    public void testGuessMixedLanguageCorpus() throws Exception {
+        List<Sample> corpus = createCorpus(200, 50_000);
+        bench("whole text", new OptimaizeLanguageGuesser(), corpus);
+        bench("sampled", new OptimaizeLanguageGuesser(new PropertiesProvider(new HashMap<String, String>() {{
+            put("languageSampleSize", "1000");
+            put("languageSampleCount", "3");
+        }})), corpus);
+    }
+
+    private void bench(String name, OptimaizeLanguageGuesser guesser, List<Sample> corpus) {
+        long nbChars = corpus.stream().mapToLong(s -> s.text.length()).sum();
+        logger.info("guessing language of {} documents ({} chars) with {} guesser", corpus.size(), nbChars, name);
+        int nbCorrect = 0;
+        long beginTime = System.currentTimeMillis();
+        for (Sample sample : corpus) {
+            if (guesser.guess(sample.text) == sample.language) {
+                nbCorrect++;
+            }
+        }
+        long duration = System.currentTimeMillis() - beginTime;
+        logger.info("{}: done in {}ms ({} chars/ms), accuracy {}%", name, duration,
+                nbChars / Math.max(duration, 1), nbCorrect * 100 / corpus.size());
+    }
+
+    /**
+     * each document is mostly written in one language with 10% of sentences in other languages
+     */
+    private List<Sample> createCorpus(int nbDocs, int maxDocLength) {
+        Random random = new Random(42);
+        List<Sample> corpus = new ArrayList<>(nbDocs);
+        for (int docIdx = 0; docIdx < nbDocs; docIdx++) {
+            Sample main = SENTENCES.get(docIdx % SENTENCES.size());
+            int docLength = 100 + random.nextInt(maxDocLength);
+            StringBuilder text = new StringBuilder(docLength);
+            while (text.length() < docLength) {
+                text.append(random.nextInt(10) == 0 ? SENTENCES.get(random.nextInt(SENTENCES.size())).text : main.text);
+            }
+            corpus.add(new Sample(main.language, text.toString()));
+        }
+        return corpus;
+    }
+
+    private static class Sample {
+        final Language language;
+        final String text;
+
+        Sample(Language language, String text) {
+            this.language = language;
+            this.text = text;
+        }
+    }
+}
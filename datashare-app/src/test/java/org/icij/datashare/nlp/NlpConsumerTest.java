@@ -1,18 +1,36 @@
 package org.icij.datashare.nlp;
 
+import org.icij.datashare.com.Message;
+import org.icij.datashare.com.ShutdownMessage;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.text.Language;
 import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
 import org.icij.datashare.text.nlp.AbstractPipeline;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.nCopies;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.icij.datashare.com.Message.Field.*;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+import static org.icij.datashare.nlp.NlpConsumer.DOCUMENTS_PER_ASYNC_GET;
 import static org.icij.datashare.text.DocumentBuilder.createDoc;
 import static org.icij.datashare.text.Language.ENGLISH;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -56,4 +74,65 @@ public class NlpConsumerTest {
         verify(pipeline).initialize(ENGLISH);
         verify(pipeline).process(doc);
     }
+
+    @Test
+    public void test_queued_document_messages_are_fetched_with_one_request() throws Exception {
+        ElasticsearchIndexer esIndexer = mock(ElasticsearchIndexer.class);
+        Document doc = createDoc("content").build();
+        when(esIndexer.<Document>getAsync(eq("projectName"), anyList(), any(), any())).thenReturn(completedFuture(asList(null, doc)));
+        when(pipeline.initialize(any())).thenReturn(true);
+        when(pipeline.process(doc)).thenReturn(emptyList());
+        when(esIndexer.bulkAddBatched("projectName", null, emptyList(), doc)).thenReturn(completedFuture(true));
+        BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+        NlpForwarder forwarder = new NlpForwarder(null, queue, null);
+        forwarder.onMessage(new Message(EXTRACT_NLP).add(INDEX_NAME, "projectName").add(DOC_ID, "unknownId," + doc.getId()).add(R_ID, "routing,routing"));
+        queue.offer(new ShutdownMessage());
+
+        assertThat(new NlpConsumer(pipeline, esIndexer, queue).call()).isEqualTo(2);
+
+        verify(esIndexer).getAsync(eq("projectName"), anyList(), any(), any());
+        verify(esIndexer, never()).get(anyString(), anyString(), anyString());
+        verify(pipeline).process(doc);
+        verify(esIndexer).bulkAddBatched("projectName", null, emptyList(), doc);
+        verify(esIndexer, never()).bulkAdd(anyString(), any(), anyList(), any());
+    }
+
+    @Test
+    public void test_queued_document_messages_of_other_index_are_fetched_separately() throws Exception {
+        ElasticsearchIndexer esIndexer = mock(ElasticsearchIndexer.class);
+        when(esIndexer.<Document>getAsync(anyString(), anyList(), any(), any())).thenReturn(completedFuture(singletonList(null)));
+        BlockingQueue<Message> queue = new LinkedBlockingQueue<>(asList(
+                new Message(EXTRACT_NLP).add(INDEX_NAME, "project1").add(DOC_ID, "doc1").add(R_ID, "root1"),
+                new Message(EXTRACT_NLP).add(INDEX_NAME, "project2").add(DOC_ID, "doc2").add(R_ID, "root2"),
+                new ShutdownMessage()));
+
+        assertThat(new NlpConsumer(pipeline, esIndexer, queue).call()).isEqualTo(2);
+
+        verify(esIndexer).getAsync(eq("project1"), anyList(), any(), any());
+        verify(esIndexer).getAsync(eq("project2"), anyList(), any(), any());
+    }
+
+    @Test
+    public void test_document_messages_are_fetched_by_pages() throws Exception {
+        ElasticsearchIndexer esIndexer = mock(ElasticsearchIndexer.class);
+        List<Document> firstPage = nCopies(DOCUMENTS_PER_ASYNC_GET, null);
+        CompletableFuture<List<Document>> secondPage = new CompletableFuture<>();
+        when(esIndexer.<Document>getAsync(anyString(), anyList(), any(), any()))
+                .thenReturn(completedFuture(firstPage), secondPage);
+        when(pipeline.initialize(any())).thenReturn(true);
+        Document doc = createDoc("content").build();
+        when(pipeline.process(doc)).thenReturn(emptyList());
+        when(esIndexer.bulkAddBatched("projectName", null, emptyList(), doc)).thenReturn(completedFuture(true));
+        BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+        for (int i = 0; i <= DOCUMENTS_PER_ASYNC_GET; i++) {
+            queue.offer(new Message(EXTRACT_NLP).add(INDEX_NAME, "projectName").add(DOC_ID, "doc" + i).add(R_ID, "routing"));
+        }
+        queue.offer(new ShutdownMessage());
+        secondPage.complete(singletonList(doc));
+
+        assertThat(new NlpConsumer(pipeline, esIndexer, queue).call()).isEqualTo(DOCUMENTS_PER_ASYNC_GET + 1);
+
+        verify(esIndexer, times(2)).getAsync(eq("projectName"), anyList(), any(), any());
+        verify(pipeline).process(doc);
+    }
 }
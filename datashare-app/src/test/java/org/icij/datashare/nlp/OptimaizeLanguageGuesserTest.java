@@ -0,0 +1,49 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.PropertiesProvider;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static java.lang.String.join;
+import static java.util.Collections.nCopies;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.text.Language.ENGLISH;
+import static org.icij.datashare.text.Language.FRENCH;
+
+public class OptimaizeLanguageGuesserTest {
+    static final String FRENCH_TEXT = "Le consortium international des journalistes d'investigation publie des enquêtes " +
+            "sur les paradis fiscaux et la corruption dans le monde entier. ";
+    static final String ENGLISH_TEXT = "The international consortium of investigative journalists publishes investigations " +
+            "about tax havens and corruption all around the world. ";
+
+    @Test
+    public void test_guess_whole_text() throws Exception {
+        OptimaizeLanguageGuesser guesser = new OptimaizeLanguageGuesser();
+
+        assertThat(guesser.guess(FRENCH_TEXT)).isEqualTo(FRENCH);
+        assertThat(guesser.guess(ENGLISH_TEXT)).isEqualTo(ENGLISH);
+    }
+
+    @Test
+    public void test_guess_sampled_text() throws Exception {
+        OptimaizeLanguageGuesser guesser = new OptimaizeLanguageGuesser(new PropertiesProvider(new HashMap<String, String>() {{
+            put("languageSampleSize", "200");
+            put("languageSampleCount", "3");
+        }}));
+
+        assertThat(guesser.guess(join("", nCopies(100, FRENCH_TEXT)))).isEqualTo(FRENCH);
+        assertThat(guesser.guess(ENGLISH_TEXT)).isEqualTo(ENGLISH);
+    }
+
+    @Test
+    public void test_guess_sampled_text_without_confident_window() throws Exception {
+        OptimaizeLanguageGuesser guesser = new OptimaizeLanguageGuesser(new PropertiesProvider(new HashMap<String, String>() {{
+            put("languageSampleSize", "200");
+            put("languageSampleCount", "4");
+            put("languageConfidence", "1.1");
+        }}));
+
+        assertThat(guesser.guess(join("", nCopies(50, FRENCH_TEXT)) + join("", nCopies(10, ENGLISH_TEXT)))).isEqualTo(FRENCH);
+    }
+}
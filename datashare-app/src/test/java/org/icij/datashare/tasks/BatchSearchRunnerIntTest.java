@@ -17,7 +17,12 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
@@ -53,6 +58,53 @@ public class BatchSearchRunnerIntTest {
         verify(repository).saveResults(searchOk.uuid, "mydoc", singletonList(mydoc));
     }
 
+    @Test
+    public void test_search_fetches_the_result_fields_only() throws Exception {
+        Document mydoc = new Document("mydoc", project(TEST_INDEX), Paths.get("/dir/mydoc.pdf"), "content of mydoc",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<String, Object>() {{
+                    put("tika_metadata_creation_date", "2019-06-05T10:11:12Z");
+                    put("tika_metadata_author", "foo");
+                }}, Document.Status.INDEXED, new HashSet<>(), 123L);
+        indexer.add(TEST_INDEX, mydoc);
+        BatchSearch search = new BatchSearch(project(TEST_INDEX), "name", "desc", asSet("mydoc"), User.local(), false, null, null, 0);
+        when(repository.getQueued()).thenReturn(singletonList(search));
+
+        new BatchSearchRunner(indexer, repository, new PropertiesProvider(), local()).call();
+
+        ArgumentCaptor<List> results = ArgumentCaptor.forClass(List.class);
+        verify(repository).saveResults(eq(search.uuid), eq("mydoc"), results.capture());
+        Document result = (Document) results.getValue().get(0);
+        assertThat(result.getId()).isEqualTo("mydoc");
+        assertThat(result.getRootDocument()).isEqualTo(mydoc.getRootDocument());
+        assertThat(result.getPath()).isEqualTo(Paths.get("/dir/mydoc.pdf"));
+        assertThat(result.getContentType()).isEqualTo("application/pdf");
+        assertThat(result.getContentLength()).isEqualTo(123L);
+        assertThat(result.getCreationDate()).isEqualTo(mydoc.getCreationDate());
+        assertThat(result.getContent()).isEmpty();
+        assertThat(result.getMetadata()).hasSize(1);
+    }
+
+    @Test
+    public void test_search_fetches_the_creation_date_mapped_as_text() throws Exception {
+        indexer.add(TEST_INDEX, new Document("other", project(TEST_INDEX), Paths.get("/dir/other.pdf"), "content of other",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<String, Object>() {{
+                    put("tika_metadata_creation_date", "not a date");
+                }}, Document.Status.INDEXED, new HashSet<>(), 12L));
+        Document mydoc = new Document("mydoc", project(TEST_INDEX), Paths.get("/dir/mydoc.pdf"), "content of mydoc",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<String, Object>() {{
+                    put("tika_metadata_creation_date", "2019-06-05T10:11:12Z");
+                }}, Document.Status.INDEXED, new HashSet<>(), 123L);
+        indexer.add(TEST_INDEX, mydoc);
+        BatchSearch search = new BatchSearch(project(TEST_INDEX), "name", "desc", asSet("mydoc"), User.local(), false, null, null, 0);
+        when(repository.getQueued()).thenReturn(singletonList(search));
+
+        new BatchSearchRunner(indexer, repository, new PropertiesProvider(), local()).call();
+
+        ArgumentCaptor<List> results = ArgumentCaptor.forClass(List.class);
+        verify(repository).saveResults(eq(search.uuid), eq("mydoc"), results.capture());
+        assertThat(((Document) results.getValue().get(0)).getCreationDate()).isEqualTo(mydoc.getCreationDate());
+    }
+
     @Test
     public void test_search_with_paths() throws Exception {
         Document mydoc = createDoc("mydoc").build();
@@ -3,6 +3,7 @@ package org.icij.datashare.tasks;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.com.Publisher;
 import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchSpewer;
+import org.icij.datashare.text.indexing.elasticsearch.IngestMode;
 import org.junit.Test;
 import org.mockito.Mockito;
 
@@ -17,7 +18,7 @@ public class IndexTaskTest {
     public void test_index_task_uses_users_index_name() {
         ElasticsearchSpewer spewer = mock(ElasticsearchSpewer.class);
 
-        new IndexTask(spewer, mock(Publisher.class), mock(DocumentCollectionFactory.class), local(), "queueName", new PropertiesProvider(new HashMap<String, String>() {{
+        new IndexTask(spewer, mock(Publisher.class), mock(IngestMode.class), mock(DocumentCollectionFactory.class), local(), "queueName", new PropertiesProvider(new HashMap<String, String>() {{
             put("redisAddress", "redis://redis:6379");
         }}).getProperties());
 
@@ -27,7 +28,7 @@ public class IndexTaskTest {
     public void test_index_task_with_null_user_and_null_index_name() {
         ElasticsearchSpewer spewer = mock(ElasticsearchSpewer.class);
 
-        new IndexTask(spewer, mock(Publisher.class), mock(DocumentCollectionFactory.class), local(), "queueName", new PropertiesProvider(new HashMap<String, String>() {{
+        new IndexTask(spewer, mock(Publisher.class), mock(IngestMode.class), mock(DocumentCollectionFactory.class), local(), "queueName", new PropertiesProvider(new HashMap<String, String>() {{
             put("redisAddress", "redis://redis:6379");
         }}).getProperties());
 
@@ -37,7 +38,7 @@ public class IndexTaskTest {
     public void test_index_task_null_user_uses_options_for_index_name() {
         ElasticsearchSpewer spewer = mock(ElasticsearchSpewer.class);
 
-        new IndexTask(spewer, mock(Publisher.class), mock(DocumentCollectionFactory.class), nullUser(), "queueName", new PropertiesProvider(new HashMap<String, String>() {{
+        new IndexTask(spewer, mock(Publisher.class), mock(IngestMode.class), mock(DocumentCollectionFactory.class), nullUser(), "queueName", new PropertiesProvider(new HashMap<String, String>() {{
             put("redisAddress", "redis://redis:6379");
             put("defaultProject", "foo");
         }}).getProperties());
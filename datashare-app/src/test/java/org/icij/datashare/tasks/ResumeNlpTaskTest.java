@@ -40,4 +40,20 @@ public class ResumeNlpTaskTest {
         resumeNlpTask.call();
         verify(publisher, times(22)).publish(any(), any());
     }
+
+    @Test
+    public void test_batched_messages_are_published_before_shutdown() throws Exception {
+        for (int i = 0; i < 15; i++) {
+            indexer.add(TEST_INDEX, createDoc("doc" + i).with(Pipeline.Type.CORENLP).build());
+        }
+        Publisher publisher = mock(Publisher.class);
+        ResumeNlpTask resumeNlpTask = new ResumeNlpTask(publisher, indexer,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("defaultProject", "test-datashare");
+                    put("nlpMessageBatchSize", "10");
+                    put("nlpMessageFlushIntervalMillis", "60000");
+                }}), new User("test"), new HashSet<Pipeline.Type>() {{add(Pipeline.Type.OPENNLP);}});
+        resumeNlpTask.call();
+        verify(publisher, times(4)).publish(any(), any());
+    }
 }
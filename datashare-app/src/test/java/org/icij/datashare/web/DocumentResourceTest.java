@@ -3,10 +3,15 @@ package org.icij.datashare.web;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.Repository;
 import org.icij.datashare.session.LocalUserFilter;
+import org.icij.datashare.tasks.GroupTagTask;
+import org.icij.datashare.tasks.TaskFactory;
+import org.icij.datashare.tasks.TaskManager;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.text.DocumentBuilder;
 import org.icij.datashare.text.Project;
+import org.icij.datashare.text.Tag;
 import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
 import org.icij.datashare.user.User;
 import org.icij.datashare.web.testhelpers.AbstractProdWebServerTest;
 import org.junit.Before;
@@ -24,7 +29,9 @@ import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
 import static java.util.stream.Stream.of;
+import static org.fest.assertions.Assertions.assertThat;
 import static org.icij.datashare.text.DocumentBuilder.createDoc;
 import static org.icij.datashare.text.Project.project;
 import static org.icij.datashare.text.Tag.tag;
@@ -37,11 +44,12 @@ public class DocumentResourceTest extends AbstractProdWebServerTest {
     @Rule public TemporaryFolder temp = new TemporaryFolder();
     @Mock Repository repository;
     @Mock Indexer indexer;
+    @Mock TaskFactory taskFactory;
 
     @Before
     public void setUp() {
         initMocks(this);
-        configure(routes -> routes.add(new DocumentResource(repository, indexer)).filter(new LocalUserFilter(new PropertiesProvider())));
+        configure(routes -> routes.add(new DocumentResource(repository, indexer, new TaskManager(new PropertiesProvider()), taskFactory)).filter(new LocalUserFilter(new PropertiesProvider())));
     }
 
     @Test
@@ -53,6 +61,45 @@ public class DocumentResourceTest extends AbstractProdWebServerTest {
         get("/api/local-datashare/documents/src/id_txt").should().contain("text content").haveType("text/plain;charset=UTF-8");
     }
 
+    @Test
+    public void test_get_source_file_with_etag() throws Exception {
+        File txtFile = new File(temp.getRoot(), "file.txt");
+        write(txtFile, "text content");
+        indexFile("local-datashare", "id_txt", txtFile.toPath(), null, null);
+
+        get("/api/local-datashare/documents/src/id_txt").should().respond(200).haveHeader("ETag", "\"id_txt\"").haveHeader("Accept-Ranges", "bytes");
+        get("/api/local-datashare/documents/src/id_txt").withHeader("If-None-Match", "\"id_txt\"").should().respond(304);
+        get("/api/local-datashare/documents/src/id_txt").withHeader("If-None-Match", "\"other\"").should().respond(200).contain("text content");
+    }
+
+    @Test
+    public void test_get_source_file_range() throws Exception {
+        File txtFile = new File(temp.getRoot(), "file.txt");
+        write(txtFile, "text content");
+        indexFile("local-datashare", "id_txt", txtFile.toPath(), null, null);
+
+        get("/api/local-datashare/documents/src/id_txt").withHeader("Range", "bytes=5-11").should().respond(206)
+                .haveHeader("Content-Range", "bytes 5-11/12").contain("content").not().contain("text");
+        get("/api/local-datashare/documents/src/id_txt").withHeader("Range", "bytes=-7").should().respond(206)
+                .haveHeader("Content-Range", "bytes 5-11/12");
+        get("/api/local-datashare/documents/src/id_txt").withHeader("Range", "bytes=12-").should().respond(416)
+                .haveHeader("Content-Range", "bytes */12");
+    }
+
+    @Test
+    public void test_byte_range() {
+        assertThat(DocumentResource.ByteRange.parse(null, 10).partial).isFalse();
+        assertThat(DocumentResource.ByteRange.parse("bytes=2-4", -1).partial).isFalse();
+        assertThat(DocumentResource.ByteRange.parse("bytes=2-4,6-8", 10).partial).isFalse();
+        assertThat(DocumentResource.ByteRange.parse("bytes=4-2", 10).partial).isFalse();
+        assertThat(DocumentResource.ByteRange.parse("bytes=2-4", 10).length()).isEqualTo(3);
+        assertThat(DocumentResource.ByteRange.parse("bytes=2-", 10).end).isEqualTo(9);
+        assertThat(DocumentResource.ByteRange.parse("bytes=2-20", 10).end).isEqualTo(9);
+        assertThat(DocumentResource.ByteRange.parse("bytes=-20", 10).start).isEqualTo(0);
+        assertThat(DocumentResource.ByteRange.parse("bytes=10-", 10)).isNull();
+        assertThat(DocumentResource.ByteRange.parse("bytes=-0", 10)).isNull();
+    }
+
     @Test
     public void test_get_source_file_with_content_type() throws Exception {
         File txtFile = new File(temp.getRoot(), "/my/path/to/file.ods");
@@ -104,6 +151,24 @@ public class DocumentResourceTest extends AbstractProdWebServerTest {
         get("/api/foo_index/documents/src/id").should().respond(403);
     }
 
+    @Test
+    public void test_get_content_pages() throws Exception {
+        ElasticsearchIndexer esIndexer = mock(ElasticsearchIndexer.class);
+        when(esIndexer.getContentPages("local-datashare", "docId", "root", 1, 2)).thenReturn(asList("page2", "page3"));
+        when(esIndexer.getContentPages("local-datashare", "docId", "docId", 0, DocumentResource.MAX_CONTENT_PAGES_SIZE)).thenReturn(emptyList());
+        configure(routes -> routes.add(new DocumentResource(repository, esIndexer, new TaskManager(new PropertiesProvider()), taskFactory)).filter(new LocalUserFilter(new PropertiesProvider())));
+
+        get("/api/local-datashare/documents/content/pages/docId?routing=root&from=1&size=2").should().respond(200).contain("[\"page2\",\"page3\"]");
+        get("/api/local-datashare/documents/content/pages/docId?size=1000").should().respond(200).contain("[]");
+    }
+
+    @Test
+    public void test_get_content_pages_with_bad_parameters() {
+        get("/api/local-datashare/documents/content/pages/docId?from=-1").should().respond(400);
+        get("/api/local-datashare/documents/content/pages/docId?size=foo").should().respond(400);
+        get("/api/foo_index/documents/content/pages/docId").should().respond(403);
+    }
+
     @Test
     public void test_group_star_document_with_project() {
         when(repository.star(project("prj1"), User.local(), asList("id1", "id2"))).thenReturn(2);
@@ -171,17 +236,21 @@ public class DocumentResourceTest extends AbstractProdWebServerTest {
     @Test
     public void test_group_tag_document_with_project() throws Exception {
         when(repository.tag(eq(project("prj1")), eq(asList("doc1", "doc2")), eq(tag("tag1")), eq(tag("tag2")))).thenReturn(true).thenReturn(false);
-        when(indexer.tag(eq(project("prj1")), eq(asList("doc1", "doc2")), eq(tag("tag1")), eq(tag("tag2")))).thenReturn(true).thenReturn(false);
+        when(taskFactory.createGroupTagTask(any(), any(), any(), any(), any())).thenReturn(mock(GroupTagTask.class));
+
+        post("/api/prj1/documents/batchUpdate/tag", "{\"tags\": [\"tag1\", \"tag2\"], \"docIds\": [\"doc1\", \"doc2\"]}").should().respond(200).contain("\"name\"");
 
-        post("/api/prj1/documents/batchUpdate/tag", "{\"tags\": [\"tag1\", \"tag2\"], \"docIds\": [\"doc1\", \"doc2\"]}").should().respond(200);
+        verify(taskFactory).createGroupTagTask(any(), eq(project("prj1")), eq(asList("doc1", "doc2")), eq(new Tag[] {tag("tag1"), tag("tag2")}), eq(false));
     }
 
     @Test
     public void test_group_untag_document_with_project() throws Exception {
         when(repository.untag(eq(project("prj1")), eq(asList("doc1", "doc2")), eq(tag("tag1")), eq(tag("tag2")))).thenReturn(true).thenReturn(false);
-        when(indexer.untag(eq(project("prj1")), eq(asList("doc1", "doc2")), eq(tag("tag1")), eq(tag("tag2")))).thenReturn(true).thenReturn(false);
+        when(taskFactory.createGroupTagTask(any(), any(), any(), any(), any())).thenReturn(mock(GroupTagTask.class));
+
+        post("/api/prj1/documents/batchUpdate/untag", "{\"tags\": [\"tag1\", \"tag2\"], \"docIds\": [\"doc1\", \"doc2\"]}").should().respond(200).contain("\"name\"");
 
-        post("/api/prj1/documents/batchUpdate/untag", "{\"tags\": [\"tag1\", \"tag2\"], \"docIds\": [\"doc1\", \"doc2\"]}").should().respond(200);
+        verify(taskFactory).createGroupTagTask(any(), eq(project("prj1")), eq(asList("doc1", "doc2")), eq(new Tag[] {tag("tag1"), tag("tag2")}), eq(true));
     }
 
     @Test
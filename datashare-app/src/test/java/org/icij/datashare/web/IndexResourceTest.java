@@ -7,6 +7,8 @@ import org.icij.datashare.session.LocalUserFilter;
 import org.icij.datashare.test.ElasticsearchRule;
 import org.icij.datashare.text.DocumentBuilder;
 import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
+import org.icij.datashare.text.indexing.elasticsearch.IndexWrites;
+import org.icij.datashare.text.indexing.elasticsearch.IngestMode;
 import org.icij.datashare.web.testhelpers.AbstractProdWebServerTest;
 import org.junit.After;
 import org.junit.Before;
@@ -16,16 +18,21 @@ import org.junit.Test;
 import java.io.IOException;
 import java.util.HashMap;
 
+import static java.util.Arrays.asList;
 import static org.elasticsearch.action.support.WriteRequest.RefreshPolicy.IMMEDIATE;
+import static org.fest.assertions.Assertions.assertThat;
 import static org.icij.datashare.test.ElasticsearchRule.TEST_INDEX;
 
 public class IndexResourceTest extends AbstractProdWebServerTest {
     @ClassRule public static ElasticsearchRule esRule = new ElasticsearchRule(TEST_INDEX);
-    private final ElasticsearchIndexer indexer = new ElasticsearchIndexer(esRule.client, new PropertiesProvider()).withRefresh(IMMEDIATE);
+    private final IndexWrites indexWrites = new IndexWrites();
+    private final ElasticsearchIndexer indexer = new ElasticsearchIndexer(esRule.client, new PropertiesProvider(), indexWrites).withRefresh(IMMEDIATE);
+    private final IngestMode ingestMode = new IngestMode(esRule.client);
+    private final SearchResponseCache searchCache = new SearchResponseCache(new PropertiesProvider(), indexWrites, ingestMode);
 
     @Test
     public void test_no_auth_get_forward_request_to_elastic() {
-        configure(routes -> routes.add(new IndexResource(indexer)).filter(new LocalUserFilter(new PropertiesProvider(new HashMap<String, String>() {{
+        configure(routes -> routes.add(new IndexResource(indexer, searchCache)).filter(new LocalUserFilter(new PropertiesProvider(new HashMap<String, String>() {{
             put("defaultUserName", "test");
         }}))));
         get("/api/index/search/test-datashare/_search").should().respond(200).contain("\"successful\":1");
@@ -33,24 +40,24 @@ public class IndexResourceTest extends AbstractProdWebServerTest {
 
     @Test
     public void test_no_auth_get_forward_request_to_elastic_if_granted_to_read_index() {
-        configure(routes -> routes.add(new IndexResource(indexer)).filter(new LocalUserFilter(new PropertiesProvider(new HashMap<String, String>() {{
+        configure(routes -> routes.add(new IndexResource(indexer, searchCache)).filter(new LocalUserFilter(new PropertiesProvider(new HashMap<String, String>() {{
             put("defaultUserName", "test");
         }}))));
         get("/api/index/search/unauthorized/_search").should().respond(401);
     }
     @Test
     public void test_no_auth_get_unauthorized_on_unknown_index() {
-        configure(routes -> routes.add(new IndexResource(indexer)).filter(LocalUserFilter.class));
+        configure(routes -> routes.add(new IndexResource(indexer, searchCache)).filter(LocalUserFilter.class));
         get("/api/index/search/hacker/bar/baz").should().respond(401);
     }
     @Test
     public void test_put_create_local_index_in_local_mode() {
-        configure(routes -> routes.add(new IndexResource(indexer)).filter(LocalUserFilter.class));
+        configure(routes -> routes.add(new IndexResource(indexer, searchCache)).filter(LocalUserFilter.class));
         put("/api/index/index_name").should().respond(201);
     }
     @Test
     public void test_no_auth_post_forward_request_to_elastic_with_body() {
-        configure(routes -> routes.add(new IndexResource(indexer)).filter(new LocalUserFilter(new PropertiesProvider(new HashMap<String, String>() {{
+        configure(routes -> routes.add(new IndexResource(indexer, searchCache)).filter(new LocalUserFilter(new PropertiesProvider(new HashMap<String, String>() {{
             put("defaultUserName", "test");
         }}))));
         post("/api/index/search/test-datashare/_search", "{}").should().respond(200).contain("\"successful\":1");
@@ -58,7 +65,7 @@ public class IndexResourceTest extends AbstractProdWebServerTest {
 
     @Test
     public void test_no_auth_options_forward_request_to_elastic() {
-        configure(routes -> routes.add(new IndexResource(indexer)).filter(new LocalUserFilter(new PropertiesProvider(new HashMap<String, String>() {{
+        configure(routes -> routes.add(new IndexResource(indexer, searchCache)).filter(new LocalUserFilter(new PropertiesProvider(new HashMap<String, String>() {{
             put("defaultUserName", "test");
         }}))));
         options("/api/index/search/test-datashare").should().respond(200);
@@ -66,7 +73,7 @@ public class IndexResourceTest extends AbstractProdWebServerTest {
 
     @Test
     public void test_delete_should_return_method_not_allowed() {
-        configure(routes -> routes.add(new IndexResource(indexer)).filter(LocalUserFilter.class));
+        configure(routes -> routes.add(new IndexResource(indexer, searchCache)).filter(LocalUserFilter.class));
         delete("/api/index/search/foo/bar").should().respond(405);
     }
 
@@ -92,6 +99,65 @@ public class IndexResourceTest extends AbstractProdWebServerTest {
         post("/api/index/search/cecile-datashare/_delete_by_query").withPreemptiveAuthentication("cecile", "").should().respond(401);
     }
 
+    @Test
+    public void test_search_responses_are_cached() {
+        indexer.createIndex("cecile-datashare");
+        post("/api/index/search/cecile-datashare/_search", "{\"size\": 0, \"query\": {\"match_all\": {}}}").withPreemptiveAuthentication("cecile", "").should().respond(200);
+        post("/api/index/search/cecile-datashare/_search", "{\"query\": {\"match_all\": {}}, \"size\": 0}").withPreemptiveAuthentication("cecile", "").should().respond(200);
+        post("/api/index/search/cecile-datashare/_count").withPreemptiveAuthentication("cecile", "").should().respond(200);
+
+        assertThat(searchCache.getHits()).isEqualTo(1);
+        assertThat(searchCache.getMisses()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_search_responses_are_not_cached_after_a_write() throws IOException {
+        indexer.createIndex("cecile-datashare");
+        post("/api/index/search/cecile-datashare/_count").withPreemptiveAuthentication("cecile", "").should().respond(200).contain("\"count\":0");
+        indexer.add("cecile-datashare", DocumentBuilder.createDoc("1234567890abcdef").build());
+
+        post("/api/index/search/cecile-datashare/_count").withPreemptiveAuthentication("cecile", "").should().respond(200).contain("\"count\":1");
+        assertThat(searchCache.getHits()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_search_responses_are_not_cached_in_ingest_mode() throws IOException {
+        indexer.createIndex("cecile-datashare");
+        ingestMode.start("cecile-datashare");
+        try {
+            post("/api/index/search/cecile-datashare/_count").withPreemptiveAuthentication("cecile", "").should().respond(200);
+            post("/api/index/search/cecile-datashare/_count").withPreemptiveAuthentication("cecile", "").should().respond(200);
+        } finally {
+            ingestMode.stop("cecile-datashare");
+        }
+
+        assertThat(searchCache.getHits()).isEqualTo(0);
+        assertThat(searchCache.getMisses()).isEqualTo(0);
+        assertThat(searchCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_search_responses_are_not_cached_without_refresh_interval() {
+        SearchResponseCache cache = new SearchResponseCache(new PropertiesProvider(new HashMap<String, String>() {{
+            put("cecile-datashare.indexRefreshInterval", "-1");
+            put("indexRefreshInterval", "30s");
+        }}), indexWrites, ingestMode);
+
+        assertThat(cache.refreshDelay(asList("cecile-datashare"))).isEqualTo(-1);
+        assertThat(cache.refreshDelay(asList("test-datashare"))).isEqualTo(30000);
+        assertThat(cache.key(asList("cecile-datashare"), asList("cecile"), "/_count", new byte[0], false)).isNull();
+    }
+
+    @Test
+    public void test_scroll_responses_are_not_cached() {
+        indexer.createIndex("cecile-datashare");
+        post("/api/index/search/cecile-datashare/_search?scroll=1m", "{}").withPreemptiveAuthentication("cecile", "").should().respond(200);
+        post("/api/index/search/cecile-datashare/_search?scroll=1m", "{}").withPreemptiveAuthentication("cecile", "").should().respond(200);
+
+        assertThat(searchCache.getHits()).isEqualTo(0);
+        assertThat(searchCache.getMisses()).isEqualTo(0);
+    }
+
     @Test
     public void test_auth_forward_request_for_scroll_requests() {
         post("/api/index/search/_search/scroll?scroll_id=DXF1ZXJ5QW5kRmV0Y2gBAAAAAAAAAD4WYm9laVYtZndUQlNsdDcwakFMNjU1QQ").withPreemptiveAuthentication("cecile", "").should().respond(500);
@@ -110,7 +176,7 @@ public class IndexResourceTest extends AbstractProdWebServerTest {
     @Before
     public void setUp() {
         configure(routes ->
-                routes.add(new IndexResource(indexer)).
+                routes.add(new IndexResource(indexer, searchCache)).
                 filter(new BasicAuthFilter("/", "icij", DatashareUser.singleUser("cecile"))));
     }
 
@@ -5,6 +5,8 @@ import org.icij.datashare.session.DatashareUser;
 import org.icij.datashare.session.LocalUserFilter;
 import org.icij.datashare.text.NamedEntity;
 import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
+import org.icij.datashare.text.indexing.elasticsearch.EntityStats;
 import org.icij.datashare.web.testhelpers.AbstractProdWebServerTest;
 import org.junit.Before;
 import org.junit.Test;
@@ -13,6 +15,7 @@ import org.mockito.Mock;
 import java.io.IOException;
 import java.util.stream.Stream;
 
+import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.icij.datashare.text.Language.FRENCH;
@@ -23,7 +26,7 @@ import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 public class NamedEntityResourceTest extends AbstractProdWebServerTest {
-    @Mock Indexer indexer;
+    @Mock ElasticsearchIndexer indexer;
     @Test
     public void test_get_standalone_named_entity_should_return_not_found() {
         get("/api/index/namedEntity/my_id").should().respond(404);
@@ -60,6 +63,35 @@ public class NamedEntityResourceTest extends AbstractProdWebServerTest {
         verify(indexer).bulkUpdate("index", singletonList(toBeHidden));
     }
 
+    @Test
+    public void test_get_entity_stats() throws IOException {
+        doReturn(singletonList(new EntityStats("john doe", "PERSON", 12, 34))).when(indexer).getEntityStats("index", "PERSON", 10, 5);
+
+        get("/api/index/entityStats?category=PERSON&from=10&size=5").should().respond(200).haveType("application/json")
+                .contain("\"mentionNorm\":\"john doe\"").contain("\"documents\":12").contain("\"occurrences\":34");
+    }
+
+    @Test
+    public void test_get_entity_stats_with_default_pagination() throws IOException {
+        doReturn(emptyList()).when(indexer).getEntityStats("index", null, 0, 50);
+
+        get("/api/index/entityStats").should().respond(200).contain("[]");
+    }
+
+    @Test
+    public void test_get_entity_stats_with_invalid_pagination() {
+        get("/api/index/entityStats?from=-1").should().respond(400);
+        get("/api/index/entityStats?size=-5").should().respond(400);
+        get("/api/index/entityStats?size=ten").should().respond(400);
+    }
+
+    @Test
+    public void test_get_entity_stats_size_is_capped() throws IOException {
+        doReturn(emptyList()).when(indexer).getEntityStats("index", null, 0, 1000);
+
+        get("/api/index/entityStats?size=100000").should().respond(200).contain("[]");
+    }
+
     @Test
     public void test_hide_named_entity_when_failure() throws IOException {
         doThrow(new RuntimeException()).when(indexer).search("index", NamedEntity.class);
@@ -5,7 +5,10 @@ import org.icij.datashare.Repository;
 import org.icij.datashare.com.DataBus;
 import org.icij.datashare.tasks.DocumentCollectionFactory;
 import org.icij.datashare.test.DatashareTimeRule;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
+import org.icij.datashare.text.indexing.elasticsearch.IngestMode;
+import org.icij.datashare.text.indexing.elasticsearch.SourceExtractor;
 import org.icij.datashare.web.testhelpers.AbstractProdWebServerTest;
 import org.icij.extract.queue.DocumentQueue;
 import org.junit.Before;
@@ -14,7 +17,11 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
+
+import static java.util.Collections.singletonList;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
@@ -28,14 +35,20 @@ public class StatusResourceTest extends AbstractProdWebServerTest {
     @Mock Repository repository;
     @Mock DataBus dataBus;
     @Mock DocumentCollectionFactory documentCollectionFactory;
-    @Mock Indexer indexer;
+    @Mock ElasticsearchIndexer indexer;
+    @Mock ElasticsearchIndexer.ElasticsearchSearcher searcher;
     @Mock DocumentQueue queue;
+    @Mock IngestMode ingestMode;
+    @Mock SearchResponseCache searchCache;
+    @Mock SourceExtractor sourceExtractor;
 
     @Before
     public void setUp() {
         initMocks(this);
+        when(indexer.search("local-datashare", Document.class)).thenReturn(searcher);
+        when(ingestMode.getIndices()).thenReturn(new HashSet<>());
         when(documentCollectionFactory.createQueue(any(),eq(new PropertiesProvider().get(PropertiesProvider.QUEUE_NAME_OPTION).orElse("extract:queue")))).thenReturn(mock(DocumentQueue.class));
-        configure(routes -> routes.add(new StatusResource(new PropertiesProvider(),repository,indexer,dataBus,documentCollectionFactory)));
+        configure(routes -> routes.add(new StatusResource(new PropertiesProvider(),repository,indexer,dataBus,ingestMode,searchCache,sourceExtractor,documentCollectionFactory)));
     }
 
     @Test
@@ -73,7 +86,7 @@ public class StatusResourceTest extends AbstractProdWebServerTest {
     public void test_get_status_with_open_metrics_format_with_platform_name() {
         configure(routes -> routes.add(new StatusResource(new PropertiesProvider(new HashMap<String, String>() {{
             put("platform", "platform");
-        }}),repository,indexer,dataBus,documentCollectionFactory)));
+        }}),repository,indexer,dataBus,ingestMode,searchCache,documentCollectionFactory)));
         when(dataBus.getHealth()).thenReturn(true);
         get("/api/status?format=openmetrics").should().respond(200).haveType("text/plain;version=0.0.4").contain("" +
                 "# HELP datashare The datashare resources status\n" +
@@ -85,6 +98,49 @@ public class StatusResourceTest extends AbstractProdWebServerTest {
                 "datashare{environment=\"platform\",resource=\"document_queue_size\"} 0 1593531060000");
     }
 
+    @Test
+    public void test_get_ingest_mode_status() {
+        when(ingestMode.getIndices()).thenReturn(new HashSet<>(singletonList("local-datashare")));
+        get("/api/status").should().respond(200).contain("\"ingest_mode_indices\":[\"local-datashare\"]");
+        get("/api/status?format=openmetrics").should().respond(200).contain("datashare{resource=\"ingest_mode_indices\"} 1 1593531060000");
+    }
+
+    @Test
+    public void test_get_index_document_count() throws Exception {
+        when(searcher.count()).thenReturn(12L);
+        get("/api/status").should().respond(200).contain("\"index_document_count\":12");
+        get("/api/status?format=openmetrics").should().respond(200).contain("datashare{resource=\"index_document_count\"} 12 1593531060000");
+    }
+
+    @Test
+    public void test_get_index_document_count_with_io_exception() throws Exception {
+        when(searcher.count()).thenThrow(new IOException("test"));
+        get("/api/status").should().respond(200).contain("\"index_document_count\":-1");
+    }
+
+    @Test
+    public void test_get_search_cache_metrics() {
+        when(searchCache.getHits()).thenReturn(3L);
+        when(searchCache.getMisses()).thenReturn(5L);
+        get("/api/status").should().respond(200).contain("\"search_cache_hits\":3").contain("\"search_cache_misses\":5");
+        get("/api/status?format=openmetrics").should().respond(200)
+                .contain("datashare{resource=\"search_cache_hits\"} 3 1593531060000")
+                .contain("datashare{resource=\"search_cache_misses\"} 5 1593531060000");
+    }
+
+    @Test
+    public void test_get_source_memory_metrics() {
+        when(sourceExtractor.getMemoryBytes()).thenReturn(1024L);
+        when(sourceExtractor.getPeakMemoryBytes()).thenReturn(4096L);
+        when(sourceExtractor.getSpilledBytes()).thenReturn(2048L);
+        when(sourceExtractor.getSpills()).thenReturn(2L);
+        get("/api/status").should().respond(200).contain("\"source_memory_bytes\":1024").contain("\"source_memory_peak_bytes\":4096")
+                .contain("\"source_spilled_bytes\":2048").contain("\"source_spills\":2");
+        get("/api/status?format=openmetrics").should().respond(200)
+                .contain("datashare{resource=\"source_memory_bytes\"} 1024 1593531060000")
+                .contain("datashare{resource=\"source_spills\"} 2 1593531060000");
+    }
+
     @Test
     public void test_get_queue_status() {
         get("/api/status").should().respond(200).
@@ -97,7 +153,7 @@ public class StatusResourceTest extends AbstractProdWebServerTest {
         DocumentQueue mockQueue = mock(DocumentQueue.class);
         when(mockQueue.size()).thenThrow(new RuntimeException("test"));
         when(documentCollectionFactory.createQueue(any(),eq(new PropertiesProvider().get(PropertiesProvider.QUEUE_NAME_OPTION).orElse("extract:queue")))).thenReturn(mockQueue);
-        configure(routes -> routes.add(new StatusResource(new PropertiesProvider(),repository,indexer,dataBus,documentCollectionFactory)));
+        configure(routes -> routes.add(new StatusResource(new PropertiesProvider(),repository,indexer,dataBus,ingestMode,searchCache,documentCollectionFactory)));
         get("/api/status").should().respond(200).contain("\"document_queue_status\":false");
     }
 }
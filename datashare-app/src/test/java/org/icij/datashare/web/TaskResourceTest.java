@@ -282,6 +282,33 @@ public class TaskResourceTest extends AbstractProdWebServerTest {
         put("/api/task/stopAll").should().respond(200).contain("{}");
     }
 
+    @Test
+    public void test_reshard_project_index() {
+        post("/api/task/reshard/local-datashare", "{\"options\":{\"shards\":\"4\"}}").should().respond(200).haveType("application/json");
+
+        verify(taskFactory).createReshardTask(local(), "local-datashare", 4);
+    }
+
+    @Test
+    public void test_reshard_without_shards_option() {
+        post("/api/task/reshard/local-datashare", "{}").should().respond(400);
+    }
+
+    @Test
+    public void test_reshard_with_invalid_shards_option() {
+        post("/api/task/reshard/local-datashare", "{\"options\":{\"shards\":\"four\"}}").should().respond(400);
+        post("/api/task/reshard/local-datashare", "{\"options\":{\"shards\":\"0\"}}").should().respond(400);
+
+        verify(taskFactory, never()).createReshardTask(any(), any(), any());
+    }
+
+    @Test
+    public void test_reshard_project_index_not_granted() {
+        post("/api/task/reshard/other-project", "{\"options\":{\"shards\":\"4\"}}").should().respond(403);
+
+        verify(taskFactory, never()).createReshardTask(any(), any(), any());
+    }
+
     private void init(TaskFactory taskFactory) {
         reset(taskFactory);
         when(taskFactory.createIndexTask(any(), any(), any())).thenReturn(mock(IndexTask.class));
@@ -289,6 +316,7 @@ public class TaskResourceTest extends AbstractProdWebServerTest {
         when(taskFactory.createScanTask(any(), any(), any(), any())).thenReturn(mock(ScanTask.class));
         when(taskFactory.createDeduplicateTask(any(), any())).thenReturn(mock(DeduplicateTask.class));
         when(taskFactory.createScanIndexTask(any(), any())).thenReturn(mock(ScanIndexTask.class));
+        when(taskFactory.createReshardTask(any(), any(), any())).thenReturn(mock(ReshardTask.class));
         when(taskFactory.createResumeNlpTask(any(), eq(singleton(Pipeline.Type.EMAIL)))).thenReturn(mock(ResumeNlpTask.class));
         when(taskFactory.createNlpTask(any(), any())).thenReturn(mock(NlpApp.class));
         when(taskFactory.createNlpTask(any(), any(), any(), any())).thenReturn(mock(NlpApp.class));
@@ -48,6 +48,8 @@ public class DatashareCli {
         DatashareCliOptions.fileParserParallelism(parser);
         DatashareCliOptions.nlpParallelism(parser);
         DatashareCliOptions.followSymlinks(parser);
+        DatashareCliOptions.bulkIndexing(parser);
+        DatashareCliOptions.ingestMode(parser);
         DatashareCliOptions.enableBrowserOpenLink(parser);
         DatashareCliOptions.batchSearchMaxTime(parser);
         DatashareCliOptions.batchSearchThrottle(parser);
@@ -73,6 +73,16 @@ public final class DatashareCliOptions {
         return parser.acceptsAll(singletonList("followSymlinks"), "Follow symlinks (default false)");
     }
 
+    static OptionSpecBuilder bulkIndexing(OptionParser parser) {
+        return parser.acceptsAll(singletonList("bulkIndexing"),
+                "Index documents with asynchronous elasticsearch bulk requests (INDEX task, default false)");
+    }
+
+    static OptionSpecBuilder ingestMode(OptionParser parser) {
+        return parser.acceptsAll(singletonList("ingestMode"),
+                "Disable refresh and replicas of the index while indexing documents (INDEX task, default false)");
+    }
+
     static OptionSpec<String> cors(OptionParser parser) {
         return parser.acceptsAll(
                 singletonList("cors"), "CORS headers (needs the web option)")
@@ -340,7 +350,7 @@ public final class DatashareCliOptions {
 
     static OptionSpec<String> esHost(OptionParser parser) {
         return parser.acceptsAll(
-                asList("elasticsearchAddress"), "Elasticsearch host address")
+                asList("elasticsearchAddress"), "Elasticsearch host address (comma separated for several hosts)")
                 .withRequiredArg()
                 .ofType(String.class)
                 .defaultsTo("http://elasticsearch:9200");
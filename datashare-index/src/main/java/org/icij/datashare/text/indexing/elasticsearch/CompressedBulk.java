@@ -0,0 +1,141 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.xcontent.LoggingDeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.VersionType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.common.xcontent.XContentType.JSON;
+
+/**
+ * sends the bulk requests with a gzip compressed body when bulkCompression is set. The high level client cannot
+ * compress a request body, so the bulk body is built here the same way and sent with the low level client.
+ *
+ * Without bulkCompression the requests are sent by the high level client.
+ */
+class CompressedBulk {
+    private static final byte SEPARATOR = '\n';
+
+    static BulkResponse bulk(RestHighLevelClient client, BulkRequest bulkRequest, boolean compression) throws IOException {
+        if (!compression) {
+            return client.bulk(bulkRequest, RequestOptions.DEFAULT);
+        }
+        return parse(client.getLowLevelClient().performRequest(request(bulkRequest)));
+    }
+
+    static void bulkAsync(RestHighLevelClient client, BulkRequest bulkRequest, boolean compression, ActionListener<BulkResponse> listener) {
+        if (!compression) {
+            client.bulkAsync(bulkRequest, RequestOptions.DEFAULT, listener);
+            return;
+        }
+        Request request;
+        try {
+            request = request(bulkRequest);
+        } catch (IOException e) {
+            listener.onFailure(e);
+            return;
+        }
+        client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                BulkResponse bulkResponse;
+                try {
+                    bulkResponse = parse(response);
+                } catch (IOException e) {
+                    listener.onFailure(e);
+                    return;
+                }
+                listener.onResponse(bulkResponse);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    static Request request(BulkRequest bulkRequest) throws IOException {
+        Request request = new Request("POST", "/_bulk");
+        if (bulkRequest.getRefreshPolicy() != WriteRequest.RefreshPolicy.NONE) {
+            request.addParameter("refresh", bulkRequest.getRefreshPolicy().getValue());
+        }
+        request.addParameter("timeout", bulkRequest.timeout().getStringRep());
+        request.setEntity(new GzipCompressingEntity(new ByteArrayEntity(body(bulkRequest), ContentType.create("application/x-ndjson", UTF_8))));
+        return request;
+    }
+
+    static byte[] body(BulkRequest bulkRequest) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (DocWriteRequest<?> action : bulkRequest.requests()) {
+            DocWriteRequest.OpType opType = action.opType();
+            try (XContentBuilder metadata = jsonBuilder()) {
+                metadata.startObject().startObject(opType.getLowercase());
+                if (Strings.hasLength(action.index())) metadata.field("_index", action.index());
+                if (Strings.hasLength(action.type())) metadata.field("_type", action.type());
+                if (Strings.hasLength(action.id())) metadata.field("_id", action.id());
+                if (Strings.hasLength(action.routing())) metadata.field("routing", action.routing());
+                if (Strings.hasLength(action.parent())) metadata.field("parent", action.parent());
+                if (action.version() != Versions.MATCH_ANY) metadata.field("version", action.version());
+                if (action.versionType() != VersionType.INTERNAL) metadata.field("version_type", action.versionType().name().toLowerCase(Locale.ROOT));
+                if (action instanceof IndexRequest && Strings.hasLength(((IndexRequest) action).getPipeline())) {
+                    metadata.field("pipeline", ((IndexRequest) action).getPipeline());
+                }
+                if (action instanceof UpdateRequest) {
+                    UpdateRequest updateRequest = (UpdateRequest) action;
+                    if (updateRequest.retryOnConflict() > 0) metadata.field("retry_on_conflict", updateRequest.retryOnConflict());
+                    if (updateRequest.fetchSource() != null) metadata.field("_source", updateRequest.fetchSource());
+                }
+                metadata.endObject().endObject();
+                BytesReference.bytes(metadata).writeTo(content);
+                content.write(SEPARATOR);
+            }
+            if (action instanceof IndexRequest) {
+                IndexRequest indexRequest = (IndexRequest) action;
+                if (indexRequest.getContentType() == JSON) {
+                    indexRequest.source().writeTo(content);
+                } else {
+                    content.write(XContentHelper.convertToJson(indexRequest.source(), false, false, indexRequest.getContentType()).getBytes(UTF_8));
+                }
+                content.write(SEPARATOR);
+            } else if (action instanceof UpdateRequest) {
+                XContentHelper.toXContent((UpdateRequest) action, JSON, false).writeTo(content);
+                content.write(SEPARATOR);
+            }
+        }
+        return content.toByteArray();
+    }
+
+    private static BulkResponse parse(Response response) throws IOException {
+        try (XContentParser parser = JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                LoggingDeprecationHandler.INSTANCE, response.getEntity().getContent())) {
+            return BulkResponse.fromXContent(parser);
+        }
+    }
+}
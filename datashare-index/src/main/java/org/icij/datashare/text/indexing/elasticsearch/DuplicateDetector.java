@@ -0,0 +1,150 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.stream;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Finds the documents ids that are already in the index with one multi-get request per batch of ids.
+ *
+ * When duplicateCheckBatchSize is greater than 1, the ids checked concurrently by several threads are grouped:
+ * the ids that arrive while a multi-get is running are sent together in the next one, by one of the waiting
+ * threads. A thread never waits for a batch to be full.
+ *
+ * When duplicateFilterSize is set, ids seen by the detector are also recorded in a bloom filter.
+ * If the index was empty when the detector started, an id that is not in the filter cannot be
+ * in the index, so only the ids for which the filter says "maybe" are sent to elasticsearch.
+ * This assumes that no other process is indexing into the same index concurrently.
+ */
+class DuplicateDetector {
+    private static final Logger logger = LoggerFactory.getLogger(DuplicateDetector.class);
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private final RestHighLevelClient client;
+    private final ElasticsearchConfiguration esCfg;
+    private final BloomFilter<CharSequence> seenIds;
+    private final Queue<PendingCheck> pendingChecks = new ConcurrentLinkedQueue<>();
+    private final Object checkLock = new Object();
+    private volatile Boolean indexWasEmpty;
+
+    DuplicateDetector(RestHighLevelClient client, ElasticsearchConfiguration esCfg) {
+        this.client = client;
+        this.esCfg = esCfg;
+        this.seenIds = esCfg.duplicateFilterSize > 0 ?
+                BloomFilter.create(Funnels.stringFunnel(UTF_8), esCfg.duplicateFilterSize, FALSE_POSITIVE_PROBABILITY) : null;
+    }
+
+    /**
+     * must be called before the first document is written in the index for the filter to be used
+     */
+    void start(String indexName) throws IOException {
+        if (seenIds == null || indexWasEmpty != null) {
+            return;
+        }
+        synchronized (this) {
+            if (indexWasEmpty == null) {
+                SearchRequest searchRequest = new SearchRequest(new String[]{indexName}, new SearchSourceBuilder().size(0));
+                indexWasEmpty = client.search(searchRequest, RequestOptions.DEFAULT).getHits().totalHits == 0;
+                logger.info("index {} is {}empty, duplicate filter will {}be used", indexName,
+                        indexWasEmpty ? "" : "not ", indexWasEmpty ? "" : "not ");
+            }
+        }
+    }
+
+    boolean isDuplicate(String indexName, String id) throws IOException {
+        if (esCfg.duplicateCheckBatchSize <= 1) {
+            return !getDuplicates(indexName, singletonList(id)).isEmpty();
+        }
+        PendingCheck check = new PendingCheck(id);
+        pendingChecks.add(check);
+        while (!check.duplicate.isDone()) {
+            synchronized (checkLock) {
+                if (!check.duplicate.isDone()) {
+                    checkPendingIds(indexName);
+                }
+            }
+        }
+        return check.isDuplicate();
+    }
+
+    private void checkPendingIds(String indexName) {
+        List<PendingCheck> checks = new ArrayList<>();
+        PendingCheck check;
+        while (checks.size() < esCfg.duplicateCheckBatchSize && (check = pendingChecks.poll()) != null) {
+            checks.add(check);
+        }
+        try {
+            Set<String> duplicates = getDuplicates(indexName, checks.stream().map(c -> c.id).distinct().collect(toList()));
+            checks.forEach(c -> c.duplicate.complete(duplicates.contains(c.id)));
+        } catch (IOException e) {
+            checks.forEach(c -> c.duplicate.completeExceptionally(e));
+        }
+    }
+
+    Set<String> getDuplicates(String indexName, List<String> ids) throws IOException {
+        List<String> candidates = seenIds != null && Boolean.TRUE.equals(indexWasEmpty) ?
+                ids.stream().filter(seenIds::mightContain).collect(toList()) : ids;
+        Set<String> duplicates = candidates.isEmpty() ? emptySet() : getExistingIds(indexName, candidates);
+        if (seenIds != null) {
+            ids.forEach(seenIds::put);
+        }
+        logger.debug("{} duplicate(s) found in index {} for {} ids ({} requested)", duplicates.size(), indexName, ids.size(), candidates.size());
+        return duplicates;
+    }
+
+    private Set<String> getExistingIds(String indexName, List<String> ids) throws IOException {
+        MultiGetRequest multiGetRequest = new MultiGetRequest();
+        ids.forEach(id -> multiGetRequest.add(new MultiGetRequest.Item(indexName, esCfg.indexType, id)
+                .fetchSourceContext(FetchSourceContext.DO_NOT_FETCH_SOURCE)));
+        MultiGetResponse response = client.mget(multiGetRequest, RequestOptions.DEFAULT);
+        return stream(response.getResponses())
+                .filter(item -> !item.isFailed() && item.getResponse().isExists())
+                .map(MultiGetItemResponse::getId).collect(toSet());
+    }
+
+    private static class PendingCheck {
+        final String id;
+        final CompletableFuture<Boolean> duplicate = new CompletableFuture<>();
+
+        PendingCheck(String id) {
+            this.id = id;
+        }
+
+        boolean isDuplicate() throws IOException {
+            try {
+                return duplicate.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for duplicate check of " + id);
+            } catch (ExecutionException e) {
+                throw new IOException("duplicate check failed for " + id, e.getCause());
+            }
+        }
+    }
+}
@@ -1,18 +1,30 @@
 package org.icij.datashare.text.indexing.elasticsearch;
 
+import org.apache.http.HttpHost;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
+import org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateRequest;
+import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
 import org.elasticsearch.common.settings.Settings;
 import org.icij.datashare.PropertiesProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
 
 import static com.google.common.io.ByteStreams.toByteArray;
+import static java.util.Arrays.stream;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static org.apache.http.HttpHost.create;
 import static org.elasticsearch.common.xcontent.XContentType.JSON;
 
@@ -33,57 +45,180 @@ public class ElasticsearchConfiguration {
     public static final String INDEX_JOIN_FIELD_NAME_PROP = "indexJoinFieldName";
     public static final String INDEX_TYPE_FIELD_NAME_PROP = "indexTypeFieldName";
     public static final String CLUSTER_PROP = "clusterName";
+    public static final String INDEX_SHARDS_PROP = "indexShards";
+    public static final String INDEX_REPLICAS_PROP = "indexReplicas";
+    public static final String INDEX_CODEC_PROP = "indexCodec";
+    public static final String INDEX_REFRESH_INTERVAL_PROP = "indexRefreshInterval";
+    public static final String BULK_INDEXING_PROP = "bulkIndexing";
+    public static final String BULK_ACTIONS_PROP = "bulkActions";
+    public static final String BULK_SIZE_MB_PROP = "bulkSizeMb";
+    public static final String BULK_FLUSH_INTERVAL_PROP = "bulkFlushIntervalSeconds";
+    public static final String BULK_CONCURRENT_REQUESTS_PROP = "bulkConcurrentRequests";
+    public static final String DUPLICATE_CHECK_BATCH_SIZE_PROP = "duplicateCheckBatchSize";
+    public static final String DUPLICATE_FILTER_SIZE_PROP = "duplicateFilterSize";
+    public static final String MAX_CONTENT_LENGTH_PROP = "maxContentLength";
+    public static final String CONTENT_PAGES_PROP = "contentPages";
+    public static final String INHERITED_LANGUAGE_MAX_LENGTH_PROP = "inheritedLanguageMaxLength";
+    public static final String MAX_IN_FLIGHT_REQUESTS_PROP = "maxInFlightRequests";
+    public static final String SEARCH_CURSOR_PROP = "searchCursor";
+    public static final String GROUP_TAG_CHUNK_SIZE_PROP = "groupTagChunkSize";
+    public static final String SNIFF_PROP = "elasticsearchSniff";
+    public static final String SNIFF_INTERVAL_PROP = "elasticsearchSniffIntervalSeconds";
+    public static final String MAX_CONN_PER_ROUTE_PROP = "elasticsearchMaxConnPerRoute";
+    public static final String MAX_CONN_TOTAL_PROP = "elasticsearchMaxConnTotal";
+    public static final String BULK_COMPRESSION_PROP = "bulkCompression";
+    public static final String ENTITY_SUMMARY_PROP = "entitySummary";
+    public static final String ENTITY_STATS_PROP = "entityStats";
 
     public static final String DEFAULT_ADDRESS = "http://localhost:9200";
     public static final String ES_CLUSTER_NAME = "datashare";
     static final String  ES_DOCUMENT_TYPE = "Document";
     static final String  ES_DUPLICATE_TYPE = "Duplicate";
+    static final String  ES_CONTENT_PAGE_TYPE = "ContentPage";
     static final String  ES_CONTENT_FIELD = "content";
+    static final String  ES_ID_FIELD = "id";
 
     public static final String DEFAULT_INDEX_TYPE = "doc";
     private static final String DEFAULT_INDEX_JOIN_FIELD = "join";
     static final String DEFAULT_PARENT_DOC_FIELD = "parentDocument";
 
     private static final String DEFAULT_DOC_TYPE_FIELD = "type";
+    static final String INDEX_TEMPLATE_PREFIX = "datashare-";
+    static final String NUMBER_OF_SHARDS = "index.number_of_shards";
+    static final int DEFAULT_BULK_ACTIONS = 1000;
+    static final int DEFAULT_BULK_SIZE_MB = 5;
+    static final int DEFAULT_BULK_FLUSH_INTERVAL_SECONDS = 5;
+    static final int DEFAULT_BULK_CONCURRENT_REQUESTS = 2;
+    static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 32;
+    static final int DEFAULT_GROUP_TAG_CHUNK_SIZE = 1000;
+    static final int DEFAULT_SNIFF_INTERVAL_SECONDS = 300;
+    static final int DEFAULT_MAX_CONN_PER_ROUTE = 32;
+    static final int DEFAULT_MAX_CONN_TOTAL = 128;
 
     final String indexType;
     final String indexJoinField;
     final String docTypeField;
+    final boolean bulkIndexing;
+    final int bulkActions;
+    final int bulkSizeMb;
+    final int bulkFlushIntervalSeconds;
+    final int bulkConcurrentRequests;
+    final int duplicateCheckBatchSize;
+    final int duplicateFilterSize;
+    final int maxContentLength;
+    final boolean contentPages;
+    final int inheritedLanguageMaxLength;
+    final int maxInFlightRequests;
+    final boolean searchCursor;
+    final int groupTagChunkSize;
+    final boolean entitySummary;
+    final boolean entityStats;
+    final boolean bulkCompression;
     WriteRequest.RefreshPolicy refreshPolicy = WriteRequest.RefreshPolicy.NONE;
 
-    final int shards = 1;
-    final int replicas = 1;
+    final int shards;
+    final int replicas;
+    private final PropertiesProvider propertiesProvider;
 
     ElasticsearchConfiguration(PropertiesProvider propertiesProvider) {
+        this.propertiesProvider = propertiesProvider;
+        shards = propertiesProvider.get(INDEX_SHARDS_PROP).map(Integer::parseInt).orElse(1);
+        replicas = propertiesProvider.get(INDEX_REPLICAS_PROP).map(Integer::parseInt).orElse(1);
         indexType = propertiesProvider.get(INDEX_TYPE_PROP).orElse(DEFAULT_INDEX_TYPE);
         indexJoinField = propertiesProvider.get(INDEX_JOIN_FIELD_NAME_PROP).orElse(DEFAULT_INDEX_JOIN_FIELD);
         docTypeField = propertiesProvider.get(INDEX_TYPE_FIELD_NAME_PROP).orElse(DEFAULT_DOC_TYPE_FIELD);
+        bulkIndexing = propertiesProvider.get(BULK_INDEXING_PROP).map(Boolean::parseBoolean).orElse(false);
+        bulkActions = propertiesProvider.get(BULK_ACTIONS_PROP).map(Integer::parseInt).orElse(DEFAULT_BULK_ACTIONS);
+        bulkSizeMb = propertiesProvider.get(BULK_SIZE_MB_PROP).map(Integer::parseInt).orElse(DEFAULT_BULK_SIZE_MB);
+        bulkFlushIntervalSeconds = propertiesProvider.get(BULK_FLUSH_INTERVAL_PROP).map(Integer::parseInt).orElse(DEFAULT_BULK_FLUSH_INTERVAL_SECONDS);
+        bulkConcurrentRequests = propertiesProvider.get(BULK_CONCURRENT_REQUESTS_PROP).map(Integer::parseInt).orElse(DEFAULT_BULK_CONCURRENT_REQUESTS);
+        duplicateCheckBatchSize = propertiesProvider.get(DUPLICATE_CHECK_BATCH_SIZE_PROP).map(Integer::parseInt).orElse(1);
+        duplicateFilterSize = propertiesProvider.get(DUPLICATE_FILTER_SIZE_PROP).map(Integer::parseInt).orElse(0);
+        maxContentLength = propertiesProvider.get(MAX_CONTENT_LENGTH_PROP).map(Integer::parseInt).orElse(-1);
+        contentPages = propertiesProvider.get(CONTENT_PAGES_PROP).map(Boolean::parseBoolean).orElse(false);
+        inheritedLanguageMaxLength = propertiesProvider.get(INHERITED_LANGUAGE_MAX_LENGTH_PROP).map(Integer::parseInt).orElse(0);
+        maxInFlightRequests = propertiesProvider.get(MAX_IN_FLIGHT_REQUESTS_PROP).map(Integer::parseInt).orElse(DEFAULT_MAX_IN_FLIGHT_REQUESTS);
+        searchCursor = propertiesProvider.get(SEARCH_CURSOR_PROP).map(Boolean::parseBoolean).orElse(false);
+        groupTagChunkSize = propertiesProvider.get(GROUP_TAG_CHUNK_SIZE_PROP).map(Integer::parseInt).orElse(DEFAULT_GROUP_TAG_CHUNK_SIZE);
+        entitySummary = propertiesProvider.get(ENTITY_SUMMARY_PROP).map(Boolean::parseBoolean).orElse(false);
+        entityStats = propertiesProvider.get(ENTITY_STATS_PROP).map(Boolean::parseBoolean).orElse(false);
+        bulkCompression = propertiesProvider.get(BULK_COMPRESSION_PROP).map(Boolean::parseBoolean).orElse(false);
     }
 
+    /**
+     * creates the elasticsearch client. elasticsearchAddress can contain several comma separated hosts, the requests
+     * are sent to them in round robin. With elasticsearchSniff the hosts are replaced by the nodes of the cluster,
+     * fetched every elasticsearchSniffIntervalSeconds and after each failure.
+     */
     public static RestHighLevelClient createESClient(final PropertiesProvider propertiesProvider) {
         System.setProperty("es.set.netty.runtime.available.processors", "false");
 
-        String indexAddress = propertiesProvider.get(INDEX_ADDRESS_PROP).orElse(DEFAULT_ADDRESS);
+        HttpHost[] hosts = hosts(propertiesProvider.get(INDEX_ADDRESS_PROP).orElse(DEFAULT_ADDRESS));
+        int maxConnPerRoute = propertiesProvider.get(MAX_CONN_PER_ROUTE_PROP).map(Integer::parseInt).orElse(DEFAULT_MAX_CONN_PER_ROUTE);
+        int maxConnTotal = propertiesProvider.get(MAX_CONN_TOTAL_PROP).map(Integer::parseInt).orElse(DEFAULT_MAX_CONN_TOTAL);
+        boolean sniff = propertiesProvider.get(SNIFF_PROP).map(Boolean::parseBoolean).orElse(false);
 
-        RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(create(indexAddress)).setRequestConfigCallback(
+        RestClientBuilder builder = RestClient.builder(hosts).setRequestConfigCallback(
                 requestConfigBuilder -> requestConfigBuilder
                     .setConnectTimeout(5000)
                     .setSocketTimeout(60000)).
-                setMaxRetryTimeoutMillis(50000)); // listener t/o cf https://github.com/ICIJ/datashare/issues/462
-        String clusterName = propertiesProvider.get(CLUSTER_PROP).orElse(ES_CLUSTER_NAME);
-        return client;
+                setHttpClientConfigCallback(httpClientBuilder -> httpClientBuilder.setMaxConnPerRoute(maxConnPerRoute).setMaxConnTotal(maxConnTotal)).
+                setMaxRetryTimeoutMillis(50000); // listener t/o cf https://github.com/ICIJ/datashare/issues/462
+        LOGGER.info("elasticsearch client for {} (maxConnPerRoute={}, maxConnTotal={}, sniff={})",
+                Arrays.toString(hosts), maxConnPerRoute, maxConnTotal, sniff);
+        if (!sniff) {
+            return new RestHighLevelClient(builder);
+        }
+
+        SniffOnFailureListener sniffOnFailureListener = new SniffOnFailureListener();
+        RestClient restClient = builder.setFailureListener(sniffOnFailureListener).build();
+        int sniffIntervalSeconds = propertiesProvider.get(SNIFF_INTERVAL_PROP).map(Integer::parseInt).orElse(DEFAULT_SNIFF_INTERVAL_SECONDS);
+        Sniffer sniffer = Sniffer.builder(restClient)
+                .setSniffIntervalMillis(sniffIntervalSeconds * 1000)
+                .setNodesSniffer(new ElasticsearchNodesSniffer(restClient, ElasticsearchNodesSniffer.DEFAULT_SNIFF_REQUEST_TIMEOUT,
+                        "https".equals(hosts[0].getSchemeName()) ? ElasticsearchNodesSniffer.Scheme.HTTPS : ElasticsearchNodesSniffer.Scheme.HTTP))
+                .build();
+        sniffOnFailureListener.setSniffer(sniffer);
+        return new SniffingClient(restClient, sniffer);
+    }
+
+    static HttpHost[] hosts(String indexAddress) {
+        return stream(indexAddress.split(",")).map(String::trim).filter(address -> !address.isEmpty())
+                .map(HttpHost::create).toArray(HttpHost[]::new);
+    }
+
+    /**
+     * closes the sniffer with the client
+     */
+    static class SniffingClient extends RestHighLevelClient {
+        SniffingClient(RestClient restClient, Sniffer sniffer) {
+            super(restClient, client -> {
+                sniffer.close();
+                client.close();
+            }, emptyList());
+        }
     }
 
     public static boolean createIndex(RestHighLevelClient client, String indexName, PropertiesProvider propertiesProvider) {
-        return createIndex(client, indexName, propertiesProvider.get(INDEX_TYPE_PROP).orElse(DEFAULT_INDEX_TYPE));
+        return new ElasticsearchConfiguration(propertiesProvider).createIndex(client, indexName);
+    }
+
+    boolean createIndex(RestHighLevelClient client, String indexName) {
+        return createIndex(client, indexName, getIndexSettings(indexName));
     }
 
-    public static boolean createIndex(RestHighLevelClient client, String indexName, String indexType) {
+    /**
+     * creates the index if it doesn't exist. The layout settings (shards, replicas...) are put in an
+     * index template matching the index name, so that they are applied again if the index is recreated.
+     */
+    boolean createIndex(RestHighLevelClient client, String indexName, Settings layout) {
         GetIndexRequest request = new GetIndexRequest();
         request.indices(indexName);
         try {
             if (!client.indices().exists(request)) {
-                LOGGER.info("index {} does not exist, creating one", indexName);
+                LOGGER.info("index {} does not exist, creating one with {}", indexName, layout);
+                client.indices().putTemplate(new PutIndexTemplateRequest(INDEX_TEMPLATE_PREFIX + indexName)
+                        .patterns(singletonList(indexName)).settings(layout), RequestOptions.DEFAULT);
                 CreateIndexRequest createReq = new CreateIndexRequest(indexName);
                 createReq.settings(getResourceContent(SETTINGS_RESOURCE_NAME), JSON);
                 createReq.mapping(indexType, getResourceContent(MAPPING_RESOURCE_NAME), JSON);
@@ -109,15 +244,42 @@ public class ElasticsearchConfiguration {
                 ", docTypeField='" + docTypeField + '\'' +
                 ", shards=" + shards +
                 ", replicas=" + replicas +
+                ", bulkIndexing=" + bulkIndexing +
+                (bulkIndexing ? ", bulkActions=" + bulkActions +
+                        ", bulkSizeMb=" + bulkSizeMb +
+                        ", bulkFlushIntervalSeconds=" + bulkFlushIntervalSeconds +
+                        ", bulkConcurrentRequests=" + bulkConcurrentRequests : "") +
+                ", duplicateCheckBatchSize=" + duplicateCheckBatchSize +
+                ", duplicateFilterSize=" + duplicateFilterSize +
+                ", maxContentLength=" + maxContentLength +
+                ", contentPages=" + contentPages +
+                ", inheritedLanguageMaxLength=" + inheritedLanguageMaxLength +
+                ", maxInFlightRequests=" + maxInFlightRequests +
+                ", searchCursor=" + searchCursor +
+                ", groupTagChunkSize=" + groupTagChunkSize +
+                ", entitySummary=" + entitySummary +
+                ", entityStats=" + entityStats +
+                ", bulkCompression=" + bulkCompression +
                 '}';
     }
 
-    Settings getIndexSettings() {
-        return Settings.builder()
-                .put("index.number_of_shards",   shards)
-                .put("index.number_of_replicas", replicas)
-                .put("index.max_result_window",  INDEX_MAX_RESULT_WINDOW)
-                .build();
+    /**
+     * @return the layout settings of the index. Each layout property can be set for one project by
+     * prefixing it with the project name, for example "myproject.indexShards=4".
+     */
+    Settings getIndexSettings(String indexName) {
+        Settings.Builder settings = Settings.builder()
+                .put(NUMBER_OF_SHARDS,   getIndexProperty(indexName, INDEX_SHARDS_PROP).map(Integer::parseInt).orElse(shards))
+                .put("index.number_of_replicas", getIndexProperty(indexName, INDEX_REPLICAS_PROP).map(Integer::parseInt).orElse(replicas))
+                .put("index.max_result_window",  INDEX_MAX_RESULT_WINDOW);
+        getIndexProperty(indexName, INDEX_CODEC_PROP).ifPresent(codec -> settings.put("index.codec", codec));
+        getIndexProperty(indexName, INDEX_REFRESH_INTERVAL_PROP).ifPresent(interval -> settings.put("index.refresh_interval", interval));
+        return settings.build();
+    }
+
+    private Optional<String> getIndexProperty(String indexName, String property) {
+        Optional<String> indexProperty = propertiesProvider.get(indexName + "." + property);
+        return indexProperty.isPresent() ? indexProperty : propertiesProvider.get(property);
     }
 
     private static String getResourceContent(String resourceName) {
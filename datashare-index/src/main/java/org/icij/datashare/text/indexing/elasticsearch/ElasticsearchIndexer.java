@@ -5,19 +5,19 @@ import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.nio.entity.NStringEntity;
 import org.apache.http.util.EntityUtils;
-import org.apache.lucene.analysis.CharArraySet;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.join.ScoreMode;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.ClearScrollRequest;
 import org.elasticsearch.action.search.SearchRequest;
@@ -30,17 +30,25 @@ import org.elasticsearch.client.Request;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.get.GetResult;
 import org.elasticsearch.index.query.*;
-import org.elasticsearch.index.reindex.BulkByScrollResponse;
-import org.elasticsearch.index.reindex.UpdateByQueryRequest;
 import org.elasticsearch.join.query.HasChildQueryBuilder;
 import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.script.ScriptType;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
 import org.icij.datashare.Entity;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.json.JsonObjectMapper;
@@ -52,38 +60,117 @@ import org.icij.datashare.text.indexing.Indexer;
 import org.icij.datashare.text.nlp.Pipeline;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import static java.util.Arrays.stream;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singletonList;
 import static java.util.Optional.ofNullable;
 import static java.util.stream.Collectors.toList;
-import static org.apache.lucene.search.BooleanClause.Occur.SHOULD;
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.elasticsearch.index.query.QueryBuilders.*;
 import static org.icij.datashare.json.JsonObjectMapper.*;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.DEFAULT_PARENT_DOC_FIELD;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.ES_CONTENT_FIELD;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.ES_CONTENT_PAGE_TYPE;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.ES_DOCUMENT_TYPE;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.ES_ID_FIELD;
 import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.DEFAULT_SEARCH_SIZE;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.NUMBER_OF_SHARDS;
 
 
 public class ElasticsearchIndexer implements Indexer {
+    /**
+     * With the entitySummary property, the documents hold the distinct visible named entities found in them
+     * ("CATEGORY:mentionNorm" values of the entities field), with their normalized mentions (entityMentions)
+     * and categories (entityCategories), so that they can be filtered without has_child queries.
+     */
+    private static final String ENTITY_SUMMARY_UPDATE =
+            "ctx._source.entities = new ArrayList(entities);" +
+            "Set mentions = new HashSet(); Set categories = new HashSet();" +
+            "for (def entity : entities) {" +
+            "  int sep = entity.indexOf(':');" +
+            "  categories.add(entity.substring(0, sep)); mentions.add(entity.substring(sep + 1));" +
+            "}" +
+            "ctx._source.entityMentions = new ArrayList(mentions);" +
+            "ctx._source.entityCategories = new ArrayList(categories);";
+    /**
+     * the entities that were not in the summary yet are written in newEntities, which is returned by the update
+     * when entityStats is set: only they are counted in the stats.
+     */
+    static final String ENTITY_SUMMARY_ADD_SCRIPT =
+            "Set entities = ctx._source.entities == null ? new HashSet() : new HashSet(ctx._source.entities);" +
+            "List newEntities = new ArrayList();" +
+            "for (def entity : params.entities) { if (entities.add(entity)) newEntities.add(entity); }" +
+            "ctx._source.newEntities = newEntities;" + ENTITY_SUMMARY_UPDATE;
+    static final String NEW_ENTITIES_FIELD = "newEntities";
+    static final String ENTITY_SUMMARY_HIDE_SCRIPT =
+            "Set entities = ctx._source.entities == null ? new HashSet() : new HashSet(ctx._source.entities);" +
+            "entities.removeAll(params.entities);" + ENTITY_SUMMARY_UPDATE;
+    private static final int ENTITY_STATS_RETRY_ON_CONFLICT = 10;
+    private static final int GROUP_TAG_RETRY_ON_CONFLICT = 5;
+
     public final RestHighLevelClient client;
     private final ElasticsearchConfiguration esCfg;
+    private final InFlightRequests inFlightRequests;
+    private final EntityReader entityReader;
+    private final IndexWrites indexWrites;
+    private final QueryAnalyzer queryAnalyzer;
+    private NamedEntityWriter namedEntityWriter;
 
-    @Inject
     public ElasticsearchIndexer(final RestHighLevelClient esClient, final PropertiesProvider propertiesProvider) {
+        this(esClient, propertiesProvider, new IndexWrites());
+    }
+
+    public ElasticsearchIndexer(final RestHighLevelClient esClient, final PropertiesProvider propertiesProvider, final IndexWrites indexWrites) {
+        this(esClient, propertiesProvider, indexWrites, new QueryAnalyzer(propertiesProvider));
+    }
+
+    @Inject
+    public ElasticsearchIndexer(final RestHighLevelClient esClient, final PropertiesProvider propertiesProvider,
+                                final IndexWrites indexWrites, final QueryAnalyzer queryAnalyzer) {
         this.client = esClient;
+        this.indexWrites = indexWrites;
+        this.queryAnalyzer = queryAnalyzer;
         esCfg = new ElasticsearchConfiguration(propertiesProvider);
+        inFlightRequests = new InFlightRequests(esCfg.maxInFlightRequests);
+        entityReader = new EntityReader(esCfg.docTypeField);
         LOGGER.info("indexer defined with {}", esCfg);
     }
 
+    /**
+     * @return the query analyzer of the searches, to prepare their queries with the same cache
+     */
+    public QueryAnalyzer getQueryAnalyzer() {
+        return queryAnalyzer;
+    }
+
     @Override
     public void close() throws IOException {
+        if (namedEntityWriter != null) {
+            try {
+                namedEntityWriter.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         LOGGER.info("Closing Elasticsearch connections");
         client.close();
         LOGGER.info("Elasticsearch connections closed");
@@ -91,48 +178,265 @@ public class ElasticsearchIndexer implements Indexer {
 
     @Override
     public boolean bulkAdd(final String indexName, Pipeline.Type nerType, List<NamedEntity> namedEntities, Document parent) throws IOException {
+        BulkResponse response = CompressedBulk.bulk(client, createBulkAddRequest(indexName, nerType, namedEntities, parent), esCfg.bulkCompression);
+        boolean added = isSuccessful(response, "bulk add");
+        BulkRequest statsRequest = createEntityStatsBulk(indexName, namedEntities, response.getItems()[0]);
+        if (statsRequest.numberOfActions() > 0) {
+            added &= isSuccessful(CompressedBulk.bulk(client, statsRequest, esCfg.bulkCompression), "entity stats");
+        }
+        return written(indexName, added);
+    }
+
+    /**
+     * asynchronous version of {@link #bulkAdd(String, Pipeline.Type, List, Document)}. The entity stats are
+     * sent from the common fork join pool, once the document update is acknowledged.
+     */
+    public CompletableFuture<Boolean> bulkAddAsync(final String indexName, Pipeline.Type nerType, List<NamedEntity> namedEntities, Document parent) {
+        return inFlightRequests.send(this::bulkAsync, createBulkAddRequest(indexName, nerType, namedEntities, parent))
+                .thenComposeAsync(response -> {
+                    boolean added = isSuccessful(response, "bulk add");
+                    BulkRequest statsRequest = createEntityStatsBulk(indexName, namedEntities, response.getItems()[0]);
+                    if (statsRequest.numberOfActions() == 0) {
+                        return CompletableFuture.completedFuture(added);
+                    }
+                    return inFlightRequests.send(this::bulkAsync, statsRequest)
+                            .thenApply(statsResponse -> isSuccessful(statsResponse, "entity stats") && added);
+                }).thenApply(added -> written(indexName, added));
+    }
+
+    /**
+     * batched version of {@link #bulkAdd(String, Pipeline.Type, List, Document)}: the requests of the document
+     * are sent with the requests of other documents in bulks bounded by the bulkActions, bulkSizeMb and
+     * bulkFlushIntervalSeconds properties.
+     *
+     * @return a future completed with true when the named entities and the document update are acknowledged
+     */
+    public CompletableFuture<Boolean> bulkAddBatched(final String indexName, Pipeline.Type nerType, List<NamedEntity> namedEntities, Document parent) {
+        return getNamedEntityWriter().add(createBulkAddRequest(indexName, nerType, namedEntities, parent).requests(),
+                documentUpdate -> createEntityStatsBulk(indexName, namedEntities, documentUpdate).requests())
+                .thenApply(saved -> written(indexName, saved));
+    }
+
+    /**
+     * sends the batched named entities and waits for them to be acknowledged
+     */
+    public void flushBatched() throws InterruptedException {
+        NamedEntityWriter writer;
+        synchronized (this) {
+            writer = namedEntityWriter;
+        }
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    private synchronized NamedEntityWriter getNamedEntityWriter() {
+        if (namedEntityWriter == null) {
+            namedEntityWriter = new NamedEntityWriter(client, esCfg);
+        }
+        return namedEntityWriter;
+    }
+
+    /**
+     * the document update is the first request of the bulk: its response is used to update the entity stats
+     */
+    private BulkRequest createBulkAddRequest(String indexName, Pipeline.Type nerType, List<NamedEntity> namedEntities, Document parent) {
         BulkRequest bulkRequest = new BulkRequest();
 
         String routing = ofNullable(parent.getRootDocument()).orElse(parent.getId());
-        bulkRequest.add(new UpdateRequest(indexName, esCfg.indexType, parent.getId()).doc(
-                jsonBuilder().startObject()
-                        .field("status", Document.Status.DONE)
-                        .endObject()).routing(routing));
-        bulkRequest.add(new UpdateRequest(indexName, esCfg.indexType, parent.getId())
-                .script(new Script(ScriptType.INLINE, "painless",
-                        "if (!ctx._source.nerTags.contains(params.nerTag)) ctx._source.nerTags.add(params.nerTag);",
-                        new HashMap<String, Object>() {{put("nerTag", nerType.toString());}})).routing(routing));
+        Map<String, Object> params = new HashMap<String, Object>() {{
+            put("status", Document.Status.DONE.name());
+            put("nerTag", nerType.toString());
+        }};
+        String script = "ctx._source.status = params.status;" +
+                "if (!ctx._source.nerTags.contains(params.nerTag)) ctx._source.nerTags.add(params.nerTag);";
+        if (esCfg.entitySummary || esCfg.entityStats) {
+            params.put("entities", namedEntities.stream().filter(ne -> !ne.isHidden()).map(ElasticsearchIndexer::entitySummary).distinct().collect(toList()));
+            script += ENTITY_SUMMARY_ADD_SCRIPT;
+        }
+        UpdateRequest documentUpdate = new UpdateRequest(indexName, esCfg.indexType, parent.getId())
+                .script(new Script(ScriptType.INLINE, "painless", script, params)).routing(routing);
+        if (esCfg.entityStats) {
+            documentUpdate.fetchSource(new String[] {NEW_ENTITIES_FIELD}, null);
+        }
+        bulkRequest.add(documentUpdate);
 
         for (Entity child : namedEntities) {
             bulkRequest.add(createIndexRequest(indexName, JsonObjectMapper.getType(child), child.getId(),
                     getJson(child), parent.getId(), routing));
         }
         bulkRequest.setRefreshPolicy(esCfg.refreshPolicy);
-
-        BulkResponse bulkResponse = client.bulk(bulkRequest);
-        if (bulkResponse.hasFailures()) {
-            for (BulkItemResponse resp : bulkResponse.getItems()) {
-                if (resp.isFailed()) {
-                    LOGGER.error("bulk add failed : {}", resp.getFailureMessage());
-                }
-            }
-            return false;
-        }
-        return true;
+        return bulkRequest;
     }
 
     @Override
     public <T extends Entity> boolean bulkUpdate(String indexName, List<? extends Entity> entities) throws IOException {
+        return written(indexName, isSuccessful(CompressedBulk.bulk(client, createBulkUpdateRequest(indexName, entities), esCfg.bulkCompression), "bulk update"));
+    }
+
+    /**
+     * asynchronous version of {@link #bulkUpdate(String, List)}
+     */
+    public CompletableFuture<Boolean> bulkUpdateAsync(String indexName, List<? extends Entity> entities) {
+        return inFlightRequests.send(this::bulkAsync, createBulkUpdateRequest(indexName, entities))
+                .thenApply(response -> written(indexName, isSuccessful(response, "bulk update")));
+    }
+
+    private void bulkAsync(BulkRequest bulkRequest, RequestOptions options, ActionListener<BulkResponse> listener) {
+        CompressedBulk.bulkAsync(client, bulkRequest, esCfg.bulkCompression, listener);
+    }
+
+    private BulkRequest createBulkUpdateRequest(String indexName, List<? extends Entity> entities) {
         BulkRequest bulkRequest = new BulkRequest();
         entities.stream().map(e -> createUpdateRequest(indexName, getType(e), e.getId(), getJson(e), getParent(e), getRoot(e))).
                 forEach(bulkRequest::add);
+        if (esCfg.entitySummary || esCfg.entityStats) {
+            createHiddenEntitiesRequests(indexName, entities).forEach(bulkRequest::add);
+        }
+        if (esCfg.entityStats) {
+            createHiddenEntityStatsRequests(indexName, entities).forEach(bulkRequest::add);
+        }
         bulkRequest.setRefreshPolicy(esCfg.refreshPolicy);
+        return bulkRequest;
+    }
 
-        BulkResponse bulkResponse = client.bulk(bulkRequest);
+    /**
+     * @return the requests removing the hidden named entities from the entity summary of their documents
+     */
+    private List<UpdateRequest> createHiddenEntitiesRequests(String indexName, List<? extends Entity> entities) {
+        Map<String, List<String>> hiddenByDocument = new HashMap<>();
+        Map<String, String> documentRoutings = new HashMap<>();
+        entities.stream().filter(e -> e instanceof NamedEntity && ((NamedEntity) e).isHidden()).forEach(e -> {
+            hiddenByDocument.computeIfAbsent(getParent(e), id -> new ArrayList<>()).add(entitySummary((NamedEntity) e));
+            documentRoutings.put(getParent(e), getRoot(e));
+        });
+        return hiddenByDocument.entrySet().stream().map(hidden -> new UpdateRequest(indexName, esCfg.indexType, hidden.getKey())
+                .script(new Script(ScriptType.INLINE, "painless", ENTITY_SUMMARY_HIDE_SCRIPT,
+                        new HashMap<String, Object>() {{ put("entities", hidden.getValue()); }}))
+                .routing(documentRoutings.get(hidden.getKey()))).collect(toList());
+    }
+
+    /**
+     * @return the bulk request adding one document and the occurrences of each named entity that is new in the
+     * entity summary of the document to their stats, from the response of the document update. The other named
+     * entities have already been counted (the document has been processed by another pipeline, or processed
+     * again). The bulk is empty without entityStats or if the document update failed.
+     */
+    private BulkRequest createEntityStatsBulk(String indexName, List<NamedEntity> namedEntities, BulkItemResponse documentUpdate) {
+        BulkRequest bulkRequest = new BulkRequest();
+        if (!esCfg.entityStats || documentUpdate.isFailed()) {
+            return bulkRequest;
+        }
+        Set<String> newEntities = getNewEntities(documentUpdate.getResponse());
+        Map<String, List<NamedEntity>> occurrences = namedEntities.stream()
+                .filter(ne -> !ne.isHidden() && newEntities.contains(entitySummary(ne)))
+                .collect(Collectors.groupingBy(ElasticsearchIndexer::entitySummary));
+        occurrences.values().stream().map(nes -> createEntityStatsRequest(indexName, nes.get(0),
+                "ctx._source.documentCount += 1; ctx._source.occurrenceCount += params.occurrences;",
+                new HashMap<String, Object>() {{ put("occurrences", nes.size()); }},
+                entityStatsSource(nes.get(0), 1, nes.size(), false))).forEach(bulkRequest::add);
+        bulkRequest.setRefreshPolicy(esCfg.refreshPolicy);
+        return bulkRequest;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> getNewEntities(UpdateResponse response) {
+        GetResult result = response.getGetResult();
+        if (result == null || !result.isExists() || result.sourceAsMap().get(NEW_ENTITIES_FIELD) == null) {
+            return emptySet();
+        }
+        return new HashSet<>((List<String>) result.sourceAsMap().get(NEW_ENTITIES_FIELD));
+    }
+
+    /**
+     * @return the requests hiding the stats of the hidden named entities
+     */
+    private List<UpdateRequest> createHiddenEntityStatsRequests(String indexName, List<? extends Entity> entities) {
+        Map<String, NamedEntity> hidden = new HashMap<>();
+        entities.stream().filter(e -> e instanceof NamedEntity && ((NamedEntity) e).isHidden())
+                .forEach(e -> hidden.putIfAbsent(entitySummary((NamedEntity) e), (NamedEntity) e));
+        return hidden.values().stream().map(ne -> createEntityStatsRequest(indexName, ne, "ctx._source.isHidden = true;",
+                new HashMap<>(), entityStatsSource(ne, 0, 0, true))).collect(toList());
+    }
+
+    private UpdateRequest createEntityStatsRequest(String indexName, NamedEntity namedEntity, String script, Map<String, Object> params, Map<String, Object> upsert) {
+        return new UpdateRequest(indexName, esCfg.indexType, Entity.HASHER.hash(entitySummary(namedEntity)))
+                .script(new Script(ScriptType.INLINE, "painless", script, params))
+                .upsert(upsert).retryOnConflict(ENTITY_STATS_RETRY_ON_CONFLICT);
+    }
+
+    private Map<String, Object> entityStatsSource(NamedEntity namedEntity, long documents, long occurrences, boolean hidden) {
+        return new HashMap<String, Object>() {{
+            put(esCfg.docTypeField, EntityStats.TYPE);
+            put("mentionNorm", namedEntity.getMentionNorm());
+            put("category", namedEntity.getCategory().name());
+            put("documentCount", documents);
+            put("occurrenceCount", occurrences);
+            put("isHidden", hidden);
+        }};
+    }
+
+    /**
+     * With the entityStats property, the number of documents and occurrences of the named entities are updated
+     * when they are added to a document for the first time, so that the most frequent ones are read without
+     * aggregating all the named entities of the project. The entity summary of the documents is kept to know it.
+     * The hidden named entities are not returned.
+     *
+     * @param category the category of the named entities, or null for all the categories
+     * @return the stats of the named entities sorted by number of documents and then of occurrences
+     */
+    public List<EntityStats> getEntityStats(String indexName, String category, int from, int size) throws IOException {
+        BoolQueryBuilder query = boolQuery().filter(termQuery(esCfg.docTypeField, EntityStats.TYPE)).mustNot(termQuery("isHidden", true));
+        if (category != null) {
+            query.filter(termQuery("category", category));
+        }
+        SearchRequest searchRequest = new SearchRequest(indexName).types(esCfg.indexType).source(new SearchSourceBuilder()
+                .query(query).from(from).size(size)
+                .sort("documentCount", SortOrder.DESC).sort("occurrenceCount", SortOrder.DESC).sort("mentionNorm", SortOrder.ASC));
+        SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
+        return searchHitStream(response.getHits()).map(hit -> EntityStats.fromSource(hit.getSourceAsMap())).collect(toList());
+    }
+
+    /**
+     * @return the ids of at most size documents embedded in the parent document, without their source
+     */
+    public List<String> getChildrenIds(String indexName, String parentId, String rootId, int size) throws IOException {
+        SearchRequest searchRequest = new SearchRequest(indexName).types(esCfg.indexType).routing(rootId).source(new SearchSourceBuilder()
+                .query(boolQuery().filter(termQuery(DEFAULT_PARENT_DOC_FIELD, parentId)).filter(termQuery(esCfg.docTypeField, ES_DOCUMENT_TYPE)))
+                .fetchSource(false).size(size));
+        SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
+        return searchHitStream(response.getHits()).map(SearchHit::getId).collect(toList());
+    }
+
+    /**
+     * @return the content of at most size ContentPage documents of a document indexed with contentPages, from
+     * the page number from + 1 in page order. The first maxContentLength chars are in the document content.
+     */
+    public List<String> getContentPages(String indexName, String documentId, String rootId, int from, int size) throws IOException {
+        SearchRequest searchRequest = new SearchRequest(indexName).types(esCfg.indexType).routing(rootId).source(new SearchSourceBuilder()
+                .query(boolQuery().filter(termQuery(DEFAULT_PARENT_DOC_FIELD, documentId)).filter(termQuery(esCfg.docTypeField, ES_CONTENT_PAGE_TYPE)))
+                .fetchSource(new String[] {ES_CONTENT_FIELD}, null).sort("contentPage", SortOrder.ASC).from(from).size(size));
+        SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
+        return searchHitStream(response.getHits()).map(hit -> (String) hit.getSourceAsMap().get(ES_CONTENT_FIELD)).collect(toList());
+    }
+
+    /**
+     * @return the value of a named entity in the entities field of its document: "CATEGORY:mentionNorm"
+     */
+    static String entitySummary(NamedEntity namedEntity) {
+        return namedEntity.getCategory().name() + ":" + namedEntity.getMentionNorm();
+    }
+
+    private <T> T written(String indexName, T result) {
+        indexWrites.written(indexName);
+        return result;
+    }
+
+    private static boolean isSuccessful(BulkResponse bulkResponse, String operation) {
         if (bulkResponse.hasFailures()) {
             for (BulkItemResponse resp : bulkResponse.getItems()) {
                 if (resp.isFailed()) {
-                    LOGGER.error("bulk update failed : {}", resp.getFailureMessage());
+                    LOGGER.error("{} failed : {}", operation, resp.getFailureMessage());
                 }
             }
             return false;
@@ -146,6 +450,7 @@ public class ElasticsearchIndexer implements Indexer {
         String id = obj.getId();
         client.index(createIndexRequest(indexName, type, id, getJson(obj), getParent(obj), getRoot(obj)).
                 setRefreshPolicy(esCfg.refreshPolicy));
+        indexWrites.written(indexName);
     }
 
     @Override
@@ -154,6 +459,7 @@ public class ElasticsearchIndexer implements Indexer {
         String id = obj.getId();
         client.update(createUpdateRequest(indexName, type, id, getJson(obj), getParent(obj), getRoot(obj)).
                 setRefreshPolicy(esCfg.refreshPolicy));
+        indexWrites.written(indexName);
     }
 
     @Override
@@ -170,9 +476,28 @@ public class ElasticsearchIndexer implements Indexer {
         return entity != null ? EntityUtils.toString(entity):null;
     }
 
+    /**
+     * sends a request to elasticsearch and returns its response without reading it, the caller has to consume
+     * the response entity. The body is sent as is, with its content encoding. If acceptGzip is true, elasticsearch
+     * can answer with a gzip compressed body (and a "Content-Encoding: gzip" header) that is not decompressed.
+     */
+    public Response executeRaw(String method, String url, HttpEntity body, boolean acceptGzip) throws IOException {
+        Request request = new Request(method, url.startsWith("/")? url: "/" + url);
+        if (body != null && body.getContentLength() != 0) {
+            request.setEntity(body);
+        }
+        if (acceptGzip) {
+            RequestOptions.Builder options = RequestOptions.DEFAULT.toBuilder();
+            options.addHeader("Accept-Encoding", "gzip");
+            request.setOptions(options);
+        }
+        return client.getLowLevelClient().performRequest(request);
+    }
+
     private IndexRequest createIndexRequest(String index, String type, String id, Map<String, Object> json, String parent, String root) {
         IndexRequest req = new IndexRequest(index, esCfg.indexType, id);
 
+        json.put(ES_ID_FIELD, id);
         setJoinFields(json, type, parent, root);
         req = req.source(json);
         return (parent != null) ? req.routing(root) : req;
@@ -181,6 +506,7 @@ public class ElasticsearchIndexer implements Indexer {
     private UpdateRequest createUpdateRequest(String index, String type, String id, Map<String, Object> json, String parent, String root) {
         UpdateRequest req = new UpdateRequest(index, esCfg.indexType, id);
 
+        json.put(ES_ID_FIELD, id);
         setJoinFields(json, type, parent, root);
         req = req.doc(json);
         return (parent != null) ? req.routing(root) : req;
@@ -207,20 +533,101 @@ public class ElasticsearchIndexer implements Indexer {
 
     @Override
     public <T extends Entity> T get(String indexName, String id, String root) {
-        String type = null;
         try {
-            final GetRequest req = new GetRequest(indexName, esCfg.indexType, id).routing(root);
-            final GetResponse resp = client.get(req);
-            if (resp.isExists()) {
-                Map<String, Object> sourceAsMap = resp.getSourceAsMap();
-                type = (String) sourceAsMap.get(esCfg.docTypeField);
-                Class<T> tClass = (Class<T>) Class.forName("org.icij.datashare.text." + type);
-                return JsonObjectMapper.getObject(id, sourceAsMap, tClass);
-            }
+            return toEntity(client.get(new GetRequest(indexName, esCfg.indexType, id).routing(root)));
         } catch (IOException e) {
             LOGGER.error("Failed to get entity " + id + " in index " + indexName, e);
-        } catch (ClassNotFoundException e) {
-            LOGGER.error("no entity for type " + type);
+        }
+        return null;
+    }
+
+    /**
+     * asynchronous version of {@link #get(String, String, String)}. The future is completed with null
+     * if the entity is not found, and exceptionally if the request fails. The response is read outside
+     * of the client I/O threads, in the common fork join pool.
+     */
+    public <T extends Entity> CompletableFuture<T> getAsync(String indexName, String id, String root) {
+        return inFlightRequests.send(client::getAsync, new GetRequest(indexName, esCfg.indexType, id).routing(root))
+                .thenApplyAsync(this::toEntity);
+    }
+
+    /**
+     * gets several entities with one multi get request.
+     *
+     * @return the entities in the order of the references, with null for the entities that are not found
+     */
+    public <T extends Entity> List<T> get(String indexName, List<EntityRef> refs) throws IOException {
+        return get(indexName, refs, null, null);
+    }
+
+    /**
+     * gets several entities with one multi get request, fetching only the source fields matching includes
+     * and not matching excludes (null for no filter). The fields that are not fetched must be optional for the
+     * entity deserialization.
+     *
+     * @return the entities in the order of the references, with null for the entities that are not found
+     */
+    public <T extends Entity> List<T> get(String indexName, List<EntityRef> refs, String[] includes, String[] excludes) throws IOException {
+        if (refs.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return toEntities(indexName, client.mget(createMultiGetRequest(indexName, refs, includes, excludes), RequestOptions.DEFAULT));
+    }
+
+    /**
+     * asynchronous version of {@link #get(String, List, String[], String[])}. The responses are read outside
+     * of the client I/O threads, in the common fork join pool.
+     */
+    public <T extends Entity> CompletableFuture<List<T>> getAsync(String indexName, List<EntityRef> refs, String[] includes, String[] excludes) {
+        if (refs.isEmpty()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        return inFlightRequests.send(client::mgetAsync, createMultiGetRequest(indexName, refs, includes, excludes))
+                .thenApplyAsync(response -> toEntities(indexName, response));
+    }
+
+    private MultiGetRequest createMultiGetRequest(String indexName, List<EntityRef> refs, String[] includes, String[] excludes) {
+        FetchSourceContext sourceContext = new FetchSourceContext(true, withDocTypeField(includes), excludes);
+        MultiGetRequest request = new MultiGetRequest();
+        refs.forEach(ref -> request.add(new MultiGetRequest.Item(indexName, esCfg.indexType, ref.id)
+                .routing(ref.routing).fetchSourceContext(sourceContext)));
+        return request;
+    }
+
+    private <T extends Entity> List<T> toEntities(String indexName, MultiGetResponse response) {
+        List<T> entities = new ArrayList<>(response.getResponses().length);
+        for (MultiGetItemResponse item : response.getResponses()) {
+            if (item.isFailed()) {
+                LOGGER.error("Failed to get entity {} in index {} : {}", item.getId(), indexName, item.getFailure().getMessage());
+                entities.add(null);
+            } else {
+                entities.add(toEntity(item.getResponse()));
+            }
+        }
+        return entities;
+    }
+
+    private String[] withDocTypeField(String[] includes) {
+        if (includes == null || includes.length == 0 || Arrays.asList(includes).contains(esCfg.docTypeField)) {
+            return includes;
+        }
+        String[] fields = Arrays.copyOf(includes, includes.length + 1);
+        fields[includes.length] = esCfg.docTypeField;
+        return fields;
+    }
+
+    private <T extends Entity> T toEntity(GetResponse resp) {
+        if (!resp.isExists() || resp.isSourceEmpty()) {
+            return null;
+        }
+        try {
+            T entity = entityReader.read(resp.getId(), resp.getSourceAsBytesRef());
+            if (entity == null) {
+                LOGGER.error("no entity for type " + resp.getSourceAsMap().get(esCfg.docTypeField));
+            }
+            return entity;
+        } catch (IOException e) {
+            LOGGER.error("Failed to read entity " + resp.getId() + " in index " + resp.getIndex(), e);
         }
         return null;
     }
@@ -235,32 +642,106 @@ public class ElasticsearchIndexer implements Indexer {
         return tagUntag(prj, documentId, rootDocument, createUntagScript(tags));
     }
 
+    /**
+     * asynchronous version of {@link #tag(Project, String, String, Tag...)}
+     */
+    public CompletableFuture<Boolean> tagAsync(Project prj, String documentId, String rootDocument, Tag... tags) {
+        return inFlightRequests.send(client::updateAsync, createTagUntagRequest(prj, documentId, rootDocument, createTagScript(tags)))
+                .thenApply(response -> written(prj.getId(), isUpdated(response)));
+    }
+
+    /**
+     * asynchronous version of {@link #untag(Project, String, String, Tag...)}
+     */
+    public CompletableFuture<Boolean> untagAsync(Project prj, String documentId, String rootDocument, Tag... tags) {
+        return inFlightRequests.send(client::updateAsync, createTagUntagRequest(prj, documentId, rootDocument, createUntagScript(tags)))
+                .thenApply(response -> written(prj.getId(), isUpdated(response)));
+    }
+
     private boolean tagUntag(Project prj, String documentId, String rootDocument, Script untagScript) throws IOException {
+        return written(prj.getId(), isUpdated(client.update(createTagUntagRequest(prj, documentId, rootDocument, untagScript))));
+    }
+
+    private UpdateRequest createTagUntagRequest(Project prj, String documentId, String rootDocument, Script untagScript) {
         UpdateRequest update = new UpdateRequest(prj.getId(), esCfg.indexType, documentId).routing(rootDocument);
         update.script(untagScript);
         update.setRefreshPolicy(esCfg.refreshPolicy);
-        UpdateResponse updateResponse = client.update(update);
+        return update;
+    }
+
+    private static boolean isUpdated(UpdateResponse updateResponse) {
         return updateResponse.status() == RestStatus.OK && updateResponse.getResult() == DocWriteResponse.Result.UPDATED;
     }
 
     @Override
     public boolean tag(Project prj, List<String> documentIds, Tag... tags) throws IOException {
-        return groupTagUntag(prj, documentIds, createTagScript(tags));
+        return groupTag(prj, documentIds, rate -> {}, tags).updated > 0;
     }
 
     @Override
     public boolean untag(Project prj, List<String> documentIds, Tag... tags) throws IOException {
-        return groupTagUntag(prj, documentIds, createUntagScript(tags));
+        return groupUntag(prj, documentIds, rate -> {}, tags).updated > 0;
     }
 
-    private boolean groupTagUntag(Project prj, List<String> documentIds, Script untagScript) throws IOException {
-        UpdateByQueryRequest updateByQuery = new UpdateByQueryRequest(prj.getId());
-        updateByQuery.setQuery(termsQuery("_id", documentIds.toArray(new String[0])));
-        updateByQuery.setConflicts("proceed");
-        updateByQuery.setScript(untagScript);
-        updateByQuery.setRefresh(esCfg.refreshPolicy.getValue().equals("true"));
-        BulkByScrollResponse updateResponse = client.updateByQuery(updateByQuery, RequestOptions.DEFAULT);
-        return updateResponse.getBulkFailures().size() == 0 && updateResponse.getUpdated() > 0 ;
+    /**
+     * @param progress receives the progress rate between 0 and 1 after each chunk
+     * @return the number of tagged documents and the ids of the documents that could not be updated
+     */
+    public GroupTagResult groupTag(Project prj, List<String> documentIds, DoubleConsumer progress, Tag... tags) throws IOException {
+        return groupTagUntag(prj, documentIds, createTagScript(tags), progress);
+    }
+
+    /**
+     * @param progress receives the progress rate between 0 and 1 after each chunk
+     * @return the number of untagged documents and the ids of the documents that could not be updated
+     */
+    public GroupTagResult groupUntag(Project prj, List<String> documentIds, DoubleConsumer progress, Tag... tags) throws IOException {
+        return groupTagUntag(prj, documentIds, createUntagScript(tags), progress);
+    }
+
+    /**
+     * updates the documents by chunks of groupTagChunkSize ids. The routing of the documents of a chunk is read
+     * with a search on their ids, then the chunk is sent as a bulk of scripted updates so that each update
+     * goes straight to the shard of its document. Unknown ids are ignored. The updates are retried on version
+     * conflicts with concurrent writes (NLP, single document tags).
+     *
+     * All the chunks are sent even if some updates fail, the failed documents are returned with the result.
+     */
+    private GroupTagResult groupTagUntag(Project prj, List<String> documentIds, Script script, DoubleConsumer progress) throws IOException {
+        long updated = 0;
+        List<String> failedIds = new ArrayList<>();
+        for (int from = 0; from < documentIds.size(); from += esCfg.groupTagChunkSize) {
+            int to = Math.min(from + esCfg.groupTagChunkSize, documentIds.size());
+            BulkRequest bulkRequest = new BulkRequest().setRefreshPolicy(esCfg.refreshPolicy);
+            for (SearchHit hit : searchRoutings(prj, documentIds.subList(from, to))) {
+                DocumentField routing = hit.field("_routing");
+                bulkRequest.add(new UpdateRequest(prj.getId(), esCfg.indexType, hit.getId())
+                        .routing(routing == null ? null : routing.getValue()).script(script).retryOnConflict(GROUP_TAG_RETRY_ON_CONFLICT));
+            }
+            if (bulkRequest.numberOfActions() > 0) {
+                for (BulkItemResponse item : CompressedBulk.bulk(client, bulkRequest, esCfg.bulkCompression).getItems()) {
+                    if (item.isFailed()) {
+                        LOGGER.error("bulk tag/untag failed for {} : {}", item.getId(), item.getFailureMessage());
+                        failedIds.add(item.getId());
+                    } else if (item.getResponse().getResult() == DocWriteResponse.Result.UPDATED) {
+                        updated++;
+                    }
+                }
+                indexWrites.written(prj.getId());
+            }
+            progress.accept((double) to / documentIds.size());
+        }
+        if (!failedIds.isEmpty()) {
+            LOGGER.warn("{} documents of {} could not be updated ({} updated)", failedIds.size(), prj.getId(), updated);
+        }
+        return new GroupTagResult(updated, failedIds);
+    }
+
+    private SearchHit[] searchRoutings(Project prj, List<String> documentIds) throws IOException {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(termsQuery("_id", documentIds.toArray(new String[0])))
+                .fetchSource(false).size(documentIds.size());
+        return client.search(new SearchRequest(prj.getId()).types(esCfg.indexType).source(source), RequestOptions.DEFAULT).getHits().getHits();
     }
 
     private Script createTagScript(Tag[] tags) {
@@ -291,20 +772,20 @@ public class ElasticsearchIndexer implements Indexer {
     }
 
     @Override
-    public Searcher search(final String indexName, Class<? extends Entity> entityClass) {
-        return new ElasticsearchSearcher(client, esCfg, indexName, entityClass);
+    public ElasticsearchSearcher search(final String indexName, Class<? extends Entity> entityClass) {
+        return new ElasticsearchSearcher(client, esCfg, inFlightRequests, queryAnalyzer, indexName, entityClass);
     }
 
     @Override
     public boolean createIndex(final String indexName) {
-        return ElasticsearchConfiguration.createIndex(client, indexName, esCfg.indexType);
+        return esCfg.createIndex(client, indexName);
     }
 
     @Override
     public boolean deleteAll(String indexName) throws IOException {
         Response response = client.getLowLevelClient().performRequest("POST", indexName + "/doc/_delete_by_query?refresh",
                 new HashMap<>(), new NStringEntity("{\"query\":{\"match_all\": {}}}", ContentType.APPLICATION_JSON));
-        return response.getStatusLine().getStatusCode() == RestStatus.OK.getStatus();
+        return written(indexName, response.getStatusLine().getStatusCode() == RestStatus.OK.getStatus());
     }
 
     private static Stream<SearchHit> searchHitStream(Iterable<SearchHit> searchHitIterable) {
@@ -316,31 +797,59 @@ public class ElasticsearchIndexer implements Indexer {
     }
 
     private static <T extends Entity> T hitToObject(SearchHit searchHit, Class<T> cls) {
-        return JsonObjectMapper.getObject(searchHit.getId(), searchHit.getSourceAsMap(), cls);
+        Map<String, Object> docValues = docValuesToSource(searchHit.getFields());
+        if (searchHit.getSourceRef() == null || !docValues.isEmpty()) {
+            if (searchHit.getSourceRef() != null) {
+                mergeSource(docValues, searchHit.getSourceAsMap());
+            }
+            return JsonObjectMapper.getObject(searchHit.getId(), docValues.isEmpty() ? searchHit.getSourceAsMap() : docValues, cls);
+        }
+        try {
+            return EntityReader.read(searchHit.getId(), searchHit.getSourceRef(), cls);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    public ElasticsearchIndexer withRefresh(WriteRequest.RefreshPolicy refresh) {
-        esCfg.withRefresh(refresh);
-        return this;
+    /**
+     * @return a source map built from the doc values of a hit. The dotted field names are nested
+     * ("metadata.a" gives {"metadata": {"a": value}}) and the metadata fields like _routing are ignored.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> docValuesToSource(Map<String, DocumentField> fields) {
+        Map<String, Object> source = new HashMap<>();
+        for (DocumentField field : fields.values()) {
+            if (field.getName().startsWith("_") || field.getValues().isEmpty()) {
+                continue;
+            }
+            String[] path = field.getName().split("\\.");
+            Map<String, Object> parent = source;
+            for (int i = 0; i < path.length - 1; i++) {
+                parent = (Map<String, Object>) parent.computeIfAbsent(path[i], k -> new HashMap<String, Object>());
+            }
+            parent.put(path[path.length - 1], field.getValues().size() == 1 ? field.getValue() : field.getValues());
+        }
+        return source;
     }
 
-    static boolean hasLuceneOperators(String query) throws ParseException {
-        String sanitizedQueryForLucene = query.replaceAll("\\^(?!\\d)", "\\^1");
-        org.apache.lucene.queryparser.classic.QueryParser parser =
-                new org.apache.lucene.queryparser.classic.QueryParser("",
-                        new StandardAnalyzer(new CharArraySet(0, false)));
-        parser.setAllowLeadingWildcard(true);
-
-        return hasOperator(parser.parse(sanitizedQueryForLucene));
+    /**
+     * adds the fields of the (partial) _source of a hit to the source built from its doc values
+     */
+    @SuppressWarnings("unchecked")
+    static void mergeSource(Map<String, Object> docValues, Map<String, Object> source) {
+        for (Map.Entry<String, Object> field : source.entrySet()) {
+            Object docValue = docValues.get(field.getKey());
+            if (docValue instanceof Map && field.getValue() instanceof Map) {
+                mergeSource((Map<String, Object>) docValue, (Map<String, Object>) field.getValue());
+            } else {
+                docValues.putIfAbsent(field.getKey(), field.getValue());
+            }
+        }
     }
 
-    private static boolean hasOperator(Query q) {
-        if (q instanceof TermQuery) {
-            return ! "".equals(((TermQuery)q).getTerm().field());
-        } else if (!(q instanceof BooleanQuery)) {
-            return true;
-        }
-        return ((BooleanQuery)q).clauses().stream().anyMatch(b -> b.getOccur() != SHOULD || hasOperator(b.getQuery()));
+    public ElasticsearchIndexer withRefresh(WriteRequest.RefreshPolicy refresh) {
+        esCfg.withRefresh(refresh);
+        return this;
     }
 
     @Override
@@ -353,39 +862,65 @@ public class ElasticsearchIndexer implements Indexer {
         }
     }
 
-    static class ElasticsearchSearcher implements Searcher {
+    public static class ElasticsearchSearcher implements Searcher {
         static final TimeValue KEEP_ALIVE = new TimeValue(60000);
+        static final String CURSOR_SORT_FIELD = ES_ID_FIELD;
+        static final String CURSOR_FALLBACK_SORT_FIELD = "_id";
+        static final String DOC_VALUE_FORMAT = "use_field_mapping";
         private final BoolQueryBuilder boolQuery;
         private final RestHighLevelClient client;
         private final ElasticsearchConfiguration config;
+        private final InFlightRequests inFlightRequests;
+        private final QueryAnalyzer queryAnalyzer;
         private final String indexName;
         private final Class<? extends Entity> cls;
         private final SearchSourceBuilder sourceBuilder;
         private String scrollId;
-        private long totalHits;
+        private final AtomicLong totalHits = new AtomicLong();
+        private boolean cursor;
+        private Object[] searchAfter;
+        private String preference = UUID.randomUUID().toString();
+        private String cursorSortField;
+        private int numberOfShards;
 
-        ElasticsearchSearcher(RestHighLevelClient client, ElasticsearchConfiguration config, final String indexName, final Class<? extends Entity> cls) {
+        ElasticsearchSearcher(RestHighLevelClient client, ElasticsearchConfiguration config, InFlightRequests inFlightRequests,
+                              QueryAnalyzer queryAnalyzer, final String indexName, final Class<? extends Entity> cls) {
             this.client = client;
             this.config = config;
+            this.inFlightRequests = inFlightRequests;
+            this.queryAnalyzer = queryAnalyzer;
             this.indexName = indexName;
             this.cls = cls;
             sourceBuilder = new SearchSourceBuilder().size(DEFAULT_SEARCH_SIZE).timeout(new TimeValue(30, TimeUnit.MINUTES));
             this.boolQuery = boolQuery().must(matchQuery("type", JsonObjectMapper.getType(cls)));
+            this.cursor = config.searchCursor;
         }
 
         @Override
-        public Searcher ofStatus(Document.Status status) {
+        public ElasticsearchSearcher ofStatus(Document.Status status) {
             this.boolQuery.must(matchQuery("status", status.toString()));
             return this;
         }
 
         @Override
         public Stream<? extends Entity> execute() throws IOException {
+            SearchResponse search = client.search(createSearchRequest());
+            return resultStream(this.cls, () -> search.getHits().iterator());
+        }
+
+        /**
+         * asynchronous version of {@link #execute()}. The hits are read when the stream is consumed.
+         */
+        public CompletableFuture<Stream<? extends Entity>> executeAsync() {
+            return inFlightRequests.send(client::searchAsync, createSearchRequest())
+                    .thenApply(search -> resultStream(this.cls, () -> search.getHits().iterator()));
+        }
+
+        private SearchRequest createSearchRequest() {
             sourceBuilder.query(boolQuery);
             SearchRequest searchRequest = new SearchRequest(new String[]{indexName}, sourceBuilder);
             searchRequest.types(config.indexType);
-            SearchResponse search = client.search(searchRequest);
-            return resultStream(this.cls, () -> search.getHits().iterator());
+            return searchRequest;
         }
 
         @Override
@@ -393,8 +928,56 @@ public class ElasticsearchIndexer implements Indexer {
             return scroll(0, 0);
         }
 
+        /**
+         * in cursor mode (searchCursor property, off by default), scroll pages through the results with search_after
+         * instead of keeping a scroll context open on the cluster. The hits are sorted by the id keyword field that
+         * is written with the documents since this mode exists. When one of the indices has no id field, or has it
+         * dynamically mapped as text, they are sorted by _id instead.
+         *
+         * @param cursor false to use elasticsearch scroll contexts
+         */
+        public ElasticsearchSearcher withCursor(boolean cursor) {
+            this.cursor = cursor;
+            return this;
+        }
+
+        /**
+         * resumes a cursor from the sort values of the last hit of a previous page
+         */
+        public ElasticsearchSearcher after(Object[] searchAfter) {
+            this.cursor = true;
+            this.searchAfter = searchAfter;
+            return this;
+        }
+
+        /**
+         * @return the sort values of the last hit returned by scroll in cursor mode, to resume it with after()
+         */
+        public Object[] getSearchAfter() {
+            return searchAfter;
+        }
+
+        /**
+         * the pages of a cursor are searched on the same shard copies, chosen with this preference (a random session
+         * id by default), so that the hits are not skipped or repeated because the replicas score them differently
+         */
+        public ElasticsearchSearcher withPreference(String preference) {
+            this.preference = preference;
+            return this;
+        }
+
+        /**
+         * @return the preference of the cursor pages, to resume it with withPreference() and after()
+         */
+        public String getPreference() {
+            return preference;
+        }
+
         @Override
         public Stream<? extends Entity> scroll(int numSlice, int nbSlices) throws IOException {
+            if (cursor) {
+                return searchAfter(numSlice, nbSlices);
+            }
             sourceBuilder.query(boolQuery);
             if (nbSlices > 1) {
                 sourceBuilder.slice(new SliceBuilder(numSlice, nbSlices));
@@ -405,7 +988,7 @@ public class ElasticsearchIndexer implements Indexer {
                 searchRequest.types(config.indexType);
                 search = client.search(searchRequest);
                 scrollId = search.getScrollId();
-                totalHits = search.getHits().totalHits;
+                totalHits.set(search.getHits().totalHits);
             } else {
                 search = client.searchScroll(new SearchScrollRequest(scrollId).scroll(KEEP_ALIVE));
                 scrollId = search.getScrollId();
@@ -413,85 +996,333 @@ public class ElasticsearchIndexer implements Indexer {
             return resultStream(this.cls, () -> search.getHits().iterator());
         }
 
+        /**
+         * counts the hits with the _count API, without fetching them
+         */
+        public long count() throws IOException {
+            return count(0);
+        }
+
+        /**
+         * @param cap maximum number of hits to count (0 for no limit). Like track_total_hits, counting stops
+         *            when cap hits are found on a shard, and the result is at most cap.
+         */
+        public long count(long cap) throws IOException {
+            Request request = new Request("POST", "/" + indexName + "/" + config.indexType + "/_count");
+            if (cap > 0) {
+                request.addParameter("terminate_after", String.valueOf(cap));
+            }
+            request.setJsonEntity("{\"query\":" + Strings.toString(boolQuery) + "}");
+            Response response = client.getLowLevelClient().performRequest(request);
+            Map<String, Object> countResponse = XContentHelper.convertToMap(XContentType.JSON.xContent(), EntityUtils.toString(response.getEntity()), false);
+            long count = ((Number) countResponse.get("count")).longValue();
+            return cap > 0 ? Math.min(count, cap) : count;
+        }
+
+        /**
+         * @return a lazy stream over all the hits. The pages are fetched in the background while the previous page is
+         * consumed. The stream should be closed to release the scroll contexts when it is not read until the end.
+         */
+        public Stream<? extends Entity> stream() throws IOException {
+            return stream(0, 1);
+        }
+
+        /**
+         * @return a lazy parallel stream that reads nbSlices slices of the hits concurrently
+         */
+        public Stream<? extends Entity> stream(int nbSlices) throws IOException {
+            List<PageCursor> cursors = new ArrayList<>(nbSlices);
+            for (int numSlice = 0; numSlice < nbSlices; numSlice++) {
+                cursors.add(createPageCursor(numSlice, nbSlices));
+            }
+            return stream(cursors, true);
+        }
+
+        /**
+         * @return a lazy stream over the hits of one slice
+         */
+        public Stream<? extends Entity> stream(int numSlice, int nbSlices) throws IOException {
+            return stream(singletonList(createPageCursor(numSlice, nbSlices)), false);
+        }
+
+        private Stream<? extends Entity> stream(List<PageCursor> cursors, boolean parallel) {
+            return StreamSupport.stream(new PrefetchingSpliterator<>(cursors), parallel)
+                    .map(hit -> hitToObject(hit, this.cls))
+                    .onClose(() -> cursors.forEach(PageCursor::close));
+        }
+
+        private PageCursor createPageCursor(int numSlice, int nbSlices) throws IOException {
+            sourceBuilder.query(boolQuery);
+            if (cursor && sourceBuilder.sorts() == null) {
+                sourceBuilder.sort(SortBuilders.scoreSort()).sort(cursorSort());
+            }
+            totalHits.set(0);
+            return new PageCursor(numSlice, nbSlices, cursor && nbSlices > 1 ? getSliceShards(numSlice, nbSlices) : null);
+        }
+
+        /**
+         * the hits are sorted by score and then by id so that the pages are stable without a search context. Slices are made of shards:
+         * slice n searches the shards which number modulo nbSlices is n.
+         */
+        private Stream<? extends Entity> searchAfter(int numSlice, int nbSlices) throws IOException {
+            sourceBuilder.query(boolQuery);
+            if (sourceBuilder.sorts() == null) {
+                sourceBuilder.sort(SortBuilders.scoreSort()).sort(cursorSort());
+            }
+            if (searchAfter != null) {
+                sourceBuilder.searchAfter(searchAfter);
+            }
+            SearchRequest searchRequest = new SearchRequest(new String[]{indexName}, sourceBuilder);
+            searchRequest.types(config.indexType);
+            String shards = null;
+            if (nbSlices > 1) {
+                shards = getSliceShards(numSlice, nbSlices);
+                if (shards == null) {
+                    return Stream.empty();
+                }
+            }
+            searchRequest.preference(cursorPreference(shards));
+            SearchResponse search = client.search(searchRequest);
+            SearchHit[] hits = search.getHits().getHits();
+            if (searchAfter == null) {
+                totalHits.set(search.getHits().totalHits);
+            }
+            if (hits.length > 0) {
+                searchAfter = hits[hits.length - 1].getSortValues();
+            }
+            return resultStream(this.cls, () -> search.getHits().iterator());
+        }
+
+        /**
+         * the id tiebreaker is a keyword with doc values: sorting on _id would load it in the fielddata cache. It is
+         * only used when the id field is missing or is not a keyword in one of the indices, where the hits with the
+         * same score would not have a stable order.
+         */
+        private FieldSortBuilder cursorSort() throws IOException {
+            if (cursorSortField == null) {
+                if (isKeyword(CURSOR_SORT_FIELD)) {
+                    cursorSortField = CURSOR_SORT_FIELD;
+                } else {
+                    LOGGER.warn("no {} keyword field in {}, the cursor hits are sorted by {}", CURSOR_SORT_FIELD, indexName, CURSOR_FALLBACK_SORT_FIELD);
+                    cursorSortField = CURSOR_FALLBACK_SORT_FIELD;
+                }
+            }
+            return SortBuilders.fieldSort(cursorSortField).order(SortOrder.ASC);
+        }
+
+        /**
+         * @return true if the field is mapped as a keyword in all the concrete indices of indexName
+         */
+        @SuppressWarnings("unchecked")
+        private boolean isKeyword(String field) throws IOException {
+            Response response = client.getLowLevelClient().performRequest(new Request("GET", "/" + indexName + "/_mapping/field/" + field));
+            Map<String, Object> indices = XContentHelper.convertToMap(XContentType.JSON.xContent(), EntityUtils.toString(response.getEntity()), false);
+            if (indices.isEmpty()) {
+                return false;
+            }
+            for (Object index : indices.values()) {
+                Map<String, Object> mappings = (Map<String, Object>) ((Map<String, Object>) index).get("mappings");
+                Map<String, Object> typeMapping = mappings == null ? null : (Map<String, Object>) mappings.get(config.indexType);
+                Map<String, Object> fieldMapping = typeMapping == null ? null : (Map<String, Object>) typeMapping.get(field);
+                Map<String, Object> mapping = fieldMapping == null ? null : (Map<String, Object>) ((Map<String, Object>) fieldMapping.get("mapping")).get(field);
+                if (mapping == null || !"keyword".equals(mapping.get("type"))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * the slice shards come first, they can be followed by a custom preference string
+         */
+        private String cursorPreference(String shards) {
+            return shards == null ? preference : "_shards:" + shards + "|" + preference;
+        }
+
+        /**
+         * indexName can be an alias or a list of indices: the shard numbers go up to the largest number of
+         * shards of the concrete indices, a shard number missing in an index selects none of its shards.
+         */
+        private String getSliceShards(int numSlice, int nbSlices) throws IOException {
+            if (numberOfShards == 0) {
+                GetSettingsResponse settings = client.indices().getSettings(new GetSettingsRequest().indices(indexName)
+                        .names(NUMBER_OF_SHARDS), RequestOptions.DEFAULT);
+                Iterator<Settings> indicesSettings = settings.getIndexToSettings().valuesIt();
+                if (!indicesSettings.hasNext()) {
+                    throw new IllegalStateException("no index found for " + indexName);
+                }
+                while (indicesSettings.hasNext()) {
+                    numberOfShards = Math.max(numberOfShards, indicesSettings.next().getAsInt(NUMBER_OF_SHARDS, 1));
+                }
+            }
+            String shards = IntStream.range(0, numberOfShards).filter(shard -> shard % nbSlices == numSlice)
+                    .mapToObj(String::valueOf).collect(Collectors.joining(","));
+            return shards.isEmpty() ? null : shards;
+        }
+
+        /**
+         * pages of one slice of the hits, read with search_after in cursor mode, with a scroll context otherwise
+         */
+        private class PageCursor implements PrefetchingSpliterator.PageSource<SearchHit> {
+            private final int numSlice;
+            private final int nbSlices;
+            private final String shards;
+            private Object[] after;
+            private String scrollId;
+            private boolean first = true;
+            private CompletableFuture<List<SearchHit>> pending = CompletableFuture.completedFuture(emptyList());
+
+            PageCursor(int numSlice, int nbSlices, String shards) {
+                this.numSlice = numSlice;
+                this.nbSlices = nbSlices;
+                this.shards = shards;
+            }
+
+            @Override
+            public synchronized CompletableFuture<List<SearchHit>> next() {
+                CompletableFuture<SearchResponse> response;
+                if (cursor) {
+                    if (nbSlices > 1 && shards == null) {
+                        return CompletableFuture.completedFuture(emptyList());
+                    }
+                    SearchSourceBuilder source = sourceBuilder.copyWithNewSlice(null);
+                    if (after != null) {
+                        source.searchAfter(after);
+                    }
+                    SearchRequest searchRequest = new SearchRequest(new String[]{indexName}, source).types(config.indexType)
+                            .preference(cursorPreference(shards));
+                    response = inFlightRequests.send(client::searchAsync, searchRequest);
+                } else if (scrollId == null) {
+                    SearchSourceBuilder source = sourceBuilder.copyWithNewSlice(nbSlices > 1 ? new SliceBuilder(numSlice, nbSlices) : null);
+                    SearchRequest searchRequest = new SearchRequest(new String[]{indexName}, source).types(config.indexType).scroll(KEEP_ALIVE);
+                    response = inFlightRequests.send(client::searchAsync, searchRequest);
+                } else {
+                    response = inFlightRequests.send(client::scrollAsync, new SearchScrollRequest(scrollId).scroll(KEEP_ALIVE));
+                }
+                pending = response.thenApply(this::onResponse);
+                return pending;
+            }
+
+            private synchronized List<SearchHit> onResponse(SearchResponse search) {
+                if (first) {
+                    totalHits.addAndGet(search.getHits().totalHits);
+                    first = false;
+                }
+                scrollId = search.getScrollId();
+                SearchHit[] hits = search.getHits().getHits();
+                if (hits.length > 0) {
+                    after = hits[hits.length - 1].getSortValues();
+                }
+                return Arrays.asList(hits);
+            }
+
+            void close() {
+                CompletableFuture<List<SearchHit>> lastPage;
+                synchronized (this) {
+                    lastPage = pending;
+                }
+                lastPage.handle((hits, error) -> null).join();
+                String contextId;
+                synchronized (this) {
+                    contextId = scrollId;
+                    scrollId = null;
+                }
+                if (contextId != null) {
+                    try {
+                        ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+                        clearScrollRequest.addScrollId(contextId);
+                        client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+                    } catch (IOException e) {
+                        LOGGER.error("cannot clear scroll context of slice {}/{}", numSlice, nbSlices, e);
+                    }
+                }
+            }
+        }
+
         @Override
-        public Searcher withSource(String... fields) {
+        public ElasticsearchSearcher withSource(String... fields) {
             sourceBuilder.fetchSource(fields, new String[]{});
             return this;
         }
 
-        public Searcher withoutSource(String... fields) {
+        public ElasticsearchSearcher withoutSource(String... fields) {
             this.sourceBuilder.fetchSource(new String[] {"*"}, fields);
             return this;
         }
 
+        /**
+         * fetches only the doc values of the fields, without the _source of the hits. The entities are
+         * built with these fields only, so they should have doc values (keyword, numeric, date...). The dates
+         * are formatted with the format of their mapping. The fields without doc values (text, or dynamically
+         * mapped fields) can be fetched from the _source with {@link #withSource(String...)} called afterwards.
+         */
+        public ElasticsearchSearcher withDocValues(String... fields) {
+            sourceBuilder.fetchSource(false);
+            for (String field : fields) {
+                sourceBuilder.docValueField(field, DOC_VALUE_FORMAT);
+            }
+            return this;
+        }
+
         @Override
-        public Searcher withSource(boolean source) {
+        public ElasticsearchSearcher withSource(boolean source) {
             sourceBuilder.fetchSource(false);
             return this;
         }
 
         @Override
-        public Searcher without(Pipeline.Type... nlpPipelines) {
+        public ElasticsearchSearcher without(Pipeline.Type... nlpPipelines) {
             boolQuery.mustNot(new ConstantScoreQueryBuilder(new TermsQueryBuilder("nerTags",
                     stream(nlpPipelines).map(Pipeline.Type::toString).collect(toList()))));
             return this;
         }
 
         @Override
-        public Searcher with(Pipeline.Type... nlpPipelines) {
+        public ElasticsearchSearcher with(Pipeline.Type... nlpPipelines) {
             boolQuery.must(new ConstantScoreQueryBuilder(new TermsQueryBuilder("nerTags",
                     stream(nlpPipelines).map(Pipeline.Type::toString).collect(toList()))));
             return this;
         }
 
         @Override
-        public Searcher with(Tag... tags) {
+        public ElasticsearchSearcher with(Tag... tags) {
             this.boolQuery.must(new ConstantScoreQueryBuilder(new TermsQueryBuilder("tags",
                     stream(tags).map(t -> t.label).collect(toList()))));
             return this;
         }
 
         @Override
-        public Searcher with(String query) {
+        public ElasticsearchSearcher with(String query) {
             return with(query, 0,false);
         }
 
         @Override
-        public Searcher with(String query, int fuzziness, boolean phraseMatches) {
-            String queryString = query;
-            try {
-                if (!hasLuceneOperators(query)) {
-                    if (phraseMatches) {
-                        queryString = "\"" + query + "\"" + (fuzziness == 0 ? "": "~" + fuzziness);
-                    } else if (fuzziness > 0) {
-                        queryString = Stream.of(query.split(" ")).map(s -> s + "~" + fuzziness).collect(Collectors.joining(" "));
-                    }
-                } else if (fuzziness != 0 || phraseMatches) {
-                    LOGGER.info("detected lucene operators in \"{}\", fuzziness and phrase match won't be applied", query);
-                }
-            } catch (org.apache.lucene.queryparser.classic.ParseException e) {
-                LOGGER.warn("cannot parse query. Sending query as string query", e);
-            }
+        public ElasticsearchSearcher with(String query, int fuzziness, boolean phraseMatches) {
+            String queryString = queryAnalyzer.queryString(query, fuzziness, phraseMatches);
             this.boolQuery.must(new MatchAllQueryBuilder());
             this.boolQuery.must(new QueryStringQueryBuilder(queryString).defaultField("*"));
-            this.boolQuery.should(new HasChildQueryBuilder("NamedEntity", new QueryStringQueryBuilder(queryString).defaultField("mentionNorm"), ScoreMode.None));
+            if (config.entitySummary) {
+                this.boolQuery.should(new QueryStringQueryBuilder(queryString).defaultField("entityMentions"));
+            } else {
+                this.boolQuery.should(new HasChildQueryBuilder("NamedEntity", new QueryStringQueryBuilder(queryString).defaultField("mentionNorm"), ScoreMode.None));
+            }
             return this;
         }
 
         @Override
-        public Searcher limit(int maxCount) {
+        public ElasticsearchSearcher limit(int maxCount) {
             sourceBuilder.size(maxCount);
             return this;
         }
 
         @Override
-        public Searcher withFieldValues(String key, String... values) {
+        public ElasticsearchSearcher withFieldValues(String key, String... values) {
             if (values.length > 0) this.boolQuery.must(termsQuery(key, values));
             return this;
         }
 
         @Override
-        public Searcher withPrefixQuery(String key, String... values) {
+        public ElasticsearchSearcher withPrefixQuery(String key, String... values) {
             if (values.length == 0) {
                 return this;
             }
@@ -506,23 +1337,26 @@ public class ElasticsearchIndexer implements Indexer {
         }
 
         @Override
-        public Searcher thatMatchesFieldValue(String name, String value) {
+        public ElasticsearchSearcher thatMatchesFieldValue(String name, String value) {
             this.boolQuery.must(matchQuery(name, value));
             return this;
         }
 
         @Override
         public void clearScroll() throws IOException {
-            ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
-            clearScrollRequest.addScrollId(scrollId);
-            this.client.clearScroll(clearScrollRequest);
+            if (scrollId != null) {
+                ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+                clearScrollRequest.addScrollId(scrollId);
+                this.client.clearScroll(clearScrollRequest);
+            }
             scrollId = null;
-            totalHits = 0;
+            searchAfter = null;
+            totalHits.set(0);
         }
 
         @Override
         public long totalHits() {
-            return totalHits;
+            return totalHits.get();
         }
 
         @Override
@@ -530,4 +1364,40 @@ public class ElasticsearchIndexer implements Indexer {
             return "boolQuery : " + boolQuery;
         }
     }
+
+    /**
+     * result of a group tag or untag: the number of updated documents and the ids of the documents that failed
+     */
+    public static class GroupTagResult {
+        public final long updated;
+        public final List<String> failedIds;
+
+        GroupTagResult(long updated, List<String> failedIds) {
+            this.updated = updated;
+            this.failedIds = failedIds;
+        }
+
+        @Override
+        public String toString() {
+            return updated + " updated, " + failedIds.size() + " failed";
+        }
+    }
+
+    /**
+     * reference to an entity stored in an index: its id and its routing (the root document id)
+     */
+    public static class EntityRef {
+        public final String id;
+        public final String routing;
+
+        public EntityRef(String id, String routing) {
+            this.id = id;
+            this.routing = routing;
+        }
+
+        @Override
+        public String toString() {
+            return id + "/" + routing;
+        }
+    }
 }
@@ -1,19 +1,27 @@
 package org.icij.datashare.text.indexing.elasticsearch;
 
 import com.google.inject.Inject;
-import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.support.WriteRequest;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
-import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.icij.datashare.Entity;
 import org.icij.datashare.PropertiesProvider;
-import org.icij.datashare.com.Message;
 import org.icij.datashare.com.Publisher;
+import org.icij.datashare.text.Language;
 import org.icij.datashare.text.indexing.LanguageGuesser;
 import org.icij.extract.document.TikaDocument;
+import org.icij.extract.extractor.ExtractionStatus;
+import org.icij.extract.report.Report;
+import org.icij.extract.report.ReportMap;
 import org.icij.spewer.FieldNames;
 import org.icij.spewer.Spewer;
 import org.joda.time.format.ISODateTimeFormat;
@@ -21,55 +29,170 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.io.Serializable;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.lang.Integer.valueOf;
+import static java.lang.Math.min;
 import static java.lang.System.currentTimeMillis;
 import static java.nio.file.Paths.get;
 import static java.util.Optional.ofNullable;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.elasticsearch.common.unit.TimeValue.timeValueSeconds;
 import static org.apache.tika.metadata.HttpHeaders.*;
-import static org.icij.datashare.com.Channel.NLP;
-import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
 import static org.icij.datashare.text.Hasher.shorten;
 import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.*;
 
 public class ElasticsearchSpewer extends Spewer implements Serializable {
     private static final Logger logger = LoggerFactory.getLogger(ElasticsearchSpewer.class);
     public static final String DEFAULT_VALUE_UNKNOWN = "unknown";
+    private static final int BULK_CLOSE_TIMEOUT_MINUTES = 30;
+    private static final int CONTENT_BUFFER_SIZE = 8192;
 
     private final RestHighLevelClient client;
     private final ElasticsearchConfiguration esCfg;
-    private final Publisher publisher;
+    private final NlpMessagePublisher nlpPublisher;
     private final LanguageGuesser languageGuesser;
+    private final DuplicateDetector duplicateDetector;
+    private final IndexWrites indexWrites;
+    private final Set<String> writingRoots = ConcurrentHashMap.newKeySet();
+    private final Map<String, PendingDocument> pendingDocuments = new ConcurrentHashMap<>();
+    private final ThreadLocal<RootLanguage> rootLanguage = new ThreadLocal<>();
+    private final ThreadLocal<String> duplicateRoot = new ThreadLocal<>();
+    private BulkProcessor bulkProcessor;
+    private ReportMap reportMap;
     private String indexName;
 
-    @Inject
     public ElasticsearchSpewer(final RestHighLevelClient client, LanguageGuesser languageGuesser, final FieldNames fields,
                                Publisher publisher, final PropertiesProvider propertiesProvider) {
+        this(client, languageGuesser, fields, publisher, propertiesProvider, new IndexWrites());
+    }
+
+    @Inject
+    public ElasticsearchSpewer(final RestHighLevelClient client, LanguageGuesser languageGuesser, final FieldNames fields,
+                               Publisher publisher, final PropertiesProvider propertiesProvider, final IndexWrites indexWrites) {
         super(fields);
         this.client = client;
+        this.indexWrites = indexWrites;
         this.languageGuesser = languageGuesser;
-        this.publisher = publisher;
+        this.nlpPublisher = new NlpMessagePublisher(publisher, propertiesProvider);
         this.esCfg = new ElasticsearchConfiguration(propertiesProvider);
+        this.duplicateDetector = new DuplicateDetector(client, esCfg);
         logger.info("spewer defined with {}", esCfg);
     }
 
+    /**
+     * a root document is checked for duplicate before its content is read, so only its id is kept while
+     * the check is made. The content of a duplicate root is read without being indexed, for its embedded
+     * documents to be extracted.
+     *
+     * With batched duplicate checks (duplicateCheckBatchSize > 1), the embedded documents of a duplicate root
+     * are not indexed either: they are already in the index with the original root. Spewer.write writes a root
+     * document then its children in the same thread, so the duplicate root is kept by thread. Without it, they
+     * are indexed again as before.
+     */
     @Override
     protected void writeDocument(TikaDocument doc, TikaDocument parent, TikaDocument root, int level) throws IOException {
-        final IndexRequest req = prepareRequest(doc, parent, root, level);
+        duplicateDetector.start(indexName);
+        if (parent != null) {
+            if (esCfg.duplicateCheckBatchSize > 1 && root.getId().equals(duplicateRoot.get())) {
+                skip(doc.getReader());
+                logger.debug("child {} of duplicate root {} not indexed", doc, shorten(root.getId(), 4));
+                return;
+            }
+            index(prepareRequest(doc, parent, root, level), doc, parent, root);
+            return;
+        }
+        if (isDuplicate(doc.getId())) {
+            duplicateRoot.set(doc.getId());
+            skip(doc.getReader());
+            index(getDuplicateRequest(doc), doc, null, null);
+            return;
+        }
+        duplicateRoot.remove();
+        try {
+            index(prepareRequest(doc, null, null, level), doc, null, null);
+        } finally {
+            writingRoots.remove(doc.getId());
+        }
+    }
+
+    /**
+     * a root is also a duplicate when the same id is being written by another thread, or is waiting
+     * in the bulk processor. The id is kept in writingRoots until its request is sent.
+     */
+    private boolean isDuplicate(String rootId) throws IOException {
+        if (!writingRoots.add(rootId)) {
+            return true;
+        }
+        boolean duplicate = true;
+        try {
+            duplicate = pendingDocuments.containsKey(rootId) || duplicateDetector.isDuplicate(indexName, rootId);
+        } finally {
+            if (duplicate) {
+                writingRoots.remove(rootId);
+            }
+        }
+        return duplicate;
+    }
+
+    private void index(IndexRequest req, TikaDocument doc, TikaDocument parent, TikaDocument root) throws IOException {
+        String rootId = parent == null ? doc.getId() : root.getId();
+        if (esCfg.bulkIndexing) {
+            pendingDocuments.put(req.id(), new PendingDocument(root == null ? doc.getPath() : root.getPath(), rootId));
+            getBulkProcessor().add(req);
+            return;
+        }
+        req.setRefreshPolicy(esCfg.refreshPolicy);
         long before = currentTimeMillis();
         IndexResponse indexResponse = client.index(req);
+        indexWrites.written(indexName);
         logger.info("{} {} added to elasticsearch in {}ms: {}", parent == null ? "Document" : "Child",
                 shorten(indexResponse.getId(), 4), currentTimeMillis() - before, doc);
-        synchronized (publisher) { // jedis instance is not thread safe and Spewer is shared in DocumentConsumer threads
-            publisher.publish(NLP, new Message(EXTRACT_NLP)
-                    .add(Message.Field.INDEX_NAME, indexName)
-                    .add(Message.Field.DOC_ID, indexResponse.getId())
-                    .add(Message.Field.R_ID, parent == null ? doc.getId() : root.getId()));
+        nlpPublisher.publish(indexName, indexResponse.getId(), rootId);
+    }
+
+    private synchronized BulkProcessor getBulkProcessor() {
+        if (bulkProcessor == null) {
+            bulkProcessor = BulkProcessor.builder((request, bulkListener) -> CompressedBulk.bulkAsync(client, request, esCfg.bulkCompression, bulkListener), new BulkListener())
+                    .setBulkActions(esCfg.bulkActions)
+                    .setBulkSize(new ByteSizeValue(esCfg.bulkSizeMb, ByteSizeUnit.MB))
+                    .setFlushInterval(timeValueSeconds(esCfg.bulkFlushIntervalSeconds))
+                    .setConcurrentRequests(esCfg.bulkConcurrentRequests)
+                    .setBackoffPolicy(BackoffPolicy.exponentialBackoff())
+                    .build();
+        }
+        return bulkProcessor;
+    }
+
+    /**
+     * sends the pending bulk requests, waits for them to be acknowledged and publishes the buffered NLP messages.
+     */
+    public void flush() throws IOException, InterruptedException {
+        BulkProcessor processor;
+        synchronized (this) {
+            processor = bulkProcessor;
+            bulkProcessor = null;
+        }
+        if (processor != null && !processor.awaitClose(BULK_CLOSE_TIMEOUT_MINUTES, MINUTES)) {
+            logger.warn("bulk requests not completed after {} minutes ({} documents pending)", BULK_CLOSE_TIMEOUT_MINUTES, pendingDocuments.size());
+        }
+        nlpPublisher.flush();
+    }
+
+    /**
+     * publishes the buffered NLP messages and stops the NLP publisher. The spewer must be flushed before.
+     */
+    public void close() {
+        nlpPublisher.close();
+    }
+
+    private void reportFailure(PendingDocument document) {
+        if (reportMap != null) {
+            reportMap.put(document.path, new Report(ExtractionStatus.FAILURE_NOT_SAVED));
         }
     }
 
@@ -78,20 +201,18 @@ public class ElasticsearchSpewer extends Spewer implements Serializable {
         return this;
     }
 
+    public ElasticsearchSpewer withReportMap(final ReportMap reportMap) {
+        this.reportMap = reportMap;
+        return this;
+    }
+
     public void createIndex() {
-        ElasticsearchConfiguration.createIndex(client, indexName, DEFAULT_INDEX_TYPE);
+        esCfg.createIndex(client, indexName);
     }
 
     private IndexRequest prepareRequest(final TikaDocument document, final TikaDocument parent, TikaDocument root, final int level) throws IOException {
         IndexRequest req = new IndexRequest(indexName, esCfg.indexType, document.getId());
-        Map<String, Object> jsonDocument = getDocumentMap(document);
-
-        if (parent == null && isDuplicate(document.getId())) {
-            IndexRequest indexRequest = new IndexRequest(indexName, esCfg.indexType, Entity.HASHER.hash(document.getPath()));
-            indexRequest.source(getDuplicateMap(document));
-            indexRequest.setRefreshPolicy(esCfg.refreshPolicy);
-            return indexRequest;
-        }
+        Map<String, Object> jsonDocument = getDocumentMap(document, root);
 
         if (parent != null) {
             jsonDocument.put(DEFAULT_PARENT_DOC_FIELD, parent.getId());
@@ -99,21 +220,24 @@ public class ElasticsearchSpewer extends Spewer implements Serializable {
             req.routing(root.getId());
         }
         jsonDocument.put("extractionLevel", level);
-        req = req.source(jsonDocument);
-        req.setRefreshPolicy(esCfg.refreshPolicy);
-        return req;
+        return req.source(jsonDocument);
     }
 
-    private boolean isDuplicate(String docId) throws IOException {
-        GetRequest getRequest = new GetRequest(indexName, esCfg.indexType, docId);
-        getRequest.fetchSourceContext(new FetchSourceContext(false));
-        getRequest.storedFields("_none_");
-        return client.exists(getRequest, RequestOptions.DEFAULT);
+    private IndexRequest getDuplicateRequest(final TikaDocument document) {
+        IndexRequest indexRequest = new IndexRequest(indexName, esCfg.indexType, Entity.HASHER.hash(document.getPath()));
+        Map<String, Object> jsonDocument = getDuplicateMap(document);
+        jsonDocument.put(ES_ID_FIELD, indexRequest.id());
+        return indexRequest.source(jsonDocument);
     }
 
     Map<String, Object> getDocumentMap(TikaDocument document) throws IOException {
+        return getDocumentMap(document, null);
+    }
+
+    private Map<String, Object> getDocumentMap(TikaDocument document, TikaDocument root) throws IOException {
         Map<String, Object> jsonDocument = new HashMap<>();
 
+        jsonDocument.put(ES_ID_FIELD, document.getId());
         jsonDocument.put(esCfg.docTypeField, ES_DOCUMENT_TYPE);
         jsonDocument.put(esCfg.indexJoinField, new HashMap<String, String>() {{
             put("name", "Document");
@@ -129,9 +253,128 @@ public class ElasticsearchSpewer extends Spewer implements Serializable {
         jsonDocument.put("contentLength", valueOf(ofNullable(document.getMetadata().get(CONTENT_LENGTH)).orElse("-1")));
         jsonDocument.put("contentEncoding", ofNullable(document.getMetadata().get(CONTENT_ENCODING)).orElse(DEFAULT_VALUE_UNKNOWN));
 
-        String content = toString(document.getReader()).trim();
-        jsonDocument.put("language", languageGuesser.guess(content));
+        if (esCfg.maxContentLength < 0) {
+            String content = toString(document.getReader()).trim();
+            jsonDocument.put("language", guessLanguage(content, document, root));
+            jsonDocument.put(ES_CONTENT_FIELD, content);
+        } else {
+            putBoundedContent(jsonDocument, document, root);
+        }
+        return jsonDocument;
+    }
+
+    /**
+     * embedded documents shorter than inheritedLanguageMaxLength get the language of their root document:
+     * the detection is not reliable on small texts. The root language is kept by thread because
+     * Spewer.write writes a root document then its children in the same thread.
+     */
+    private Language guessLanguage(String content, TikaDocument document, TikaDocument root) {
+        RootLanguage inherited = rootLanguage.get();
+        if (root != null && content.length() < esCfg.inheritedLanguageMaxLength &&
+                inherited != null && inherited.rootId.equals(root.getId())) {
+            return inherited.language;
+        }
+        Language language = languageGuesser.guess(content);
+        if (root == null) {
+            rootLanguage.set(new RootLanguage(document.getId(), language));
+        }
+        return language;
+    }
+
+    /**
+     * reads at most maxContentLength chars of the document content. The rest of the reader
+     * is either indexed as ContentPage documents of maxContentLength chars (with contentPages)
+     * or skipped. In both cases it is read until the end so that embedded documents are extracted.
+     *
+     * Each page is indexed as soon as it is read, so at most one page is kept in memory. The duplicate roots
+     * are known before their content is read and have no pages. The pages are routed with the root document
+     * and have the document id as parentDocument: they are read back in order with
+     * {@link ElasticsearchIndexer#getContentPages}.
+     */
+    private void putBoundedContent(Map<String, Object> jsonDocument, TikaDocument document, TikaDocument root) throws IOException {
+        Reader reader = document.getReader();
+        String content = read(reader, esCfg.maxContentLength).trim();
+        Language language = guessLanguage(content, document, root);
+        jsonDocument.put("language", language);
         jsonDocument.put(ES_CONTENT_FIELD, content);
+
+        boolean truncated;
+        if (esCfg.contentPages && esCfg.maxContentLength > 0) {
+            truncated = indexContentPages(reader, document, root == null ? document : root, language) > 0;
+        } else {
+            truncated = skip(reader);
+        }
+        if (truncated) {
+            logger.info("content of {} truncated to {} chars", document, esCfg.maxContentLength);
+        }
+        jsonDocument.put("contentTruncated", truncated);
+    }
+
+    private int indexContentPages(Reader reader, TikaDocument document, TikaDocument root, Language language) throws IOException {
+        int pageNumber = 0;
+        String page;
+        while (!(page = read(reader, esCfg.maxContentLength)).isEmpty()) {
+            page = page.trim();
+            if (page.isEmpty()) {
+                continue;
+            }
+            pageNumber++;
+            String pageId = Entity.HASHER.hash(document.getId() + "/" + pageNumber);
+            indexContentPage(new IndexRequest(indexName, esCfg.indexType, pageId)
+                    .routing(root.getId())
+                    .source(getContentPageMap(pageId, document, root, pageNumber, language, page)));
+        }
+        return pageNumber;
+    }
+
+    private void indexContentPage(IndexRequest req) throws IOException {
+        if (esCfg.bulkIndexing) {
+            getBulkProcessor().add(req);
+            return;
+        }
+        req.setRefreshPolicy(esCfg.refreshPolicy);
+        client.index(req);
+        indexWrites.written(indexName);
+    }
+
+    private static String read(Reader reader, int maxLength) throws IOException {
+        StringBuilder content = new StringBuilder(min(maxLength, CONTENT_BUFFER_SIZE));
+        char[] buffer = new char[CONTENT_BUFFER_SIZE];
+        int nbRead;
+        while (content.length() < maxLength &&
+                (nbRead = reader.read(buffer, 0, min(buffer.length, maxLength - content.length()))) != -1) {
+            content.append(buffer, 0, nbRead);
+        }
+        return content.toString();
+    }
+
+    /**
+     * @return true if non blank text has been skipped
+     */
+    private static boolean skip(Reader reader) throws IOException {
+        boolean skippedText = false;
+        char[] buffer = new char[CONTENT_BUFFER_SIZE];
+        int nbRead;
+        while ((nbRead = reader.read(buffer)) != -1) {
+            for (int i = 0; !skippedText && i < nbRead; i++) {
+                skippedText = buffer[i] > ' ';
+            }
+        }
+        return skippedText;
+    }
+
+    private Map<String, Object> getContentPageMap(String pageId, TikaDocument document, TikaDocument root, int pageNumber, Language language, String content) {
+        Map<String, Object> jsonDocument = new HashMap<>();
+
+        jsonDocument.put(ES_ID_FIELD, pageId);
+        jsonDocument.put(esCfg.docTypeField, ES_CONTENT_PAGE_TYPE);
+        jsonDocument.put("path", document.getPath().toString());
+        jsonDocument.put(DEFAULT_PARENT_DOC_FIELD, document.getId());
+        jsonDocument.put("rootDocument", root.getId());
+        jsonDocument.put("contentPage", pageNumber);
+        jsonDocument.put("language", language);
+        jsonDocument.put(ES_CONTENT_FIELD, content);
+
         return jsonDocument;
     }
 
@@ -149,4 +392,60 @@ public class ElasticsearchSpewer extends Spewer implements Serializable {
         this.esCfg.withRefresh(refreshPolicy);
         return this;
     }
+
+    private class BulkListener implements BulkProcessor.Listener {
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            logger.debug("sending bulk {} with {} documents", executionId, request.numberOfActions());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            logger.info("bulk {} with {} documents added to elasticsearch in {}ms", executionId,
+                    response.getItems().length, response.getTook().getMillis());
+            indexWrites.written(indexName);
+            for (BulkItemResponse item : response.getItems()) {
+                PendingDocument document = pendingDocuments.remove(item.getId());
+                if (item.isFailed()) {
+                    logger.error("bulk {} failed for document {} : {}", executionId, item.getId(), item.getFailureMessage());
+                    if (document != null) {
+                        reportFailure(document);
+                    }
+                } else if (document != null) {
+                    nlpPublisher.publish(indexName, item.getId(), document.rootId);
+                }
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            logger.error("bulk {} with {} documents failed", executionId, request.numberOfActions(), failure);
+            for (DocWriteRequest<?> docRequest : request.requests()) {
+                PendingDocument document = pendingDocuments.remove(docRequest.id());
+                if (document != null) {
+                    reportFailure(document);
+                }
+            }
+        }
+    }
+
+    private static class RootLanguage {
+        final String rootId;
+        final Language language;
+
+        RootLanguage(String rootId, Language language) {
+            this.rootId = rootId;
+            this.language = language;
+        }
+    }
+
+    private static class PendingDocument {
+        final Path path;
+        final String rootId;
+
+        PendingDocument(Path path, String rootId) {
+            this.path = path;
+            this.rootId = rootId;
+        }
+    }
 }
@@ -0,0 +1,215 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.icij.datashare.PropertiesProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Keeps the sources of the embedded documents extracted by {@link SourceExtractor} on disk, so that opening an
+ * embedded document again doesn't parse its root document again.
+ *
+ * The cache is disabled by default. It is enabled with embeddedCacheSizeMb, the sources are then stored in
+ * embeddedCacheDir (a datashare-embedded directory in the temporary directory by default) with their digest (the
+ * document id) as file name. The least recently read ones are deleted when the cache is larger than
+ * embeddedCacheSizeMb. The sources larger than 1/4 of the cache are not cached. The files already in the directory are loaded at startup with their
+ * last modification time as last read time.
+ */
+@Singleton
+public class EmbeddedSourceCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedSourceCache.class);
+    public static final String EMBEDDED_CACHE_DIR_PROP = "embeddedCacheDir";
+    public static final String EMBEDDED_CACHE_SIZE_MB_PROP = "embeddedCacheSizeMb";
+    static final int DEFAULT_EMBEDDED_CACHE_SIZE_MB = 0;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final Path dir;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Inject
+    public EmbeddedSourceCache(PropertiesProvider propertiesProvider) {
+        this(propertiesProvider.get(EMBEDDED_CACHE_DIR_PROP).map(Paths::get)
+                        .orElse(Paths.get(System.getProperty("java.io.tmpdir"), "datashare-embedded")),
+                propertiesProvider.get(EMBEDDED_CACHE_SIZE_MB_PROP).map(Integer::parseInt).orElse(DEFAULT_EMBEDDED_CACHE_SIZE_MB) * 1024L * 1024L);
+    }
+
+    EmbeddedSourceCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        if (isEnabled()) {
+            load();
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * @return the cached source file of the document with the given digest, or null if it is not cached
+     */
+    public InputStream get(String digest) throws IOException {
+        synchronized (this) {
+            if (!isEnabled() || sizes.get(digest) == null) {
+                misses.increment();
+                return null;
+            }
+        }
+        Path file = path(digest);
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            InputStream source = new FileInputStream(file.toFile());
+            hits.increment();
+            return source;
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            remove(digest);
+            misses.increment();
+            return null;
+        }
+    }
+
+    public synchronized boolean contains(String digest) {
+        return sizes.containsKey(digest);
+    }
+
+    public void put(String digest, byte[] content) throws IOException {
+        if (isEnabled() && content.length <= maxBytes / 4 && !contains(digest)) {
+            Path tmp = tmpPath(digest);
+            Files.write(tmp, content);
+            commit(digest, tmp);
+        }
+    }
+
+    /**
+     * copies the file into the cache
+     */
+    public void put(String digest, Path source) throws IOException {
+        if (isEnabled() && Files.size(source) <= maxBytes / 4 && !contains(digest)) {
+            Path tmp = tmpPath(digest);
+            Files.copy(source, tmp, REPLACE_EXISTING);
+            commit(digest, tmp);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public synchronized int size() {
+        return sizes.size();
+    }
+
+    /**
+     * @return the number of bytes of the cached sources
+     */
+    public synchronized long weight() {
+        return bytes;
+    }
+
+    private void commit(String digest, Path tmp) throws IOException {
+        Path file = path(digest);
+        Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        synchronized (this) {
+            Long previous = sizes.put(digest, Files.size(file));
+            bytes += sizes.get(digest) - (previous == null ? 0 : previous);
+            evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> leastRecentlyRead = sizes.entrySet().iterator();
+        while (bytes > maxBytes && leastRecentlyRead.hasNext()) {
+            Map.Entry<String, Long> entry = leastRecentlyRead.next();
+            try {
+                Files.deleteIfExists(path(entry.getKey()));
+                bytes -= entry.getValue();
+                leastRecentlyRead.remove();
+            } catch (IOException e) {
+                LOGGER.warn("cannot delete cached source {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    private synchronized void remove(String digest) {
+        Long size = sizes.remove(digest);
+        bytes -= size == null ? 0 : size;
+    }
+
+    private void load() {
+        try {
+            Files.createDirectories(dir);
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.filter(Files::isRegularFile).sorted(Comparator.comparing(EmbeddedSourceCache::lastModified)).forEach(file -> {
+                    try {
+                        if (file.getFileName().toString().endsWith(TMP_SUFFIX)) {
+                            Files.delete(file);
+                        } else if (isDigest(file.getFileName().toString())) {
+                            sizes.put(file.getFileName().toString(), Files.size(file));
+                            bytes += Files.size(file);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            synchronized (this) {
+                evict();
+            }
+            LOGGER.info("loaded {} cached sources ({} bytes) from {}", sizes.size(), bytes, dir);
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.error("cannot load embedded sources cache from {}", dir, e);
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private Path tmpPath(String digest) throws IOException {
+        return Files.createTempFile(Files.createDirectories(path(digest).getParent()), digest, TMP_SUFFIX);
+    }
+
+    Path path(String digest) {
+        if (!isDigest(digest)) {
+            throw new IllegalArgumentException("invalid digest " + digest);
+        }
+        return dir.resolve(digest.substring(0, 2)).resolve(digest);
+    }
+
+    private static boolean isDigest(String name) {
+        return name.matches("[0-9a-fA-F]{2,}");
+    }
+}
@@ -0,0 +1,98 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.icij.datashare.Entity;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.icij.datashare.json.JsonObjectMapper.MAPPER;
+
+/**
+ * Reads entities from the _source bytes of elasticsearch documents.
+ *
+ * The source is parsed once with a streaming parser into a token buffer, that finds the type of the entity
+ * on the fly and is then bound to the entity class. This avoids building the source map and converting it again
+ * into an entity. The entity classes are resolved once per type.
+ */
+class EntityReader {
+    private static final String ENTITY_PACKAGE = "org.icij.datashare.text.";
+    private static final ConcurrentMap<String, Optional<Class<? extends Entity>>> entityClasses = new ConcurrentHashMap<>();
+
+    private final String typeField;
+
+    EntityReader(String typeField) {
+        this.typeField = typeField;
+    }
+
+    /**
+     * @return the entity which class is given by the type field of the source, or null if the type is unknown
+     */
+    <T extends Entity> T read(String id, BytesReference source) throws IOException {
+        return read(id, source, typeField, null);
+    }
+
+    static <T extends Entity> T read(String id, BytesReference source, Class<T> cls) throws IOException {
+        return read(id, source, null, cls);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Entity> T read(String id, BytesReference source, String typeField, Class<T> cls) throws IOException {
+        BytesRef bytes = source.toBytesRef();
+        try (JsonParser parser = MAPPER.getFactory().createParser(bytes.bytes, bytes.offset, bytes.length);
+             TokenBuffer buffer = new TokenBuffer(MAPPER, false)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("source of " + id + " is not a json object");
+            }
+            String type = null;
+            buffer.writeStartObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                if ("id".equals(field)) {
+                    parser.nextToken();
+                    parser.skipChildren();
+                    continue;
+                }
+                buffer.writeFieldName(field);
+                parser.nextToken();
+                if (field.equals(typeField) && parser.getCurrentToken() == JsonToken.VALUE_STRING) {
+                    type = parser.getText();
+                }
+                buffer.copyCurrentStructure(parser);
+            }
+            buffer.writeStringField("id", id);
+            buffer.writeEndObject();
+
+            Class<? extends Entity> entityClass = cls != null ? cls : getEntityClass(type).orElse(null);
+            if (entityClass == null) {
+                return null;
+            }
+            try (JsonParser bufferParser = buffer.asParser(MAPPER)) {
+                return (T) MAPPER.readValue(bufferParser, entityClass);
+            }
+        }
+    }
+
+    static Optional<Class<? extends Entity>> getEntityClass(String type) {
+        if (type == null) {
+            return Optional.empty();
+        }
+        return entityClasses.computeIfAbsent(type, EntityReader::loadEntityClass);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Optional<Class<? extends Entity>> loadEntityClass(String type) {
+        try {
+            Class<?> cls = Class.forName(ENTITY_PACKAGE + type);
+            return Entity.class.isAssignableFrom(cls) ? Optional.of((Class<? extends Entity>) cls) : Optional.empty();
+        } catch (ClassNotFoundException e) {
+            return Optional.empty();
+        }
+    }
+}
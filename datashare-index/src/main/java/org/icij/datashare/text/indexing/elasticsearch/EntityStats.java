@@ -0,0 +1,33 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import java.util.Map;
+
+/**
+ * Statistics of a named entity in a project: the number of documents where it has been found and its
+ * number of occurrences. They are stored in the index of the project (see {@link ElasticsearchIndexer#getEntityStats}).
+ */
+public class EntityStats {
+    static final String TYPE = "EntityStats";
+
+    public final String mentionNorm;
+    public final String category;
+    public final long documents;
+    public final long occurrences;
+
+    public EntityStats(String mentionNorm, String category, long documents, long occurrences) {
+        this.mentionNorm = mentionNorm;
+        this.category = category;
+        this.documents = documents;
+        this.occurrences = occurrences;
+    }
+
+    static EntityStats fromSource(Map<String, Object> source) {
+        return new EntityStats((String) source.get("mentionNorm"), (String) source.get("category"),
+                ((Number) source.get("documentCount")).longValue(), ((Number) source.get("occurrenceCount")).longValue());
+    }
+
+    @Override
+    public String toString() {
+        return "EntityStats{" + category + ":" + mentionNorm + ", documents=" + documents + ", occurrences=" + occurrences + '}';
+    }
+}
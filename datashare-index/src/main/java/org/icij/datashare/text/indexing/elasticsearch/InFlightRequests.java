@@ -0,0 +1,63 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.RequestOptions;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Sends asynchronous requests with the elasticsearch client, with at most maxInFlightRequests
+ * requests waiting for their response. When the limit is reached, the calling thread waits
+ * for a response before sending its request.
+ *
+ * The futures are completed in the client I/O threads: the stages chained to them shouldn't block nor
+ * deserialize the responses. The indexer async operations read the entities in an async stage, and the
+ * searcher streams convert the prefetched hits in the consuming thread.
+ */
+class InFlightRequests {
+    private final Semaphore permits;
+
+    InFlightRequests(int maxInFlightRequests) {
+        this.permits = new Semaphore(maxInFlightRequests);
+    }
+
+    <Req, Resp> CompletableFuture<Resp> send(AsyncCall<Req, Resp> call, Req request) {
+        CompletableFuture<Resp> future = new CompletableFuture<>();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        try {
+            call.send(request, RequestOptions.DEFAULT, new ActionListener<Resp>() {
+                @Override
+                public void onResponse(Resp response) {
+                    permits.release();
+                    future.complete(response);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    permits.release();
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    int available() {
+        return permits.availablePermits();
+    }
+
+    @FunctionalInterface
+    interface AsyncCall<Req, Resp> {
+        void send(Req request, RequestOptions options, ActionListener<Resp> listener);
+    }
+}
@@ -0,0 +1,138 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.google.inject.Inject;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.icij.datashare.PropertiesProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+
+import static java.lang.String.format;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.INDEX_TEMPLATE_PREFIX;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.NUMBER_OF_SHARDS;
+
+/**
+ * Changes the number of shards of an existing index.
+ *
+ * The _split API can only multiply the number of shards of an index created with
+ * index.number_of_routing_shards and needs a new index name, so the index is resharded with reindex:
+ * <ol>
+ *     <li>a temporary index "[index]-reshard" is created with the new layout</li>
+ *     <li>the documents are reindexed into the temporary index</li>
+ *     <li>the index is deleted and recreated with the new layout (its template is updated)</li>
+ *     <li>the documents are reindexed back into the index and the temporary index is deleted</li>
+ * </ol>
+ * The reindex requests keep the routing of the documents. Nothing should write into the index while it is resharded.
+ * Before an index is deleted, the number of documents of the reindexed copy is checked against its own count:
+ * the resharding is aborted while both indices still exist if they differ.
+ */
+public class IndexResharder {
+    private static final Logger logger = LoggerFactory.getLogger(IndexResharder.class);
+    static final String RESHARD_SUFFIX = "-reshard";
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+
+    private final RestHighLevelClient client;
+    private final ElasticsearchConfiguration esCfg;
+
+    @Inject
+    public IndexResharder(RestHighLevelClient client, PropertiesProvider propertiesProvider) {
+        this.client = client;
+        this.esCfg = new ElasticsearchConfiguration(propertiesProvider);
+    }
+
+    /**
+     * @param progress receives the progress rate between 0 and 1
+     * @return the number of documents of the resharded index
+     */
+    public long reshard(String indexName, int shards, DoubleConsumer progress) throws IOException, InterruptedException {
+        String tmpIndex = indexName + RESHARD_SUFFIX;
+        Settings layout = Settings.builder().put(esCfg.getIndexSettings(indexName)).put(NUMBER_OF_SHARDS, shards).build();
+        logger.info("resharding index {} to {} shards", indexName, shards);
+
+        esCfg.createIndex(client, tmpIndex, layout);
+        long nbDocuments = reindex(indexName, tmpIndex, rate -> progress.accept(rate / 2));
+        checkCopied(indexName, tmpIndex);
+        client.indices().delete(new DeleteIndexRequest(indexName), RequestOptions.DEFAULT);
+
+        esCfg.createIndex(client, indexName, layout);
+        reindex(tmpIndex, indexName, rate -> progress.accept(0.5 + rate / 2));
+        checkCopied(tmpIndex, indexName);
+        client.indices().delete(new DeleteIndexRequest(tmpIndex), RequestOptions.DEFAULT);
+        client.getLowLevelClient().performRequest(new Request("DELETE", "/_template/" + INDEX_TEMPLATE_PREFIX + tmpIndex));
+
+        logger.info("index {} resharded to {} shards ({} documents)", indexName, shards, nbDocuments);
+        return nbDocuments;
+    }
+
+    /**
+     * runs the reindex as an elasticsearch task and polls it, so that a long reindex isn't bound to the client socket timeout
+     */
+    private long reindex(String source, String destination, DoubleConsumer progress) throws IOException, InterruptedException {
+        Request request = new Request("POST", "/_reindex");
+        request.addParameter("wait_for_completion", "false");
+        request.setJsonEntity(format("{\"source\":{\"index\":\"%s\"},\"dest\":{\"index\":\"%s\"}}", source, destination));
+        String taskId = (String) toMap(client.getLowLevelClient().performRequest(request)).get("task");
+        logger.info("reindexing {} into {} with task {}", source, destination, taskId);
+
+        Map<String, Object> taskStatus;
+        do {
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+            taskStatus = toMap(client.getLowLevelClient().performRequest(new Request("GET", "/_tasks/" + taskId)));
+            Map<String, Object> status = getMap(getMap(taskStatus, "task"), "status");
+            long total = getLong(status, "total");
+            if (total > 0) {
+                progress.accept((double) (getLong(status, "created") + getLong(status, "updated")) / total);
+            }
+        } while (!Boolean.TRUE.equals(taskStatus.get("completed")));
+
+        Map<String, Object> response = getMap(taskStatus, "response");
+        Object failures = response == null ? null : response.get("failures");
+        if (taskStatus.get("error") != null || (failures instanceof Collection && !((Collection<?>) failures).isEmpty())) {
+            throw new IllegalStateException(format("reindex of %s into %s failed : %s", source, destination,
+                    taskStatus.get("error") != null ? taskStatus.get("error") : failures));
+        }
+        client.indices().refresh(new RefreshRequest(destination), RequestOptions.DEFAULT);
+        return getLong(response, "total");
+    }
+
+    private void checkCopied(String source, String destination) throws IOException {
+        long sourceCount = count(source);
+        long destinationCount = count(destination);
+        if (sourceCount != destinationCount) {
+            throw new IllegalStateException(format("reindex of %s into %s is incomplete : %d documents copied out of %d, %s is kept",
+                    source, destination, destinationCount, sourceCount, source));
+        }
+    }
+
+    private long count(String index) throws IOException {
+        return getLong(toMap(client.getLowLevelClient().performRequest(new Request("GET", "/" + index + "/_count"))), "count");
+    }
+
+    private static Map<String, Object> toMap(Response response) throws IOException {
+        return XContentHelper.convertToMap(XContentType.JSON.xContent(), EntityUtils.toString(response.getEntity()), false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getMap(Map<String, Object> map, String key) {
+        Object value = map == null ? null : map.get(key);
+        return value instanceof Map ? (Map<String, Object>) value : null;
+    }
+
+    private static long getLong(Map<String, Object> map, String key) {
+        Object value = map == null ? null : map.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+}
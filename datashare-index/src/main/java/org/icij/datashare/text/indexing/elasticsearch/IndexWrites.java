@@ -0,0 +1,29 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.google.inject.Singleton;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Keeps the time of the last write made by this process to each index (documents, named entities, tags...),
+ * so that the responses read from an index can be cached until the index is written again.
+ */
+@Singleton
+public class IndexWrites {
+    private final ConcurrentMap<String, Long> lastWrites = new ConcurrentHashMap<>();
+
+    public void written(String indexName) {
+        lastWrites.put(indexName, currentTimeMillis());
+    }
+
+    /**
+     * @return the time in milliseconds of the last write to one of the indices, 0 if they have not been written
+     */
+    public long lastWrite(Collection<String> indexNames) {
+        return indexNames.stream().mapToLong(index -> lastWrites.getOrDefault(index, 0L)).max().orElse(0);
+    }
+}
@@ -0,0 +1,102 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.settings.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Puts indices in bulk load settings while they are ingesting documents: no refresh,
+ * no replicas and asynchronous translog. The original settings are restored and the index
+ * is refreshed when the ingestion stops.
+ *
+ * Several ingestions can run on the same index: the settings are restored when the last one stops.
+ */
+@Singleton
+public class IngestMode {
+    private static final Logger logger = LoggerFactory.getLogger(IngestMode.class);
+    public static final String INGEST_MODE_PROP = "ingestMode";
+    static final String REFRESH_INTERVAL = "index.refresh_interval";
+    static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    static final String TRANSLOG_DURABILITY = "index.translog.durability";
+    private static final String[] INGEST_SETTINGS = {REFRESH_INTERVAL, NUMBER_OF_REPLICAS, TRANSLOG_DURABILITY};
+
+    private final RestHighLevelClient client;
+    private final Map<String, IndexState> indices = new HashMap<>();
+
+    @Inject
+    public IngestMode(RestHighLevelClient client) {
+        this.client = client;
+    }
+
+    public synchronized void start(String indexName) throws IOException {
+        IndexState state = indices.get(indexName);
+        if (state != null) {
+            state.ingestions++;
+            return;
+        }
+        GetSettingsResponse response = client.indices().getSettings(new GetSettingsRequest().indices(indexName)
+                .names(INGEST_SETTINGS), RequestOptions.DEFAULT);
+        Map<String, String> originalSettings = new HashMap<>();
+        for (String key : INGEST_SETTINGS) {
+            originalSettings.put(key, response.getSetting(indexName, key));
+        }
+        putSettings(indexName, Settings.builder()
+                .put(REFRESH_INTERVAL, "-1")
+                .put(NUMBER_OF_REPLICAS, 0)
+                .put(TRANSLOG_DURABILITY, "async")
+                .build());
+        indices.put(indexName, new IndexState(originalSettings));
+        logger.info("index {} switched to ingest mode (original settings {})", indexName, originalSettings);
+    }
+
+    public synchronized void stop(String indexName) throws IOException {
+        IndexState state = indices.get(indexName);
+        if (state == null || --state.ingestions > 0) {
+            return;
+        }
+        indices.remove(indexName);
+        Settings.Builder restoredSettings = Settings.builder();
+        for (String key : INGEST_SETTINGS) {
+            String value = state.originalSettings.get(key);
+            if (value == null) {
+                restoredSettings.putNull(key);
+            } else {
+                restoredSettings.put(key, value);
+            }
+        }
+        putSettings(indexName, restoredSettings.build());
+        client.indices().refresh(new RefreshRequest(indexName), RequestOptions.DEFAULT);
+        logger.info("index {} switched back to normal mode", indexName);
+    }
+
+    public synchronized Set<String> getIndices() {
+        return new HashSet<>(indices.keySet());
+    }
+
+    private void putSettings(String indexName, Settings settings) throws IOException {
+        client.indices().putSettings(new UpdateSettingsRequest(indexName).settings(settings), RequestOptions.DEFAULT);
+    }
+
+    private static class IndexState {
+        final Map<String, String> originalSettings;
+        int ingestions = 1;
+
+        IndexState(Map<String, String> originalSettings) {
+            this.originalSettings = originalSettings;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.newSetFromMap;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.elasticsearch.common.unit.TimeValue.timeValueSeconds;
+
+/**
+ * Writes the named entities of many documents in shared bulk requests. The requests of the documents
+ * are accumulated until bulkActions requests or bulkSizeMb are reached, or every bulkFlushIntervalSeconds.
+ *
+ * Each document gets a future that is completed when all its requests are acknowledged, with
+ * false if one of them failed. The first request of a document can have follow-up requests built from its
+ * response (the entity stats from the document update): they are sent together in one bulk for each bulk of
+ * the processor, outside of it because the bulk listener cannot add requests to the processor.
+ */
+class NamedEntityWriter {
+    private static final Logger logger = LoggerFactory.getLogger(NamedEntityWriter.class);
+    private static final int FLUSH_TIMEOUT_MINUTES = 5;
+
+    private final RestHighLevelClient client;
+    private final ElasticsearchConfiguration esCfg;
+    private final BulkProcessor bulkProcessor;
+    private final Map<DocWriteRequest<?>, DocumentWrite> pendingRequests = new ConcurrentHashMap<>();
+    private final Set<DocumentWrite> pendingWrites = newSetFromMap(new ConcurrentHashMap<>());
+
+    NamedEntityWriter(RestHighLevelClient client, ElasticsearchConfiguration esCfg) {
+        this.client = client;
+        this.esCfg = esCfg;
+        bulkProcessor = BulkProcessor.builder((request, bulkListener) ->
+                CompressedBulk.bulkAsync(client, request.setRefreshPolicy(esCfg.refreshPolicy), esCfg.bulkCompression, bulkListener), new BulkListener())
+                .setBulkActions(esCfg.bulkActions)
+                .setBulkSize(new ByteSizeValue(esCfg.bulkSizeMb, ByteSizeUnit.MB))
+                .setFlushInterval(timeValueSeconds(esCfg.bulkFlushIntervalSeconds))
+                .setConcurrentRequests(esCfg.bulkConcurrentRequests)
+                .setBackoffPolicy(BackoffPolicy.exponentialBackoff())
+                .build();
+    }
+
+    /**
+     * @param requests the requests of one document
+     * @return a future completed with true when all the requests are acknowledged, false if one failed
+     */
+    CompletableFuture<Boolean> add(List<DocWriteRequest<?>> requests) {
+        return add(requests, null);
+    }
+
+    /**
+     * @param requests the requests of one document
+     * @param followUp builds the requests to send once the first request is acknowledged, from its response.
+     *                 It is not called if the first request failed.
+     * @return a future completed with true when all the requests and their follow-up requests are acknowledged,
+     * false if one failed
+     */
+    CompletableFuture<Boolean> add(List<DocWriteRequest<?>> requests, Function<BulkItemResponse, List<DocWriteRequest<?>>> followUp) {
+        DocumentWrite write = new DocumentWrite(requests, followUp);
+        pendingWrites.add(write);
+        write.future.whenComplete((saved, error) -> pendingWrites.remove(write));
+        requests.forEach(request -> pendingRequests.put(request, write));
+        requests.forEach(bulkProcessor::add);
+        return write.future;
+    }
+
+    /**
+     * sends the accumulated requests and waits for all the pending documents to be acknowledged
+     */
+    void flush() throws InterruptedException {
+        bulkProcessor.flush();
+        CompletableFuture<?>[] pending = pendingWrites.stream().map(write -> write.future).toArray(CompletableFuture<?>[]::new);
+        try {
+            CompletableFuture.allOf(pending).get(FLUSH_TIMEOUT_MINUTES, MINUTES);
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("{} named entity writes not acknowledged after flush", pending.length, e);
+        }
+    }
+
+    void close() throws InterruptedException {
+        if (!bulkProcessor.awaitClose(FLUSH_TIMEOUT_MINUTES, MINUTES)) {
+            logger.warn("named entity bulk requests not completed after {} minutes ({} requests pending)",
+                    FLUSH_TIMEOUT_MINUTES, pendingRequests.size());
+        }
+    }
+
+    private class BulkListener implements BulkProcessor.Listener {
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            logger.debug("sending named entity bulk {} with {} requests", executionId, request.numberOfActions());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            logger.debug("named entity bulk {} with {} requests done in {}ms", executionId,
+                    response.getItems().length, response.getTook().getMillis());
+            Map<String, List<DocWriteRequest<?>>> requestsById = new HashMap<>();
+            request.requests().forEach(docRequest -> requestsById.computeIfAbsent(docRequest.id(), id -> new LinkedList<>()).add(docRequest));
+            FollowUpBulk followUpBulk = new FollowUpBulk(executionId);
+            for (BulkItemResponse item : response.getItems()) {
+                DocWriteRequest<?> docRequest = pollRequest(requestsById.get(item.getId()), item.getIndex());
+                if (docRequest == null) {
+                    logger.warn("named entity bulk {} has a response for unknown request {}", executionId, item.getId());
+                    continue;
+                }
+                if (item.isFailed()) {
+                    logger.error("named entity bulk {} failed for {} : {}", executionId, item.getId(), item.getFailureMessage());
+                }
+                done(docRequest, item, followUpBulk);
+            }
+            requestsById.values().forEach(requests -> requests.forEach(docRequest -> {
+                logger.error("named entity bulk {} failed for {} : no response", executionId, docRequest.id());
+                done(docRequest, null, followUpBulk);
+            }));
+            followUpBulk.send();
+        }
+
+        /**
+         * the bulk retries change the order of the item responses, so they are matched with the requests by index
+         * and id. Several requests can have the same id (entity stats of several documents): they are matched in order.
+         */
+        private DocWriteRequest<?> pollRequest(List<DocWriteRequest<?>> requests, String index) {
+            if (requests == null || requests.isEmpty()) {
+                return null;
+            }
+            Iterator<DocWriteRequest<?>> sameId = requests.iterator();
+            while (sameId.hasNext()) {
+                DocWriteRequest<?> docRequest = sameId.next();
+                if (docRequest.index().equals(index)) {
+                    sameId.remove();
+                    return docRequest;
+                }
+            }
+            return requests.remove(0);
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            logger.error("named entity bulk {} with {} requests failed", executionId, request.numberOfActions(), failure);
+            request.requests().forEach(docRequest -> done(docRequest, null, null));
+        }
+
+        /**
+         * @param item the response of the request, null if it has no response
+         */
+        private void done(DocWriteRequest<?> request, BulkItemResponse item, FollowUpBulk followUpBulk) {
+            DocumentWrite write = pendingRequests.remove(request);
+            if (write == null) {
+                return;
+            }
+            boolean success = item != null && !item.isFailed();
+            if (write.followUp != null && request == write.firstRequest) {
+                List<DocWriteRequest<?>> followUpRequests = success ? write.followUp.apply(item) : emptyList();
+                if (success && !followUpRequests.isEmpty()) {
+                    followUpBulk.add(write, followUpRequests);
+                } else {
+                    write.done(success);
+                }
+            }
+            write.done(success);
+        }
+    }
+
+    /**
+     * the follow-up requests of the documents of one processor bulk. They are sent directly with the client
+     * and their writes are done with the result of all their requests.
+     */
+    private class FollowUpBulk {
+        private final long executionId;
+        private final BulkRequest bulkRequest = new BulkRequest();
+        private final List<DocumentWrite> writes = new ArrayList<>();
+        private final List<Integer> sizes = new ArrayList<>();
+
+        FollowUpBulk(long executionId) {
+            this.executionId = executionId;
+        }
+
+        void add(DocumentWrite write, List<DocWriteRequest<?>> requests) {
+            writes.add(write);
+            sizes.add(requests.size());
+            requests.forEach(bulkRequest::add);
+        }
+
+        void send() {
+            if (writes.isEmpty()) {
+                return;
+            }
+            CompressedBulk.bulkAsync(client, bulkRequest.setRefreshPolicy(esCfg.refreshPolicy), esCfg.bulkCompression, new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(BulkResponse response) {
+                    BulkItemResponse[] items = response.getItems();
+                    int position = 0;
+                    for (int i = 0; i < writes.size(); i++) {
+                        boolean success = true;
+                        for (int j = 0; j < sizes.get(i); j++, position++) {
+                            if (items[position].isFailed()) {
+                                logger.error("named entity follow-up bulk of {} failed for {} : {}", executionId,
+                                        items[position].getId(), items[position].getFailureMessage());
+                                success = false;
+                            }
+                        }
+                        writes.get(i).done(success);
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    logger.error("named entity follow-up bulk of {} with {} requests failed", executionId, bulkRequest.numberOfActions(), e);
+                    writes.forEach(write -> write.done(false));
+                }
+            });
+        }
+    }
+
+    private static class DocumentWrite {
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        final DocWriteRequest<?> firstRequest;
+        final Function<BulkItemResponse, List<DocWriteRequest<?>>> followUp;
+        final AtomicInteger remaining;
+        volatile boolean failed = false;
+
+        /**
+         * with a follow-up, one more step is counted: the follow-up requests, done when they are acknowledged
+         * or when the first request has none
+         */
+        DocumentWrite(List<DocWriteRequest<?>> requests, Function<BulkItemResponse, List<DocWriteRequest<?>>> followUp) {
+            this.firstRequest = requests.isEmpty() ? null : requests.get(0);
+            this.followUp = firstRequest == null ? null : followUp;
+            this.remaining = new AtomicInteger(requests.size() + (this.followUp == null ? 0 : 1));
+        }
+
+        void done(boolean success) {
+            if (!success) {
+                failed = true;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                future.complete(!failed);
+            }
+        }
+    }
+}
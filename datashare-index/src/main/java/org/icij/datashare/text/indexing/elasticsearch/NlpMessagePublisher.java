@@ -0,0 +1,162 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.com.Message;
+import org.icij.datashare.com.Publisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.lang.System.currentTimeMillis;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.icij.datashare.com.Channel.NLP;
+import static org.icij.datashare.com.Message.Field.*;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+
+/**
+ * Publishes EXTRACT_NLP messages for indexed documents.
+ *
+ * Each thread buffers its own messages, so publishing threads don't wait on each other.
+ * A buffer is sent as one multi-document message when it holds nlpMessageBatchSize documents
+ * or when its oldest document is older than nlpMessageFlushIntervalMillis: the buffers are checked
+ * by a daemon thread every nlpMessageFlushIntervalMillis, so a document waits at most twice
+ * this interval even if its thread doesn't publish anymore. In a multi-document
+ * message, DOC_ID and R_ID fields are comma separated lists of the same size (see {@link #split(Message)}).
+ *
+ * With the default batch size of 1, one message is sent per document.
+ *
+ * The publisher must be closed when it isn't used anymore, to publish the last buffers and stop the daemon thread.
+ *
+ * The publisher must be thread safe (RedisDataBus takes a connection from its pool for each publication).
+ */
+public class NlpMessagePublisher implements AutoCloseable {
+    public static final String NLP_MESSAGE_BATCH_SIZE_PROP = "nlpMessageBatchSize";
+    public static final String NLP_MESSAGE_FLUSH_INTERVAL_PROP = "nlpMessageFlushIntervalMillis";
+    static final String ID_SEPARATOR = ",";
+
+    private final Publisher publisher;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final Queue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Buffer> threadBuffer = ThreadLocal.withInitial(this::createBuffer);
+    private final ScheduledExecutorService scheduler;
+
+    public NlpMessagePublisher(Publisher publisher, PropertiesProvider propertiesProvider) {
+        this.publisher = publisher;
+        this.batchSize = propertiesProvider.get(NLP_MESSAGE_BATCH_SIZE_PROP).map(Integer::parseInt).orElse(1);
+        this.flushIntervalMillis = propertiesProvider.get(NLP_MESSAGE_FLUSH_INTERVAL_PROP).map(Long::parseLong).orElse(1000L);
+        if (batchSize > 1) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("nlp-message-flush-%d").setDaemon(true).build());
+            scheduler.scheduleWithFixedDelay(this::flushExpired, flushIntervalMillis, flushIntervalMillis, MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    public void publish(String indexName, String docId, String rootId) {
+        if (batchSize <= 1) {
+            publisher.publish(NLP, new Message(EXTRACT_NLP)
+                    .add(INDEX_NAME, indexName)
+                    .add(DOC_ID, docId)
+                    .add(R_ID, rootId));
+            return;
+        }
+        threadBuffer.get().add(indexName, docId, rootId);
+    }
+
+    /**
+     * publishes the messages buffered by all threads
+     */
+    public void flush() {
+        buffers.forEach(Buffer::flush);
+    }
+
+    /**
+     * stops the daemon thread and publishes the messages buffered by all threads
+     */
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        flush();
+    }
+
+    private void flushExpired() {
+        long now = currentTimeMillis();
+        buffers.forEach(buffer -> buffer.flushIfOlderThan(now - flushIntervalMillis));
+    }
+
+    /**
+     * @return the single document messages contained in a (possibly multi-document) EXTRACT_NLP message
+     */
+    public static List<Message> split(Message message) {
+        String docIds = message.content.get(DOC_ID);
+        if (message.type != EXTRACT_NLP || docIds == null || !docIds.contains(ID_SEPARATOR)) {
+            return singletonList(message);
+        }
+        String[] ids = docIds.split(ID_SEPARATOR);
+        String[] rootIds = message.content.get(R_ID).split(ID_SEPARATOR);
+        List<Message> messages = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            messages.add(new Message(EXTRACT_NLP)
+                    .add(INDEX_NAME, message.content.get(INDEX_NAME))
+                    .add(DOC_ID, ids[i])
+                    .add(R_ID, rootIds[i]));
+        }
+        return messages;
+    }
+
+    private Buffer createBuffer() {
+        Buffer buffer = new Buffer();
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    private class Buffer {
+        private final List<String> docIds = new ArrayList<>();
+        private final List<String> rootIds = new ArrayList<>();
+        private String indexName;
+        private long firstAddTime;
+
+        synchronized void add(String indexName, String docId, String rootId) {
+            if (this.indexName != null && !this.indexName.equals(indexName)) {
+                flush();
+            }
+            if (docIds.isEmpty()) {
+                firstAddTime = currentTimeMillis();
+            }
+            this.indexName = indexName;
+            docIds.add(docId);
+            rootIds.add(rootId);
+            if (docIds.size() >= batchSize || currentTimeMillis() - firstAddTime >= flushIntervalMillis) {
+                flush();
+            }
+        }
+
+        synchronized void flushIfOlderThan(long time) {
+            if (!docIds.isEmpty() && firstAddTime <= time) {
+                flush();
+            }
+        }
+
+        synchronized void flush() {
+            if (docIds.isEmpty()) {
+                return;
+            }
+            publisher.publish(NLP, new Message(EXTRACT_NLP)
+                    .add(INDEX_NAME, indexName)
+                    .add(DOC_ID, String.join(ID_SEPARATOR, docIds))
+                    .add(R_ID, String.join(ID_SEPARATOR, rootIds)));
+            docIds.clear();
+            rootIds.clear();
+        }
+    }
+}
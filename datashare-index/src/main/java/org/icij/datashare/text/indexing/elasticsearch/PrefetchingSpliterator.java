@@ -0,0 +1,98 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.ElasticsearchException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+import static java.util.Collections.emptyIterator;
+
+/**
+ * Spliterator over the pages of one or several sources (i.e. slices). The next page of a source is requested
+ * as soon as the current one is returned, so that it is fetched while the current page is consumed.
+ *
+ * A source is read until it returns an empty page. When there are several sources, trySplit hands
+ * half of the sources that are not started yet to another spliterator, so that parallel streams read
+ * the sources concurrently.
+ */
+class PrefetchingSpliterator<T> implements Spliterator<T> {
+    private final List<PageSource<T>> sources;
+    private Iterator<T> page = emptyIterator();
+    private CompletableFuture<List<T>> nextPage;
+
+    PrefetchingSpliterator(List<? extends PageSource<T>> sources) {
+        this.sources = new ArrayList<>(sources);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (!page.hasNext()) {
+            if (sources.isEmpty()) {
+                return false;
+            }
+            if (nextPage == null) {
+                nextPage = sources.get(0).next();
+            }
+            List<T> items = join(nextPage);
+            if (items.isEmpty()) {
+                nextPage = null;
+                sources.remove(0);
+            } else {
+                nextPage = sources.get(0).next();
+                page = items.iterator();
+            }
+        }
+        action.accept(page.next());
+        return true;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        int notStarted = nextPage == null && !page.hasNext() ? sources.size() : sources.size() - 1;
+        if (notStarted < 2) {
+            return null;
+        }
+        List<PageSource<T>> tail = sources.subList(sources.size() - notStarted / 2, sources.size());
+        PrefetchingSpliterator<T> split = new PrefetchingSpliterator<>(tail);
+        tail.clear();
+        return split;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    private static <T> List<T> join(CompletableFuture<List<T>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException((IOException) e.getCause());
+            }
+            if (e.getCause() instanceof ElasticsearchException) {
+                throw (ElasticsearchException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    interface PageSource<T> {
+        /**
+         * @return the next page, empty when the source is exhausted
+         */
+        CompletableFuture<List<T>> next();
+    }
+}
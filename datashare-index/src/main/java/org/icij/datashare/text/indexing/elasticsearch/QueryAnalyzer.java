@@ -0,0 +1,129 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.icij.datashare.PropertiesProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.apache.lucene.search.BooleanClause.Occur.SHOULD;
+
+/**
+ * Rewrites the user queries into elasticsearch query strings with their fuzziness and phrase matches
+ * (see {@link ElasticsearchIndexer.ElasticsearchSearcher#with(String, int, boolean)}).
+ *
+ * The queries are parsed with lucene to detect their operators. As parsing is costly, the query strings are
+ * cached (queryCacheSize entries) and can be prepared in parallel before running a batch of queries.
+ * The analyzer is shared and a parser is created for each query, so this class is thread safe.
+ */
+@Singleton
+public class QueryAnalyzer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryAnalyzer.class);
+    public static final String QUERY_CACHE_SIZE_PROP = "queryCacheSize";
+    static final int DEFAULT_QUERY_CACHE_SIZE = 10000;
+    private static final Analyzer ANALYZER = new StandardAnalyzer(new CharArraySet(0, false));
+
+    private final LoadingCache<Key, String> queryStrings;
+
+    @Inject
+    public QueryAnalyzer(PropertiesProvider propertiesProvider) {
+        queryStrings = CacheBuilder.newBuilder()
+                .maximumSize(propertiesProvider.get(QUERY_CACHE_SIZE_PROP).map(Integer::parseInt).orElse(DEFAULT_QUERY_CACHE_SIZE))
+                .build(CacheLoader.from(QueryAnalyzer::rewrite));
+    }
+
+    /**
+     * @return the query string with fuzziness and phrase matches applied. They are not applied if the query
+     * has lucene operators or cannot be parsed.
+     */
+    public String queryString(String query, int fuzziness, boolean phraseMatches) {
+        return queryStrings.getUnchecked(new Key(query, fuzziness, phraseMatches));
+    }
+
+    /**
+     * computes the query strings of the queries with the common fork join pool, so that they are
+     * in the cache when the queries are sent.
+     */
+    public void prepare(Collection<String> queries, int fuzziness, boolean phraseMatches) {
+        queries.parallelStream().forEach(query -> queryString(query, fuzziness, phraseMatches));
+    }
+
+    long size() {
+        return queryStrings.size();
+    }
+
+    private static String rewrite(Key key) {
+        try {
+            if (!hasLuceneOperators(key.query)) {
+                if (key.phraseMatches) {
+                    return "\"" + key.query + "\"" + (key.fuzziness == 0 ? "": "~" + key.fuzziness);
+                } else if (key.fuzziness > 0) {
+                    return Stream.of(key.query.split(" ")).map(s -> s + "~" + key.fuzziness).collect(Collectors.joining(" "));
+                }
+            } else if (key.fuzziness != 0 || key.phraseMatches) {
+                LOGGER.info("detected lucene operators in \"{}\", fuzziness and phrase match won't be applied", key.query);
+            }
+        } catch (ParseException e) {
+            LOGGER.warn("cannot parse query. Sending query as string query", e);
+        }
+        return key.query;
+    }
+
+    static boolean hasLuceneOperators(String query) throws ParseException {
+        String sanitizedQueryForLucene = query.replaceAll("\\^(?!\\d)", "\\^1");
+        QueryParser parser = new QueryParser("", ANALYZER);
+        parser.setAllowLeadingWildcard(true);
+
+        return hasOperator(parser.parse(sanitizedQueryForLucene));
+    }
+
+    private static boolean hasOperator(Query q) {
+        if (q instanceof TermQuery) {
+            return ! "".equals(((TermQuery)q).getTerm().field());
+        } else if (!(q instanceof BooleanQuery)) {
+            return true;
+        }
+        return ((BooleanQuery)q).clauses().stream().anyMatch(b -> b.getOccur() != SHOULD || hasOperator(b.getQuery()));
+    }
+
+    private static class Key {
+        final String query;
+        final int fuzziness;
+        final boolean phraseMatches;
+
+        Key(String query, int fuzziness, boolean phraseMatches) {
+            this.query = query;
+            this.fuzziness = fuzziness;
+            this.phraseMatches = phraseMatches;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return fuzziness == key.fuzziness && phraseMatches == key.phraseMatches && query.equals(key.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, fuzziness, phraseMatches);
+        }
+    }
+}
@@ -1,7 +1,21 @@
 package org.icij.datashare.text.indexing.elasticsearch;
 
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.extractor.ParsingEmbeddedDocumentExtractor;
+import org.apache.tika.io.CloseShieldInputStream;
+import org.apache.tika.io.TemporaryResources;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.DigestingParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
 import org.apache.tika.parser.utils.CommonsDigester;
+import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.text.Hasher;
 import org.icij.datashare.text.Project;
@@ -10,45 +24,342 @@ import org.icij.extract.extractor.EmbeddedDocumentMemoryExtractor;
 import org.icij.extract.extractor.UpdatableDigester;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Optional.ofNullable;
+import static java.util.stream.Collectors.toCollection;
 import static org.icij.datashare.text.Hasher.SHA_384;
 
+/**
+ * Reads the sources of the documents. The embedded documents are extracted from their root document and
+ * kept in the {@link EmbeddedSourceCache}. The siblings of the embedded document (the other documents embedded in
+ * the same parent) that are found while parsing the root document are cached too, as they are likely to be opened next.
+ *
+ * The embedded documents larger than sourceSpillThresholdMb (or with an unknown length) are extracted into a temporary
+ * file instead of memory. The file is deleted when the returned stream is closed. The files left by a previous run
+ * (whose streams have never been closed) are deleted at startup.
+ */
+@Singleton
 public class SourceExtractor {
     Logger LOGGER = LoggerFactory.getLogger(SourceExtractor.class);
+    public static final String SOURCE_SPILL_THRESHOLD_MB_PROP = "sourceSpillThresholdMb";
+    static final int DEFAULT_SOURCE_SPILL_THRESHOLD_MB = 16;
+    private static final String DIGEST_METADATA_PREFIX = TikaCoreProperties.TIKA_META_PREFIX + "digest";
+    static final String SPILL_PREFIX = "datashare-source-";
+    static final String SPILL_SUFFIX = ".tmp";
+    private final EmbeddedSourceCache cache;
+    private final long spillThresholdBytes;
+    private final Path spillDir;
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final AtomicLong peakMemoryBytes = new AtomicLong();
+    private final AtomicLong spilledBytes = new AtomicLong();
+    private final LongAdder spills = new LongAdder();
+
+    public SourceExtractor() {
+        this(new EmbeddedSourceCache(null, 0));
+    }
+
+    public SourceExtractor(EmbeddedSourceCache cache) {
+        this(cache, DEFAULT_SOURCE_SPILL_THRESHOLD_MB * 1024L * 1024L);
+    }
+
+    @Inject
+    public SourceExtractor(PropertiesProvider propertiesProvider, EmbeddedSourceCache cache) {
+        this(cache, propertiesProvider.get(SOURCE_SPILL_THRESHOLD_MB_PROP).map(Integer::parseInt)
+                .orElse(DEFAULT_SOURCE_SPILL_THRESHOLD_MB) * 1024L * 1024L);
+        deleteSpilledSources(spillDir, ManagementFactory.getRuntimeMXBean().getStartTime());
+    }
+
+    SourceExtractor(EmbeddedSourceCache cache, long spillThresholdBytes) {
+        this(cache, spillThresholdBytes, Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    SourceExtractor(EmbeddedSourceCache cache, long spillThresholdBytes, Path spillDir) {
+        this.cache = cache;
+        this.spillThresholdBytes = spillThresholdBytes;
+        this.spillDir = spillDir;
+    }
 
     public InputStream getSource(final Document document) throws FileNotFoundException {
         return getSource(document.getProject(), document);
     }
 
     public InputStream getSource(final Project project, final Document document) throws FileNotFoundException {
+        return getSource(project, document, Collections::emptyList);
+    }
+
+    /**
+     * @param siblingIds the ids of the documents embedded in the same parent document, only read if the embedded
+     *                   document is extracted. Their sources are cached if they are found while extracting it.
+     */
+    public InputStream getSource(final Project project, final Document document, Supplier<Collection<String>> siblingIds) throws FileNotFoundException {
         if (document.isRootDocument()) {
             return new FileInputStream(document.getPath().toFile());
         } else {
+            InputStream cached = getCached(document.getId());
+            if (cached != null) {
+                return cached;
+            }
             LOGGER.info("extracting embedded document " + Identifier.shorten(document.getId(), 4) + " from root document " + document.getPath());
-            TikaDocumentSource source;
-            EmbeddedDocumentMemoryExtractor embeddedExtractor;
-            DigestIdentifier identifier;
-            if (document.getId().length() == SHA_384.digestLength) {
-                embeddedExtractor = new EmbeddedDocumentMemoryExtractor(new UpdatableDigester(project.getId(), SHA_384.toString()));
-                identifier = new DigestIdentifier(SHA_384.toString(), Charset.defaultCharset());
-            } else {
-                // backward compatibility
-                Hasher hasher = Hasher.valueOf(document.getId().length());
-                embeddedExtractor = new EmbeddedDocumentMemoryExtractor(
-                        new CommonsDigester(20 * 1024 * 1024, hasher.toString().replace("-", "")), hasher.toString(), false);
-                identifier = new DigestIdentifier(hasher.toString(), Charset.defaultCharset());
-            }
-            TikaDocument rootDocument = new DocumentFactory().withIdentifier(identifier).create(document.getPath());
+            Set<String> uncachedSiblingIds = !cache.isEnabled() ? new HashSet<>() : siblingIds.get().stream()
+                    .filter(id -> !id.equals(document.getId()) && !cache.contains(id)).collect(toCollection(HashSet::new));
+            int nbSiblings = uncachedSiblingIds.size();
+            // backward compatibility for the other hashers
+            Hasher hasher = document.getId().length() == SHA_384.digestLength ? SHA_384 : Hasher.valueOf(document.getId().length());
+            DigestingParser.Digester digester = digester(project, hasher, uncachedSiblingIds);
+            InputStream source;
             try {
-                source = embeddedExtractor.extract(rootDocument, document.getId());
-                return new ByteArrayInputStream(source.content);
+                long length = ofNullable(document.getContentLength()).orElse(-1L);
+                source = length < 0 || length > spillThresholdBytes ?
+                        extractToFile(document, digester, uncachedSiblingIds) :
+                        extractToMemory(document, hasher, digester);
+            } catch (FileNotFoundException e) {
+                throw e;
             } catch (SAXException | TikaException | IOException e) {
                 throw new ExtractException("extract error for embedded document " + document.getId(), e);
             }
+            if (nbSiblings > 0) {
+                LOGGER.info("cached {}/{} siblings of embedded document {}", nbSiblings - uncachedSiblingIds.size(), nbSiblings,
+                        Identifier.shorten(document.getId(), 4));
+            }
+            return source;
+        }
+    }
+
+    /**
+     * @return the number of bytes of the extracted sources that are held in memory until their stream is closed
+     */
+    public long getMemoryBytes() {
+        return memoryBytes.get();
+    }
+
+    public long getPeakMemoryBytes() {
+        return peakMemoryBytes.get();
+    }
+
+    /**
+     * @return the number of bytes of the extracted sources that are in temporary files until their stream is closed
+     */
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    /**
+     * @return the number of embedded documents extracted into temporary files
+     */
+    public long getSpills() {
+        return spills.sum();
+    }
+
+    private DigestingParser.Digester digester(Project project, Hasher hasher, Set<String> siblingIds) {
+        if (hasher == SHA_384) {
+            return new UpdatableDigester(project.getId(), SHA_384.toString()) {
+                @Override
+                public void digest(InputStream is, Metadata metadata, ParseContext parseContext) throws IOException {
+                    super.digest(is, metadata, parseContext);
+                    cacheSibling(is, metadata, siblingIds);
+                }
+            };
+        }
+        return new CommonsDigester(20 * 1024 * 1024, hasher.toString().replace("-", "")) {
+            @Override
+            public void digest(InputStream is, Metadata metadata, ParseContext parseContext) throws IOException {
+                super.digest(is, metadata, parseContext);
+                cacheSibling(is, metadata, siblingIds);
+            }
+        };
+    }
+
+    private InputStream extractToMemory(Document document, Hasher hasher, DigestingParser.Digester digester) throws IOException, SAXException, TikaException {
+        EmbeddedDocumentMemoryExtractor embeddedExtractor = hasher == SHA_384 ?
+                new EmbeddedDocumentMemoryExtractor((UpdatableDigester) digester) :
+                new EmbeddedDocumentMemoryExtractor(digester, hasher.toString(), false);
+        DigestIdentifier identifier = new DigestIdentifier(hasher.toString(), Charset.defaultCharset());
+        TikaDocument rootDocument = new DocumentFactory().withIdentifier(identifier).create(document.getPath());
+        TikaDocumentSource source = embeddedExtractor.extract(rootDocument, document.getId());
+        if (source == null) {
+            throw new FileNotFoundException("embedded document " + document.getId() + " not found in " + document.getPath());
+        }
+        cache(document.getId(), source.content);
+        InputStream cached = getCached(document.getId());
+        return cached == null ? new MemorySource(source.content) : cached;
+    }
+
+    /**
+     * parses the root document to copy the embedded document into a temporary file, without reading it in memory.
+     * The parsing stops going through the embedded documents once it is found with all the siblings to cache.
+     */
+    private InputStream extractToFile(Document document, DigestingParser.Digester digester, Set<String> siblingIds) throws IOException, SAXException, TikaException {
+        Path file = Files.createTempFile(spillDir, SPILL_PREFIX, SPILL_SUFFIX);
+        AtomicBoolean found = new AtomicBoolean();
+        Parser parser = new AutoDetectParser();
+        ParseContext context = new ParseContext();
+        context.set(Parser.class, parser);
+        context.set(EmbeddedDocumentExtractor.class, new ParsingEmbeddedDocumentExtractor(context) {
+            @Override
+            public void parseEmbedded(InputStream stream, ContentHandler handler, Metadata metadata, boolean outputHtml) throws SAXException, IOException {
+                if (found.get() && siblingIds.isEmpty()) {
+                    return;
+                }
+                TemporaryResources tmp = new TemporaryResources();
+                try {
+                    TikaInputStream tis = TikaInputStream.get(new CloseShieldInputStream(stream), tmp);
+                    digester.digest(tis, metadata, context);
+                    if (digests(metadata).anyMatch(document.getId()::equals)) {
+                        Files.copy(tis.getPath(), file, REPLACE_EXISTING);
+                        found.set(true);
+                    } else {
+                        super.parseEmbedded(tis, handler, metadata, outputHtml);
+                    }
+                } finally {
+                    tmp.close();
+                }
+            }
+        });
+        try (InputStream root = TikaInputStream.get(document.getPath())) {
+            parser.parse(root, new DefaultHandler(), new Metadata(), context);
+        } catch (IOException | SAXException | TikaException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        if (!found.get()) {
+            Files.deleteIfExists(file);
+            throw new FileNotFoundException("embedded document " + document.getId() + " not found in " + document.getPath());
+        }
+        spills.increment();
+        cache.put(document.getId(), file);
+        InputStream cached = getCached(document.getId());
+        if (cached != null) {
+            Files.delete(file);
+            return cached;
+        }
+        return new SpilledSource(file);
+    }
+
+    /**
+     * deletes the temporary files of the sources spilled to disk before the given time, that have not been deleted
+     * because their stream was never closed (the process has been killed...)
+     */
+    static void deleteSpilledSources(Path dir, long before) {
+        Logger logger = LoggerFactory.getLogger(SourceExtractor.class);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SPILL_PREFIX + "*" + SPILL_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < before) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (IOException e) {
+                    logger.warn("cannot delete spilled source {}", file, e);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("cannot list spilled sources in {}", dir, e);
+        }
+    }
+
+    private InputStream getCached(String id) {
+        try {
+            return cache.get(id);
+        } catch (IOException e) {
+            LOGGER.warn("cannot read cached source of {}", id, e);
+            return null;
+        }
+    }
+
+    private void cache(String id, byte[] content) {
+        try {
+            cache.put(id, content);
+        } catch (IOException e) {
+            LOGGER.warn("cannot cache source of {}", id, e);
+        }
+    }
+
+    private void cacheSibling(InputStream is, Metadata metadata, Set<String> siblingIds) {
+        if (siblingIds.isEmpty()) {
+            return;
+        }
+        digests(metadata).filter(siblingIds::contains).findFirst().ifPresent(id -> {
+            TikaInputStream tis = TikaInputStream.cast(is);
+            try {
+                if (tis != null) {
+                    cache.put(id, tis.getPath());
+                    siblingIds.remove(id);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("cannot cache source of sibling {}", id, e);
+            }
+        });
+    }
+
+    private static Stream<String> digests(Metadata metadata) {
+        return Stream.of(metadata.names()).filter(name -> name.startsWith(DIGEST_METADATA_PREFIX)).map(metadata::get);
+    }
+
+    /**
+     * source extracted in memory, counted in the memory bytes until it is closed
+     */
+    private class MemorySource extends ByteArrayInputStream {
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        MemorySource(byte[] content) {
+            super(content);
+            peakMemoryBytes.accumulateAndGet(memoryBytes.addAndGet(content.length), Math::max);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                memoryBytes.addAndGet(-buf.length);
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * source extracted in a temporary file, deleted when it is closed
+     */
+    private class SpilledSource extends FileInputStream {
+        private final Path file;
+        private final long length;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        SpilledSource(Path file) throws IOException {
+            super(file.toFile());
+            this.file = file;
+            this.length = Files.size(file);
+            spilledBytes.addAndGet(length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (closed.compareAndSet(false, true)) {
+                    spilledBytes.addAndGet(-length);
+                    Files.deleteIfExists(file);
+                }
+            }
         }
     }
 }
@@ -0,0 +1,62 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.icij.datashare.json.JsonObjectMapper;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.icij.datashare.text.Document.Status.INDEXED;
+import static org.icij.datashare.text.Project.project;
+
+public class BenchEntityReader {
+    static Logger logger = LoggerFactory.getLogger(BenchEntityReader.class);
+
+    @Test
+    public void testReadLargeDocuments() throws Exception {
+        int nbReads = 200;
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 5 * 1024 * 1024) {
+            content.append("This is a large content with Gael Giraud and other named entities. ");
+        }
+        Document document = new Document("docId", project("prj"), Paths.get("doc.txt"), content.toString(),
+                Language.ENGLISH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 345L);
+        BytesReference source = EntityReaderTest.source(document, "Document");
+        EntityReader reader = new EntityReader("type");
+
+        for (int i = 0; i < 10; i++) {
+            readWithSourceMap(source);
+            reader.read("docId", source);
+        }
+        logger.info("reading {} documents of {} bytes", nbReads, source.length());
+
+        long beginTime = System.currentTimeMillis();
+        for (int i = 0; i < nbReads; i++) {
+            readWithSourceMap(source);
+        }
+        logger.info("source map + Class.forName: {}ms", System.currentTimeMillis() - beginTime);
+
+        beginTime = System.currentTimeMillis();
+        for (int i = 0; i < nbReads; i++) {
+            reader.read("docId", source);
+        }
+        logger.info("entity reader: {}ms", System.currentTimeMillis() - beginTime);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Document readWithSourceMap(BytesReference source) throws Exception {
+        Map<String, Object> sourceAsMap = XContentHelper.convertToMap(source, false, XContentType.JSON).v2();
+        Class<Document> cls = (Class<Document>) Class.forName("org.icij.datashare.text." + sourceAsMap.get("type"));
+        return JsonObjectMapper.getObject("docId", sourceAsMap, cls);
+    }
+}
@@ -1,12 +1,27 @@
 package org.icij.datashare.text.indexing.elasticsearch;
 
+import org.apache.http.HttpHost;
 import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.test.ElasticsearchRule;
+import org.junit.After;
 import org.junit.ClassRule;
 import org.junit.Test;
 
+import java.util.HashMap;
+
+import static org.elasticsearch.action.support.WriteRequest.RefreshPolicy.IMMEDIATE;
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.icij.datashare.test.ElasticsearchRule.TEST_INDEX;
 
@@ -31,4 +46,66 @@ public class ElasticsearchConfigurationTest {
 
         assertThat(EntityUtils.toString(response.getEntity())).contains("settings");
     }
+
+    @Test
+    public void test_create_client_with_several_hosts() throws Exception {
+        try (RestHighLevelClient client = ElasticsearchConfiguration.createESClient(new PropertiesProvider(new HashMap<String, String>() {{
+            put("elasticsearchAddress", "http://elasticsearch:9200, http://elasticsearch:9200");
+            put("elasticsearchMaxConnPerRoute", "4");
+        }}))) {
+            BulkResponse response = client.bulk(new BulkRequest().add(new IndexRequest(TEST_INDEX, "doc", "several_hosts")
+                    .source(jsonBuilder().startObject().field("type", "Document").endObject())).setRefreshPolicy(IMMEDIATE), RequestOptions.DEFAULT);
+
+            assertThat(response.hasFailures()).isFalse();
+            assertThat(client.getLowLevelClient().getNodes()).hasSize(2);
+            assertThat(client.get(new GetRequest(TEST_INDEX, "doc", "several_hosts"), RequestOptions.DEFAULT).isExists()).isTrue();
+        }
+    }
+
+    @Test
+    public void test_bulk_compression_is_disabled_by_default() {
+        assertThat(new ElasticsearchConfiguration(new PropertiesProvider()).bulkCompression).isFalse();
+    }
+
+    @Test
+    public void test_create_client_with_sniffing() throws Exception {
+        try (RestHighLevelClient client = ElasticsearchConfiguration.createESClient(new PropertiesProvider(new HashMap<String, String>() {{
+            put("elasticsearchAddress", "http://elasticsearch:9200");
+            put("elasticsearchSniff", "true");
+        }}))) {
+            assertThat(client.ping(RequestOptions.DEFAULT)).isTrue();
+        }
+    }
+
+    @Test
+    public void test_hosts() {
+        assertThat(ElasticsearchConfiguration.hosts("http://es1:9200")).containsOnly(HttpHost.create("http://es1:9200"));
+        assertThat(ElasticsearchConfiguration.hosts("http://es1:9200, https://es2:9201,")).containsOnly(
+                HttpHost.create("http://es1:9200"), HttpHost.create("https://es2:9201"));
+    }
+
+    @Test
+    public void test_create_index_with_layout_properties() throws Exception {
+        ElasticsearchConfiguration.createIndex(es.client, "test-layout", new PropertiesProvider(new HashMap<String, String>() {{
+            put("indexShards", "2");
+            put("indexReplicas", "0");
+            put("indexCodec", "best_compression");
+            put("test-layout.indexRefreshInterval", "30s");
+            put("other-project.indexShards", "3");
+        }}));
+
+        GetSettingsResponse settings = es.client.indices().getSettings(new GetSettingsRequest().indices("test-layout"), RequestOptions.DEFAULT);
+        assertThat(settings.getSetting("test-layout", "index.number_of_shards")).isEqualTo("2");
+        assertThat(settings.getSetting("test-layout", "index.number_of_replicas")).isEqualTo("0");
+        assertThat(settings.getSetting("test-layout", "index.codec")).isEqualTo("best_compression");
+        assertThat(settings.getSetting("test-layout", "index.refresh_interval")).isEqualTo("30s");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        es.delete("test-layout");
+        Request deleteTemplate = new Request("DELETE", "/_template/datashare-test-layout");
+        deleteTemplate.addParameter("ignore", "404");
+        es.client.getLowLevelClient().performRequest(deleteTemplate);
+    }
 }
@@ -1,9 +1,17 @@
 package org.icij.datashare.text.indexing.elasticsearch;
 
+import com.google.common.io.ByteStreams;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.script.ScriptType;
 import org.icij.datashare.Entity;
@@ -18,13 +26,21 @@ import org.junit.After;
 import org.junit.ClassRule;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
@@ -40,7 +56,6 @@ import static org.icij.datashare.text.NamedEntity.Category.PERSON;
 import static org.icij.datashare.text.NamedEntity.create;
 import static org.icij.datashare.text.Project.project;
 import static org.icij.datashare.text.Tag.tag;
-import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer.hasLuceneOperators;
 import static org.icij.datashare.text.nlp.Pipeline.Type.*;
 
 public class ElasticsearchIndexerTest {
@@ -75,6 +90,39 @@ public class ElasticsearchIndexerTest {
         assertThat((NamedEntity) indexer.get(TEST_INDEX, ne2.getId(), doc.getId())).isNotNull();
     }
 
+    @Test
+    public void test_bulk_add_and_update_with_compression() throws IOException {
+        ElasticsearchIndexer compressionIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("bulkCompression", "true");
+        }})).withRefresh(IMMEDIATE);
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        compressionIndexer.add(TEST_INDEX, doc);
+        NamedEntity ne1 = create(PERSON, "John Doe", 12, "doc.txt", CORENLP, Language.FRENCH);
+        NamedEntity ne2 = create(ORGANIZATION, "AAA", 123, "doc.txt", CORENLP, Language.FRENCH);
+
+        assertThat(compressionIndexer.bulkAdd(TEST_INDEX, CORENLP, asList(ne1, ne2), doc)).isTrue();
+        ne1.hide();
+        assertThat(compressionIndexer.bulkUpdate(TEST_INDEX, singletonList(ne1))).isTrue();
+
+        assertThat(((Document) indexer.get(TEST_INDEX, doc.getId())).getStatus()).isEqualTo(Document.Status.DONE);
+        assertThat(((NamedEntity) indexer.get(TEST_INDEX, ne1.getId(), doc.getId())).isHidden()).isTrue();
+        assertThat(((NamedEntity) indexer.get(TEST_INDEX, ne2.getId(), doc.getId())).isHidden()).isFalse();
+    }
+
+    @Test
+    public void test_compressed_bulk_request_is_gzip_encoded() throws IOException {
+        Request request = CompressedBulk.request(new BulkRequest().add(new IndexRequest(TEST_INDEX, "doc", "id").source("{\"type\":\"Document\"}", XContentType.JSON)));
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        request.getEntity().writeTo(compressed);
+
+        assertThat(request.getEndpoint()).isEqualTo("/_bulk");
+        assertThat(request.getEntity().getContentEncoding().getValue()).isEqualTo("gzip");
+        assertThat(new String(ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))), UTF_8)).isEqualTo(
+                "{\"index\":{\"_index\":\"test-datashare\",\"_type\":\"doc\",\"_id\":\"id\"}}\n{\"type\":\"Document\"}\n");
+    }
+
     @Test
     public void test_bulk_add_should_add_ner_pipeline_once_and_for_empty_list() throws IOException {
         Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
@@ -112,6 +160,168 @@ public class ElasticsearchIndexerTest {
         assertThat(actual.getRootDocument()).isEqualTo(doc.getRootDocument());
     }
 
+    @Test
+    public void test_multi_get() throws IOException {
+        Document parent = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("mail.eml"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "message/rfc822", new HashMap<>(), INDEXED, new HashSet<>(), 321L);
+        Document child = new Document(project("prj"), "childId", Paths.get("mail.eml"), "mail body",
+                            FRENCH, Charset.defaultCharset(),
+                            "text/plain", new HashMap<>(), Document.Status.INDEXED,
+                            new HashSet<>(), new Date(), "id", "id",
+                (short) 1, 123L);
+        indexer.add(TEST_INDEX, parent);
+        indexer.add(TEST_INDEX, child);
+
+        List<Document> docs = indexer.get(TEST_INDEX, asList(new ElasticsearchIndexer.EntityRef("childId", "id"),
+                new ElasticsearchIndexer.EntityRef("unknown", "unknown"), new ElasticsearchIndexer.EntityRef("id", "id")));
+
+        assertThat(docs).hasSize(3);
+        assertThat(docs.get(0).getId()).isEqualTo("childId");
+        assertThat(docs.get(1)).isNull();
+        assertThat(docs.get(2).getId()).isEqualTo("id");
+    }
+
+    @Test
+    public void test_get_children_ids() throws IOException {
+        Document parent = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("mail.eml"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "message/rfc822", new HashMap<>(), INDEXED, new HashSet<>(), 321L);
+        indexer.add(TEST_INDEX, parent);
+        for (String childId : asList("child1", "child2", "child3")) {
+            indexer.add(TEST_INDEX, new Document(project("prj"), childId, Paths.get("mail.eml"), "attachment",
+                    FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), Document.Status.INDEXED,
+                    new HashSet<>(), new Date(), "id", "id", (short) 1, 123L));
+        }
+
+        assertThat(indexer.getChildrenIds(TEST_INDEX, "id", "id", 10)).containsOnly("child1", "child2", "child3");
+        assertThat(indexer.getChildrenIds(TEST_INDEX, "id", "id", 2)).hasSize(2);
+        assertThat(indexer.getChildrenIds(TEST_INDEX, "child1", "id", 10)).isEmpty();
+    }
+
+    @Test
+    public void test_multi_get_with_source_filter() throws IOException {
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "my content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 432L);
+        indexer.add(TEST_INDEX, doc);
+
+        List<Document> docs = indexer.get(TEST_INDEX, singletonList(new ElasticsearchIndexer.EntityRef("id", "id")),
+                null, new String[] {"content"});
+
+        assertThat(docs.get(0).getId()).isEqualTo("id");
+        assertThat(docs.get(0).getContentType()).isEqualTo("application/pdf");
+        assertThat(docs.get(0).getContent()).isEmpty();
+    }
+
+    @Test
+    public void test_bulk_add_batched() throws Exception {
+        Document doc1 = new org.icij.datashare.text.Document("id1", project("prj"), Paths.get("doc1.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 432L);
+        Document doc2 = new org.icij.datashare.text.Document("id2", project("prj"), Paths.get("doc2.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 432L);
+        indexer.add(TEST_INDEX, doc1);
+        indexer.add(TEST_INDEX, doc2);
+        NamedEntity ne1 = create(PERSON, "John Doe", 12, doc1.getId(), CORENLP, Language.FRENCH);
+        NamedEntity ne2 = create(PERSON, "Jane Doe", 12, doc2.getId(), CORENLP, Language.FRENCH);
+
+        CompletableFuture<Boolean> saved1 = indexer.bulkAddBatched(TEST_INDEX, CORENLP, singletonList(ne1), doc1);
+        CompletableFuture<Boolean> saved2 = indexer.bulkAddBatched(TEST_INDEX, CORENLP, singletonList(ne2), doc2);
+        indexer.flushBatched();
+
+        assertThat(saved1.get()).isTrue();
+        assertThat(saved2.get()).isTrue();
+        Document actual = indexer.get(TEST_INDEX, doc2.getId());
+        assertThat(actual.getStatus()).isEqualTo(Document.Status.DONE);
+        assertThat(actual.getNerTags()).containsOnly(CORENLP);
+        assertThat((NamedEntity) indexer.get(TEST_INDEX, ne1.getId(), doc1.getId())).isNotNull();
+    }
+
+    @Test
+    public void test_bulk_add_batched_for_unknown_document() throws Exception {
+        Document doc = new org.icij.datashare.text.Document("unknown", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 432L);
+
+        CompletableFuture<Boolean> saved = indexer.bulkAddBatched(TEST_INDEX, CORENLP, emptyList(), doc);
+        indexer.flushBatched();
+
+        assertThat(saved.get()).isFalse();
+    }
+
+    @Test
+    public void test_get_async() throws Exception {
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        indexer.add(TEST_INDEX, doc);
+
+        Document actual = indexer.<Document>getAsync(TEST_INDEX, doc.getId(), doc.getId()).get();
+
+        assertThat(actual.getId()).isEqualTo(doc.getId());
+        assertThat(indexer.getAsync(TEST_INDEX, "unknown", "unknown").get()).isNull();
+    }
+
+    @Test
+    public void test_multi_get_async() throws Exception {
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "my content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 432L);
+        indexer.add(TEST_INDEX, doc);
+
+        List<Document> docs = indexer.<Document>getAsync(TEST_INDEX, asList(new ElasticsearchIndexer.EntityRef("id", "id"),
+                new ElasticsearchIndexer.EntityRef("unknown", "unknown")), null, new String[] {"content"}).get();
+
+        assertThat(docs).hasSize(2);
+        assertThat(docs.get(0).getId()).isEqualTo("id");
+        assertThat(docs.get(0).getContent()).isEmpty();
+        assertThat(docs.get(1)).isNull();
+        assertThat(indexer.getAsync(TEST_INDEX, emptyList(), null, null).get()).isEmpty();
+    }
+
+    @Test
+    public void test_bulk_add_async() throws Exception {
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        indexer.add(TEST_INDEX, doc);
+        NamedEntity ne = create(PERSON, "John Doe", 12, "doc.txt", CORENLP, Language.FRENCH);
+
+        assertThat(indexer.bulkAddAsync(TEST_INDEX, CORENLP, singletonList(ne), doc).get()).isTrue();
+
+        assertThat(((Document) indexer.get(TEST_INDEX, doc.getId())).getStatus()).isEqualTo(Document.Status.DONE);
+        assertThat((NamedEntity) indexer.get(TEST_INDEX, ne.getId(), doc.getId())).isNotNull();
+    }
+
+    @Test
+    public void test_bulk_update_async() throws Exception {
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        indexer.add(TEST_INDEX, doc);
+        NamedEntity ne = create(PERSON, "John Doe", 12, doc.getId(), CORENLP, Language.FRENCH);
+        indexer.bulkAdd(TEST_INDEX, CORENLP, singletonList(ne), doc);
+        ne.hide();
+
+        assertThat(indexer.bulkUpdateAsync(TEST_INDEX, singletonList(ne)).get()).isTrue();
+
+        assertThat(((NamedEntity) indexer.get(TEST_INDEX, ne.getId(), doc.getId())).isHidden()).isTrue();
+    }
+
+    @Test
+    public void test_tag_untag_async() throws Exception {
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        indexer.add(TEST_INDEX, doc);
+
+        assertThat(indexer.tagAsync(project(TEST_INDEX), doc.getId(), doc.getId(), tag("foo")).get()).isTrue();
+        assertThat(indexer.untagAsync(project(TEST_INDEX), doc.getId(), doc.getId(), tag("foo")).get()).isTrue();
+        assertThat(indexer.untagAsync(project(TEST_INDEX), doc.getId(), doc.getId(), tag("foo")).get()).isFalse();
+    }
+
+    @Test
+    public void test_search_async() throws Exception {
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        indexer.add(TEST_INDEX, doc);
+
+        List<? extends Entity> lst = indexer.search(TEST_INDEX, Document.class).executeAsync().get().collect(toList());
+
+        assertThat(lst.size()).isEqualTo(1);
+    }
+
     @Test
     public void test_update_named_entity() throws IOException {
         Document parent = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content Madeline",
@@ -208,6 +418,42 @@ public class ElasticsearchIndexerTest {
         assertThat(((Document)indexer.get(TEST_INDEX, "id2")).getTags()).isEmpty();
     }
 
+    @Test
+    public void test_group_tag_documents_by_chunks_with_routing() throws Exception {
+        ElasticsearchIndexer chunkIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("groupTagChunkSize", "2");
+        }})).withRefresh(IMMEDIATE);
+        for (String id : asList("id1", "id2", "id3")) {
+            indexer.add(TEST_INDEX, new org.icij.datashare.text.Document(id, project("prj"), Paths.get(id + ".txt"), "content", Language.FRENCH,
+                    Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 123L));
+        }
+        es.client.index(new IndexRequest(TEST_INDEX, "doc", "child").routing("id1").setRefreshPolicy(IMMEDIATE)
+                .source("{\"type\": \"Document\"}", XContentType.JSON));
+        List<Double> progress = new ArrayList<>();
+
+        assertThat(chunkIndexer.groupTag(project(TEST_INDEX), asList("id1", "id2", "id3", "child", "unknown"), progress::add, tag("foo")).updated).isEqualTo(4);
+        assertThat(progress).containsExactly(0.4, 0.8, 1.0);
+        assertThat(((Document)indexer.get(TEST_INDEX, "id3")).getTags()).containsOnly(tag("foo"));
+        assertThat(es.client.get(new GetRequest(TEST_INDEX, "doc", "child").routing("id1")).getSourceAsMap().get("tags")).isEqualTo(singletonList("foo"));
+
+        assertThat(chunkIndexer.groupUntag(project(TEST_INDEX), asList("id1", "id2", "id3", "child"), rate -> {}, tag("foo"), tag("bar")).updated).isEqualTo(4);
+        assertThat(chunkIndexer.groupUntag(project(TEST_INDEX), asList("id1", "id2", "id3", "child"), rate -> {}, tag("foo")).updated).isEqualTo(0);
+    }
+
+    @Test
+    public void test_group_tag_returns_the_documents_that_could_not_be_updated() throws Exception {
+        indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id1", project("prj"), Paths.get("id1.txt"), "content", Language.FRENCH,
+                Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 123L));
+        es.client.index(new IndexRequest(TEST_INDEX, "doc", "broken").setRefreshPolicy(IMMEDIATE)
+                .source("{\"type\": \"Document\", \"tags\": \"not a list\"}", XContentType.JSON));
+
+        ElasticsearchIndexer.GroupTagResult result = indexer.groupTag(project(TEST_INDEX), asList("id1", "broken"), rate -> {}, tag("foo"));
+
+        assertThat(result.updated).isEqualTo(1);
+        assertThat(result.failedIds).containsOnly("broken");
+        assertThat(((Document)indexer.get(TEST_INDEX, "id1")).getTags()).containsOnly(tag("foo"));
+    }
+
     @Test
     public void test_search_with_field_value() throws Exception {
         indexer.add(TEST_INDEX, create(PERSON, "Joe Foo", 2, "docId", CORENLP, Language.FRENCH));
@@ -254,39 +500,6 @@ public class ElasticsearchIndexerTest {
         assertThat(actualDoc.getContent()).isEmpty();
     }
 
-    @Test
-    public void test_query_with_lucene_reserved_chars() throws Exception {
-        assertThat(hasLuceneOperators("a   b")).isFalse();
-        assertThat(hasLuceneOperators(" a b  ")).isFalse();
-        assertThat(hasLuceneOperators("a\\/b")).isFalse();
-        assertThat(hasLuceneOperators("a & b")).isFalse();
-        assertThat(hasLuceneOperators("a + b")).isFalse();
-        assertThat(hasLuceneOperators("a - b")).isFalse();
-        assertThat(hasLuceneOperators("a | b")).isFalse();
-        assertThat(hasLuceneOperators("a \\\"b c\\\"")).isFalse();
-        assertThat(hasLuceneOperators("a b, c. de f.g")).isFalse();
-        assertThat(hasLuceneOperators("a || b")).isFalse();
-        assertThat(hasLuceneOperators("a OR b")).isFalse();
-
-        assertThat(hasLuceneOperators("a /b/")).isTrue();
-        assertThat(hasLuceneOperators("f:a")).isTrue();
-        assertThat(hasLuceneOperators("a f:b")).isTrue();
-        assertThat(hasLuceneOperators("n:[1 TO 5]")).isTrue();
-        assertThat(hasLuceneOperators("n:>10")).isTrue();
-        assertThat(hasLuceneOperators("*a*")).isTrue();
-        assertThat(hasLuceneOperators("?a?")).isTrue();
-        assertThat(hasLuceneOperators("+a -b")).isTrue();
-        assertThat(hasLuceneOperators("a \"b c\"")).isTrue();
-        assertThat(hasLuceneOperators("a && b")).isTrue();
-        assertThat(hasLuceneOperators("\"a || b\"")).isTrue();
-        assertThat(hasLuceneOperators("a AND b")).isTrue();
-        assertThat(hasLuceneOperators("a NOT b")).isTrue();
-        assertThat(hasLuceneOperators("a^")).isTrue();
-        assertThat(hasLuceneOperators("a^2")).isTrue();
-        assertThat(hasLuceneOperators("a~")).isTrue();
-        assertThat(hasLuceneOperators("a~2")).isTrue();
-    }
-
     @Test
     public void test_search_source_false() throws IOException {
         Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc_with_parent.txt"), "content",
@@ -328,6 +541,193 @@ public class ElasticsearchIndexerTest {
         searcher.clearScroll();
     }
 
+    @Test
+    public void test_search_with_scroll_context() throws IOException {
+        for (int i = 0 ; i < 7; i++) {
+            indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id" + i, project("prj"), Paths.get(format("doc%d.txt", i)), format("content %d", i), Language.ENGLISH,
+                Charset.defaultCharset(), "text/plain", new HashMap<>(), DONE, new HashSet<>(), 345L));
+        }
+
+        Indexer.Searcher searcher = indexer.search(TEST_INDEX, Document.class).withCursor(false).limit(5);
+        assertThat(searcher.scroll().count()).isEqualTo(5);
+        assertThat(searcher.totalHits()).isEqualTo(7);
+        assertThat(searcher.scroll().count()).isEqualTo(2);
+        searcher.clearScroll();
+    }
+
+    @Test
+    public void test_search_with_cursor_is_resumable() throws IOException {
+        for (int i = 0 ; i < 7; i++) {
+            indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id" + i, project("prj"), Paths.get(format("doc%d.txt", i)), format("content %d", i), Language.ENGLISH,
+                Charset.defaultCharset(), "text/plain", new HashMap<>(), DONE, new HashSet<>(), 345L));
+        }
+        ElasticsearchIndexer.ElasticsearchSearcher searcher = indexer.search(TEST_INDEX, Document.class).withCursor(true).limit(4);
+        List<String> firstPage = searcher.scroll().map(Entity::getId).collect(toList());
+
+        List<String> secondPage = indexer.search(TEST_INDEX, Document.class).limit(4)
+                .after(searcher.getSearchAfter()).scroll().map(Entity::getId).collect(toList());
+
+        assertThat(firstPage).hasSize(4);
+        assertThat(secondPage).hasSize(3);
+        assertThat(new HashSet<String>() {{ addAll(firstPage); addAll(secondPage);}}).hasSize(7);
+    }
+
+    @Test
+    public void test_search_with_cursor_is_resumable_with_the_same_preference() throws IOException {
+        for (int i = 0 ; i < 7; i++) {
+            indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id" + i, project("prj"), Paths.get(format("doc%d.txt", i)), format("content %d", i), Language.ENGLISH,
+                Charset.defaultCharset(), "text/plain", new HashMap<>(), DONE, new HashSet<>(), 345L));
+        }
+        ElasticsearchIndexer.ElasticsearchSearcher searcher = indexer.search(TEST_INDEX, Document.class).withCursor(true).limit(4);
+        List<String> firstPage = searcher.scroll().map(Entity::getId).collect(toList());
+
+        ElasticsearchIndexer.ElasticsearchSearcher resumed = indexer.search(TEST_INDEX, Document.class).limit(4)
+                .withPreference(searcher.getPreference()).after(searcher.getSearchAfter());
+        List<String> secondPage = resumed.scroll().map(Entity::getId).collect(toList());
+
+        assertThat(searcher.getPreference()).isNotNull();
+        assertThat(indexer.search(TEST_INDEX, Document.class).getPreference()).isNotEqualTo(searcher.getPreference());
+        assertThat(resumed.getPreference()).isEqualTo(searcher.getPreference());
+        assertThat(new HashSet<String>() {{ addAll(firstPage); addAll(secondPage);}}).hasSize(7);
+    }
+
+    @Test
+    public void test_search_with_cursor_on_index_with_id_mapped_as_text() throws IOException {
+        String textIdIndex = TEST_INDEX + "-text-id";
+        Request createIndex = new Request("PUT", "/" + textIdIndex);
+        createIndex.setJsonEntity("{\"mappings\":{\"doc\":{\"properties\":{\"id\":{\"type\":\"text\"}}}}}");
+        es.client.getLowLevelClient().performRequest(createIndex);
+        try {
+            for (int i = 0 ; i < 7; i++) {
+                indexer.add(textIdIndex, new org.icij.datashare.text.Document("id" + i, project("prj"), Paths.get(format("doc%d.txt", i)), format("content %d", i), Language.ENGLISH,
+                    Charset.defaultCharset(), "text/plain", new HashMap<>(), DONE, new HashSet<>(), 345L));
+            }
+            ElasticsearchIndexer.ElasticsearchSearcher searcher = indexer.search(textIdIndex, Document.class).withCursor(true).limit(4);
+
+            List<String> firstPage = searcher.scroll().map(Entity::getId).collect(toList());
+            List<String> secondPage = searcher.scroll().map(Entity::getId).collect(toList());
+
+            assertThat(firstPage).hasSize(4);
+            assertThat(secondPage).hasSize(3);
+            assertThat(new HashSet<String>() {{ addAll(firstPage); addAll(secondPage);}}).hasSize(7);
+        } finally {
+            es.delete(textIdIndex);
+        }
+    }
+
+    @Test
+    public void test_search_with_sliced_cursor() throws IOException {
+        for (int i = 0 ; i < 7; i++) {
+            indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id" + i, project("prj"), Paths.get(format("doc%d.txt", i)), format("content %d", i), Language.ENGLISH,
+                Charset.defaultCharset(), "text/plain", new HashMap<>(), DONE, new HashSet<>(), 345L));
+        }
+
+        long count = 0;
+        for (int slice = 0; slice < 2; slice++) {
+            Indexer.Searcher searcher = indexer.search(TEST_INDEX, Document.class).withCursor(true).limit(5);
+            long pageCount;
+            do {
+                pageCount = searcher.scroll(slice, 2).count();
+                count += pageCount;
+            } while (pageCount > 0);
+        }
+
+        assertThat(count).isEqualTo(7);
+    }
+
+    @Test
+    public void test_search_with_sliced_cursor_over_indices_with_different_shards() throws IOException {
+        String otherIndex = TEST_INDEX + "-sliced";
+        ElasticsearchConfiguration.createIndex(es.client, otherIndex, new PropertiesProvider(new HashMap<String, String>() {{
+            put("indexShards", "3");
+        }}));
+        try {
+            for (int i = 0 ; i < 7; i++) {
+                indexer.add(otherIndex, new org.icij.datashare.text.Document("id" + i, project("prj"), Paths.get(format("doc%d.txt", i)), format("content %d", i), Language.ENGLISH,
+                    Charset.defaultCharset(), "text/plain", new HashMap<>(), DONE, new HashSet<>(), 345L));
+            }
+
+            long count = 0;
+            for (int slice = 0; slice < 3; slice++) {
+                Indexer.Searcher searcher = indexer.search(TEST_INDEX + "," + otherIndex, Document.class).withCursor(true).limit(5);
+                long pageCount;
+                do {
+                    pageCount = searcher.scroll(slice, 3).count();
+                    count += pageCount;
+                } while (pageCount > 0);
+            }
+
+            assertThat(count).isEqualTo(7);
+        } finally {
+            es.delete(otherIndex);
+            Request deleteTemplate = new Request("DELETE", "/_template/datashare-" + otherIndex);
+            deleteTemplate.addParameter("ignore", "404");
+            es.client.getLowLevelClient().performRequest(deleteTemplate);
+        }
+    }
+
+    @Test
+    public void test_stream_all_hits() throws IOException {
+        for (int i = 0 ; i < 12; i++) {
+            indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id" + i, project("prj"), Paths.get(format("doc%d.txt", i)), format("content %d", i), Language.ENGLISH,
+                Charset.defaultCharset(), "text/plain", new HashMap<>(), DONE, new HashSet<>(), 345L));
+        }
+
+        ElasticsearchIndexer.ElasticsearchSearcher searcher = indexer.search(TEST_INDEX, Document.class).withCursor(true).limit(5);
+        try (Stream<? extends Entity> docs = searcher.stream()) {
+            assertThat(docs.map(Entity::getId).distinct().count()).isEqualTo(12);
+        }
+        assertThat(searcher.totalHits()).isEqualTo(12);
+    }
+
+    @Test
+    public void test_stream_with_scroll_context_closed_before_the_end() throws IOException {
+        for (int i = 0 ; i < 12; i++) {
+            indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id" + i, project("prj"), Paths.get(format("doc%d.txt", i)), format("content %d", i), Language.ENGLISH,
+                Charset.defaultCharset(), "text/plain", new HashMap<>(), DONE, new HashSet<>(), 345L));
+        }
+
+        try (Stream<? extends Entity> docs = indexer.search(TEST_INDEX, Document.class).withCursor(false).limit(5).stream()) {
+            assertThat(docs.limit(3).count()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    public void test_parallel_stream_over_slices() throws IOException {
+        for (int i = 0 ; i < 12; i++) {
+            indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id" + i, project("prj"), Paths.get(format("doc%d.txt", i)), format("content %d", i), Language.ENGLISH,
+                Charset.defaultCharset(), "text/plain", new HashMap<>(), DONE, new HashSet<>(), 345L));
+        }
+
+        try (Stream<? extends Entity> docs = indexer.search(TEST_INDEX, Document.class).withCursor(false).limit(5).stream(3)) {
+            assertThat(docs.isParallel()).isTrue();
+            assertThat(docs.map(Entity::getId).distinct().count()).isEqualTo(12);
+        }
+    }
+
+    @Test
+    public void test_count() throws IOException {
+        for (int i = 0 ; i < 12; i++) {
+            indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id" + i, project("prj"), Paths.get(format("doc%d.txt", i)), format("content %d", i), Language.ENGLISH,
+                Charset.defaultCharset(), "text/plain", new HashMap<>(), i < 4 ? INDEXED : DONE, new HashSet<>(), 345L));
+        }
+
+        assertThat(indexer.search(TEST_INDEX, Document.class).count()).isEqualTo(12);
+        assertThat(indexer.search(TEST_INDEX, Document.class).ofStatus(INDEXED).count()).isEqualTo(4);
+        assertThat(indexer.search(TEST_INDEX, NamedEntity.class).count()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_count_with_cap() throws IOException {
+        for (int i = 0 ; i < 12; i++) {
+            indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id" + i, project("prj"), Paths.get(format("doc%d.txt", i)), format("content %d", i), Language.ENGLISH,
+                Charset.defaultCharset(), "text/plain", new HashMap<>(), DONE, new HashSet<>(), 345L));
+        }
+
+        assertThat(indexer.search(TEST_INDEX, Document.class).count(5)).isEqualTo(5);
+        assertThat(indexer.search(TEST_INDEX, Document.class).count(20)).isEqualTo(12);
+    }
+
     @Test
     public void test_bulk_update() throws IOException {
         Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
@@ -347,6 +747,113 @@ public class ElasticsearchIndexerTest {
         assertThat(((NamedEntity)namedEntities[1]).isHidden()).isTrue();
     }
 
+    @Test
+    public void test_entity_stats_with_bulk_add_and_hide() throws IOException {
+        ElasticsearchIndexer statsIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("entityStats", "true");
+        }})).withRefresh(IMMEDIATE);
+        Document doc1 = new org.icij.datashare.text.Document("doc1", project("prj"), Paths.get("doc1.txt"), "content",
+                        Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 34L);
+        Document doc2 = new org.icij.datashare.text.Document("doc2", project("prj"), Paths.get("doc2.txt"), "content",
+                        Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 34L);
+        statsIndexer.add(TEST_INDEX, doc1);
+        statsIndexer.add(TEST_INDEX, doc2);
+        NamedEntity john = create(PERSON, "John Doe", 12, doc1.getId(), CORENLP, Language.FRENCH);
+        NamedEntity aaa = create(ORGANIZATION, "AAA", 123, doc1.getId(), CORENLP, Language.FRENCH);
+        statsIndexer.bulkAdd(TEST_INDEX, CORENLP, asList(john, create(PERSON, "John Doe", 42, doc1.getId(), CORENLP, Language.FRENCH), aaa), doc1);
+        statsIndexer.bulkAdd(TEST_INDEX, CORENLP, asList(create(PERSON, "John Doe", 2, doc2.getId(), CORENLP, Language.FRENCH)), doc2);
+
+        List<EntityStats> stats = statsIndexer.getEntityStats(TEST_INDEX, null, 0, 10);
+        assertThat(stats).hasSize(2);
+        assertThat(stats.get(0).mentionNorm).isEqualTo(john.getMentionNorm());
+        assertThat(stats.get(0).category).isEqualTo("PERSON");
+        assertThat(stats.get(0).documents).isEqualTo(2);
+        assertThat(stats.get(0).occurrences).isEqualTo(3);
+        assertThat(stats.get(1).mentionNorm).isEqualTo(aaa.getMentionNorm());
+        assertThat(statsIndexer.getEntityStats(TEST_INDEX, "ORGANIZATION", 0, 10)).hasSize(1);
+        assertThat(statsIndexer.getEntityStats(TEST_INDEX, null, 1, 10)).hasSize(1);
+        assertThat(indexer.search(TEST_INDEX, Document.class).execute().count()).isEqualTo(2);
+
+        aaa.hide();
+        statsIndexer.bulkUpdate(TEST_INDEX, singletonList(aaa));
+
+        assertThat(statsIndexer.getEntityStats(TEST_INDEX, null, 0, 10)).hasSize(1);
+        assertThat(statsIndexer.getEntityStats(TEST_INDEX, "ORGANIZATION", 0, 10)).isEmpty();
+    }
+
+    @Test
+    public void test_entity_stats_count_a_document_once() throws IOException {
+        ElasticsearchIndexer statsIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("entityStats", "true");
+        }})).withRefresh(IMMEDIATE);
+        Document doc = new org.icij.datashare.text.Document("doc", project("prj"), Paths.get("doc.txt"), "content",
+                        Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 34L);
+        statsIndexer.add(TEST_INDEX, doc);
+        statsIndexer.bulkAdd(TEST_INDEX, CORENLP, singletonList(create(PERSON, "John Doe", 12, doc.getId(), CORENLP, Language.FRENCH)), doc);
+        statsIndexer.bulkAdd(TEST_INDEX, CORENLP, singletonList(create(PERSON, "John Doe", 12, doc.getId(), CORENLP, Language.FRENCH)), doc);
+        statsIndexer.bulkAdd(TEST_INDEX, OPENNLP, asList(create(PERSON, "John Doe", 12, doc.getId(), OPENNLP, Language.FRENCH),
+                create(ORGANIZATION, "AAA", 123, doc.getId(), OPENNLP, Language.FRENCH)), doc);
+
+        List<EntityStats> stats = statsIndexer.getEntityStats(TEST_INDEX, null, 0, 10);
+        assertThat(stats).hasSize(2);
+        assertThat(stats.get(0).documents).isEqualTo(1);
+        assertThat(stats.get(0).occurrences).isEqualTo(1);
+        assertThat(stats.get(1).documents).isEqualTo(1);
+    }
+
+    @Test
+    public void test_entity_stats_count_a_document_once_with_async_and_batched_bulk_add() throws Exception {
+        ElasticsearchIndexer statsIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("entityStats", "true");
+        }})).withRefresh(IMMEDIATE);
+        Document doc = new org.icij.datashare.text.Document("doc", project("prj"), Paths.get("doc.txt"), "content",
+                        Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 34L);
+        statsIndexer.add(TEST_INDEX, doc);
+        assertThat(statsIndexer.bulkAddAsync(TEST_INDEX, CORENLP, asList(create(PERSON, "John Doe", 12, doc.getId(), CORENLP, Language.FRENCH),
+                create(PERSON, "John Doe", 42, doc.getId(), CORENLP, Language.FRENCH)), doc).get()).isTrue();
+        CompletableFuture<Boolean> saved = statsIndexer.bulkAddBatched(TEST_INDEX, OPENNLP, asList(create(PERSON, "John Doe", 12, doc.getId(), OPENNLP, Language.FRENCH),
+                create(ORGANIZATION, "AAA", 123, doc.getId(), OPENNLP, Language.FRENCH)), doc);
+        statsIndexer.flushBatched();
+
+        assertThat(saved.get()).isTrue();
+        List<EntityStats> stats = statsIndexer.getEntityStats(TEST_INDEX, null, 0, 10);
+        assertThat(stats).hasSize(2);
+        assertThat(stats.get(0).category).isEqualTo("PERSON");
+        assertThat(stats.get(0).documents).isEqualTo(1);
+        assertThat(stats.get(0).occurrences).isEqualTo(2);
+        assertThat(stats.get(1).category).isEqualTo("ORGANIZATION");
+        assertThat(stats.get(1).documents).isEqualTo(1);
+    }
+
+    @Test
+    public void test_entity_summary_with_bulk_add_and_hide() throws IOException {
+        ElasticsearchIndexer summaryIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("entitySummary", "true");
+        }})).withRefresh(IMMEDIATE);
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                        Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 34L);
+        summaryIndexer.add(TEST_INDEX, doc);
+        NamedEntity ne1 = create(PERSON, "John Doe", 12, doc.getId(), CORENLP, Language.FRENCH);
+        NamedEntity ne2 = create(PERSON, "John Doe", 42, doc.getId(), CORENLP, Language.FRENCH);
+        NamedEntity ne3 = create(ORGANIZATION, "AAA", 123, doc.getId(), CORENLP, Language.FRENCH);
+        assertThat(summaryIndexer.bulkAdd(TEST_INDEX, CORENLP, asList(ne1, ne2, ne3), doc)).isTrue();
+
+        Map<String, Object> source = es.client.get(new GetRequest(TEST_INDEX, "doc", doc.getId())).getSourceAsMap();
+        assertThat((List<String>) source.get("entities")).containsOnly("PERSON:" + ne1.getMentionNorm(), "ORGANIZATION:" + ne3.getMentionNorm());
+        assertThat((List<String>) source.get("entityMentions")).containsOnly(ne1.getMentionNorm(), ne3.getMentionNorm());
+        assertThat((List<String>) source.get("entityCategories")).containsOnly("PERSON", "ORGANIZATION");
+        assertThat(summaryIndexer.search(TEST_INDEX, Document.class).withFieldValues("entityMentions", ne3.getMentionNorm()).execute().count()).isEqualTo(1);
+
+        ne3.hide();
+        assertThat(summaryIndexer.bulkUpdate(TEST_INDEX, singletonList(ne3))).isTrue();
+
+        source = es.client.get(new GetRequest(TEST_INDEX, "doc", doc.getId())).getSourceAsMap();
+        assertThat((List<String>) source.get("entities")).containsOnly("PERSON:" + ne1.getMentionNorm());
+        assertThat((List<String>) source.get("entityMentions")).containsOnly(ne1.getMentionNorm());
+        assertThat((List<String>) source.get("entityCategories")).containsOnly("PERSON");
+        assertThat(summaryIndexer.search(TEST_INDEX, Document.class).withFieldValues("entityMentions", ne3.getMentionNorm()).execute().count()).isEqualTo(0);
+    }
+
     @Test
     public void test_delete_by_query() throws Exception {
         indexer.add(TEST_INDEX, create(PERSON, "Joe Foo", 2, "docId", CORENLP, Language.FRENCH));
@@ -384,6 +891,27 @@ public class ElasticsearchIndexerTest {
         assertThat(indexer.executeRaw("POST", TEST_INDEX + "/_search", "{\"query\":{\"match\":{\"content\":\"foo\"}}}")).doesNotContain("my content");
     }
 
+    @Test
+    public void test_execute_raw_with_gzip_body_and_response() throws Exception {
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "my content",
+                        Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(),
+                        INDEXED, new HashSet<Pipeline.Type>() {{ add(OPENNLP);}}, 432L);
+        indexer.add(TEST_INDEX, doc);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write("{\"query\":{\"match_all\":{}}}".getBytes(UTF_8));
+        }
+        ByteArrayEntity body = new ByteArrayEntity(compressed.toByteArray(), ContentType.APPLICATION_JSON);
+        body.setContentEncoding("gzip");
+
+        Response response = indexer.executeRaw("POST", TEST_INDEX + "/_search", body, true);
+
+        assertThat(response.getHeader("Content-Encoding")).isEqualTo("gzip");
+        try (InputStream content = new GZIPInputStream(response.getEntity().getContent())) {
+            assertThat(new String(ByteStreams.toByteArray(content), UTF_8)).contains("my content");
+        }
+    }
+
     @Test
     public void test_execute_raw_with_head() throws Exception {
         assertThat(indexer.executeRaw("HEAD", TEST_INDEX, "")).isNull();
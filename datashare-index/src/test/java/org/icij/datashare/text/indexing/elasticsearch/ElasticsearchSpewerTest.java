@@ -1,11 +1,17 @@
 package org.icij.datashare.text.indexing.elasticsearch;
 
+import org.apache.http.util.EntityUtils;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.parser.ParsingReader;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.icij.datashare.PropertiesProvider;
@@ -26,17 +32,21 @@ import org.icij.extract.extractor.UpdatableDigester;
 import org.icij.spewer.FieldNames;
 import org.icij.task.Options;
 import org.junit.ClassRule;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.nio.file.Paths.get;
 import static org.elasticsearch.action.support.WriteRequest.RefreshPolicy.IMMEDIATE;
@@ -47,12 +57,14 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 public class ElasticsearchSpewerTest {
     @ClassRule
     public static ElasticsearchRule es = new ElasticsearchRule();
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
     private Publisher publisher = Mockito.mock(Publisher.class);
 
     private ElasticsearchSpewer spewer = new ElasticsearchSpewer(es.client,
@@ -80,6 +92,26 @@ public class ElasticsearchSpewerTest {
         assertThat(argument.getValue().content).includes(entry(Field.DOC_ID, document.getId()));
     }
 
+    @Test
+    public void test_bulk_write_publishes_nlp_message_when_acknowledged() throws Exception {
+        ElasticsearchSpewer bulkSpewer = new ElasticsearchSpewer(es.client, text -> Language.ENGLISH, new FieldNames(), publisher,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("bulkIndexing", "true");
+                }})).withIndex("test-datashare");
+        final TikaDocument document = new DocumentFactory().withIdentifier(new PathIdentifier()).create(get("test-bulk-file.txt"));
+        document.setReader(new ParsingReader(new ByteArrayInputStream("test".getBytes())));
+
+        bulkSpewer.write(document);
+        verify(publisher, never()).publish(eq(Channel.NLP), any(Message.class));
+        bulkSpewer.flush();
+
+        GetResponse documentFields = es.client.get(new GetRequest(TEST_INDEX, "doc", document.getId()));
+        assertThat(documentFields.isExists()).isTrue();
+        ArgumentCaptor<Message> argument = ArgumentCaptor.forClass(Message.class);
+        verify(publisher).publish(eq(Channel.NLP), argument.capture());
+        assertThat(argument.getValue().content).includes(entry(Field.DOC_ID, document.getId()));
+    }
+
     @Test
     public void test_metadata() throws Exception {
         Path path = get(getClass().getResource("/docs/a/b/c/doc.txt").getPath());
@@ -160,6 +192,175 @@ public class ElasticsearchSpewerTest {
         assertThat(actualDocument2.getSourceAsMap()).includes(entry("type", "Duplicate"));
     }
 
+    @Test
+    public void test_duplicate_file_with_batched_duplicate_check() throws Exception {
+        ElasticsearchSpewer batchSpewer = new ElasticsearchSpewer(es.client, text -> Language.ENGLISH, new FieldNames(), publisher,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("duplicateCheckBatchSize", "10");
+                    put("duplicateFilterSize", "1000");
+                }})).withRefresh(IMMEDIATE).withIndex("test-datashare");
+        DocumentFactory tikaFactory = new DocumentFactory().configure(Options.from(new HashMap<String, String>() {{
+            put("idDigestMethod", Document.HASHER.toString());
+        }}));
+        Extractor extractor = new Extractor(tikaFactory);
+        extractor.setDigester(new UpdatableDigester("project", Document.HASHER.toString()));
+
+        final TikaDocument document = extractor.extract(get(getClass().getResource("/docs/doc.txt").getPath()));
+        final TikaDocument document2 = extractor.extract(get(getClass().getResource("/docs/doc-duplicate.txt").getPath()));
+
+        batchSpewer.write(document);
+        batchSpewer.write(document2);
+        batchSpewer.flush();
+
+        GetResponse actualDocument = es.client.get(new GetRequest(TEST_INDEX, "doc", document.getId()));
+        GetResponse actualDocument2 = es.client.get(new GetRequest(TEST_INDEX, "doc", new Duplicate(document2.getPath(), document.getId()).getId()));
+        assertThat(actualDocument.getSourceAsMap()).includes(entry("type", "Document"));
+        assertThat(actualDocument2.getSourceAsMap()).includes(entry("type", "Duplicate"));
+    }
+
+    @Test
+    public void test_children_of_duplicate_root_are_indexed_again_by_default() throws Exception {
+        DocumentFactory tikaFactory = new DocumentFactory().configure(Options.from(new HashMap<String, String>() {{
+            put("idDigestMethod", Document.HASHER.toString());
+        }}));
+        Extractor extractor = new Extractor(tikaFactory);
+        extractor.setDigester(new UpdatableDigester("project", Document.HASHER.toString()));
+        Path original = get(getClass().getResource("/docs/embedded_doc.eml").getPath());
+        Path copy = Files.copy(original, tmp.getRoot().toPath().resolve("embedded_doc_copy.eml"));
+
+        long before = indexedDocuments();
+        spewer.write(extractor.extract(original));
+        long afterOriginal = indexedDocuments();
+        spewer.write(extractor.extract(copy));
+
+        assertThat(afterOriginal - before).isGreaterThan(1);
+        assertThat(indexedDocuments() - afterOriginal).isEqualTo(afterOriginal - before);
+    }
+
+    @Test
+    public void test_children_of_duplicate_root_with_batched_duplicate_check_are_not_indexed() throws Exception {
+        ElasticsearchSpewer batchSpewer = new ElasticsearchSpewer(es.client, text -> Language.ENGLISH, new FieldNames(), publisher,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("duplicateCheckBatchSize", "10");
+                    put("bulkIndexing", "true");
+                }})).withRefresh(IMMEDIATE).withIndex("test-datashare");
+        DocumentFactory tikaFactory = new DocumentFactory().configure(Options.from(new HashMap<String, String>() {{
+            put("idDigestMethod", Document.HASHER.toString());
+        }}));
+        Extractor extractor = new Extractor(tikaFactory);
+        extractor.setDigester(new UpdatableDigester("project", Document.HASHER.toString()));
+        Path original = get(getClass().getResource("/docs/embedded_doc.eml").getPath());
+        Path copy = Files.copy(original, tmp.getRoot().toPath().resolve("embedded_doc_copy.eml"));
+
+        long before = indexedDocuments();
+        batchSpewer.write(extractor.extract(original));
+        batchSpewer.flush();
+        long afterOriginal = indexedDocuments();
+        batchSpewer.write(extractor.extract(copy));
+        batchSpewer.flush();
+
+        assertThat(afterOriginal - before).isGreaterThan(1);
+        assertThat(indexedDocuments() - afterOriginal).isEqualTo(1);
+    }
+
+    @Test
+    public void test_truncate_content_longer_than_max_content_length() throws Exception {
+        ElasticsearchSpewer truncateSpewer = new ElasticsearchSpewer(es.client, text -> Language.ENGLISH, new FieldNames(), publisher,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("maxContentLength", "10");
+                }})).withRefresh(IMMEDIATE).withIndex("test-datashare");
+        final TikaDocument document = new DocumentFactory().withIdentifier(new PathIdentifier()).create(get("test-truncated-file.txt"));
+        document.setReader(new ParsingReader(new ByteArrayInputStream("0123456789 abcdefghij".getBytes())));
+
+        truncateSpewer.write(document);
+
+        GetResponse documentFields = es.client.get(new GetRequest(TEST_INDEX, "doc", document.getId()));
+        assertThat(documentFields.getSourceAsMap()).includes(entry("content", "0123456789"), entry("contentTruncated", true));
+    }
+
+    @Test
+    public void test_index_content_pages_for_content_longer_than_max_content_length() throws Exception {
+        ElasticsearchSpewer pageSpewer = new ElasticsearchSpewer(es.client, text -> Language.ENGLISH, new FieldNames(), publisher,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("maxContentLength", "10");
+                    put("contentPages", "true");
+                }})).withRefresh(IMMEDIATE).withIndex("test-datashare");
+        final TikaDocument document = new DocumentFactory().withIdentifier(new PathIdentifier()).create(get("test-paged-file.txt"));
+        document.setReader(new ParsingReader(new ByteArrayInputStream("0123456789abcdefghij".getBytes())));
+
+        pageSpewer.write(document);
+
+        GetResponse documentFields = es.client.get(new GetRequest(TEST_INDEX, "doc", document.getId()));
+        assertThat(documentFields.getSourceAsMap()).includes(entry("content", "0123456789"), entry("contentTruncated", true));
+        GetResponse page = es.client.get(new GetRequest(TEST_INDEX, "doc", Document.HASHER.hash(document.getId() + "/1")).routing(document.getId()));
+        assertThat(page.getSourceAsMap()).includes(entry("type", "ContentPage"), entry("content", "abcdefghij"),
+                entry("contentPage", 1), entry("parentDocument", document.getId()));
+        verify(publisher).publish(eq(Channel.NLP), any(Message.class));
+        assertThat(new ElasticsearchIndexer(es.client, new PropertiesProvider())
+                .getContentPages(TEST_INDEX, document.getId(), document.getId(), 0, 10)).containsExactly("abcdefghij");
+    }
+
+    @Test
+    public void test_content_pages_are_recorded_as_index_writes() throws Exception {
+        IndexWrites indexWrites = Mockito.mock(IndexWrites.class);
+        ElasticsearchSpewer pageSpewer = new ElasticsearchSpewer(es.client, text -> Language.ENGLISH, new FieldNames(), publisher,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("maxContentLength", "10");
+                    put("contentPages", "true");
+                }}), indexWrites).withRefresh(IMMEDIATE).withIndex("test-datashare");
+        final TikaDocument document = new DocumentFactory().withIdentifier(new PathIdentifier()).create(get("test-paged-file.txt"));
+        document.setReader(new ParsingReader(new ByteArrayInputStream("0123456789abcdefghijklmnopqrst".getBytes())));
+
+        pageSpewer.write(document);
+
+        verify(indexWrites, times(3)).written("test-datashare");
+    }
+
+    @Test
+    public void test_content_pages_of_duplicate_root_are_not_indexed() throws Exception {
+        ElasticsearchSpewer pageSpewer = new ElasticsearchSpewer(es.client, text -> Language.ENGLISH, new FieldNames(), publisher,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("maxContentLength", "10");
+                    put("contentPages", "true");
+                }})).withRefresh(IMMEDIATE).withIndex("test-datashare");
+        DocumentFactory tikaFactory = new DocumentFactory().configure(Options.from(new HashMap<String, String>() {{
+            put("idDigestMethod", Document.HASHER.toString());
+        }}));
+        Extractor extractor = new Extractor(tikaFactory);
+        extractor.setDigester(new UpdatableDigester("project", Document.HASHER.toString()));
+
+        pageSpewer.write(extractor.extract(get(getClass().getResource("/docs/doc.txt").getPath())));
+        long afterOriginal = indexedDocuments();
+        pageSpewer.write(extractor.extract(get(getClass().getResource("/docs/doc-duplicate.txt").getPath())));
+
+        assertThat(indexedDocuments() - afterOriginal).isEqualTo(1);
+    }
+
+    @Test
+    public void test_small_embedded_document_inherits_root_language() throws Exception {
+        AtomicInteger nbGuesses = new AtomicInteger();
+        ElasticsearchSpewer languageSpewer = new ElasticsearchSpewer(es.client,
+                text -> nbGuesses.getAndIncrement() == 0 ? Language.FRENCH : Language.ENGLISH, new FieldNames(), publisher,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("inheritedLanguageMaxLength", "100000");
+                }})).withRefresh(IMMEDIATE).withIndex("test-datashare");
+        final TikaDocument document = new Extractor().extract(get(getClass().getResource("/docs/embedded_doc.eml").getPath()));
+
+        languageSpewer.write(document);
+
+        SearchResponse response = es.client.search(new SearchRequest(TEST_INDEX).source(new SearchSourceBuilder()
+                .query(QueryBuilders.termQuery("parentDocument", document.getId()))));
+        assertThat(response.getHits().totalHits).isGreaterThan(0);
+        assertThat(response.getHits().getAt(0).getSourceAsMap()).includes(entry("language", "FRENCH"));
+        assertThat(nbGuesses.get()).isEqualTo(1);
+    }
+
+    private long indexedDocuments() throws IOException {
+        Response response = es.client.getLowLevelClient().performRequest(new Request("GET", "/" + TEST_INDEX + "/_stats/indexing"));
+        Map<String, Object> stats = XContentHelper.convertToMap(XContentType.JSON.xContent(), EntityUtils.toString(response.getEntity()), false);
+        return ((Number) XContentMapValues.extractValue("_all.primaries.indexing.index_total", stats)).longValue();
+    }
+
     private Map<String, Object> convert(Metadata metadata) {
         Map<String, Object> map = new HashMap<>();
         for (String name: metadata.names()) {
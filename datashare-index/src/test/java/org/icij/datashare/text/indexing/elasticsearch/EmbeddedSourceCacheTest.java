@@ -0,0 +1,113 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.icij.datashare.PropertiesProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class EmbeddedSourceCacheTest {
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void test_cache_is_disabled_by_default() {
+        assertThat(new EmbeddedSourceCache(new PropertiesProvider()).isEnabled()).isFalse();
+    }
+
+    @Test
+    public void test_get_unknown_source() throws IOException {
+        EmbeddedSourceCache cache = new EmbeddedSourceCache(tmp.getRoot().toPath(), 100);
+
+        assertThat(cache.get("abcd")).isNull();
+        assertThat(cache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_put_and_get_source() throws IOException {
+        EmbeddedSourceCache cache = new EmbeddedSourceCache(tmp.getRoot().toPath(), 100);
+
+        cache.put("abcd", "content".getBytes());
+
+        assertThat(read(cache.get("abcd"))).isEqualTo("content");
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.weight()).isEqualTo(7);
+        assertThat(tmp.getRoot().toPath().resolve("ab").resolve("abcd").toFile()).exists();
+    }
+
+    @Test
+    public void test_put_file() throws IOException {
+        EmbeddedSourceCache cache = new EmbeddedSourceCache(tmp.getRoot().toPath(), 100);
+        Path file = tmp.newFile().toPath();
+        Files.write(file, "content".getBytes());
+
+        cache.put("abcd", file);
+
+        assertThat(read(cache.get("abcd"))).isEqualTo("content");
+        assertThat(file.toFile()).exists();
+    }
+
+    @Test
+    public void test_least_recently_read_sources_are_evicted() throws IOException {
+        EmbeddedSourceCache cache = new EmbeddedSourceCache(tmp.getRoot().toPath(), 40);
+
+        cache.put("aa01", "0123456789".getBytes());
+        cache.put("aa02", "0123456789".getBytes());
+        cache.put("aa03", "0123456789".getBytes());
+        read(cache.get("aa01"));
+        cache.put("aa04", "0123456789".getBytes());
+        cache.put("aa05", "0123456789".getBytes());
+
+        assertThat(cache.size()).isEqualTo(4);
+        assertThat(cache.contains("aa02")).isFalse();
+        assertThat(cache.contains("aa01")).isTrue();
+        assertThat(tmp.getRoot().toPath().resolve("aa").resolve("aa02").toFile()).doesNotExist();
+    }
+
+    @Test
+    public void test_large_sources_are_not_cached() throws IOException {
+        EmbeddedSourceCache cache = new EmbeddedSourceCache(tmp.getRoot().toPath(), 40);
+
+        cache.put("abcd", "01234567890".getBytes());
+
+        assertThat(cache.contains("abcd")).isFalse();
+    }
+
+    @Test
+    public void test_disabled_cache() throws IOException {
+        EmbeddedSourceCache cache = new EmbeddedSourceCache(tmp.getRoot().toPath(), 0);
+
+        cache.put("abcd", "content".getBytes());
+
+        assertThat(cache.get("abcd")).isNull();
+        assertThat(tmp.getRoot().list()).isEmpty();
+    }
+
+    @Test
+    public void test_load_sources_from_disk() throws IOException {
+        new EmbeddedSourceCache(tmp.getRoot().toPath(), 100).put("abcd", "content".getBytes());
+
+        EmbeddedSourceCache cache = new EmbeddedSourceCache(tmp.getRoot().toPath(), 100);
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(read(cache.get("abcd"))).isEqualTo("content");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_invalid_digest() throws IOException {
+        new EmbeddedSourceCache(tmp.getRoot().toPath(), 100).put("../ab", "content".getBytes());
+    }
+
+    private String read(InputStream source) throws IOException {
+        try (InputStream is = source) {
+            byte[] bytes = new byte[1024];
+            int read = is.read(bytes);
+            return new String(bytes, 0, read);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.icij.datashare.Entity;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.NamedEntity;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.json.JsonObjectMapper.getJson;
+import static org.icij.datashare.text.Document.Status.INDEXED;
+import static org.icij.datashare.text.NamedEntity.Category.PERSON;
+import static org.icij.datashare.text.Project.project;
+import static org.icij.datashare.text.nlp.Pipeline.Type.CORENLP;
+
+public class EntityReaderTest {
+    private final EntityReader reader = new EntityReader("type");
+
+    @Test
+    public void test_read_document_from_type_field() throws IOException {
+        Document doc = new Document("docId", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 123L);
+
+        Document actual = reader.read("docId", source(doc, "Document"));
+
+        assertThat(actual.getId()).isEqualTo("docId");
+        assertThat(actual.getContent()).isEqualTo("content");
+        assertThat(actual.getContentType()).isEqualTo("application/pdf");
+        assertThat(actual.getLanguage()).isEqualTo(Language.FRENCH);
+    }
+
+    @Test
+    public void test_read_named_entity_with_class() throws IOException {
+        NamedEntity ne = NamedEntity.create(PERSON, "John Doe", 12, "docId", CORENLP, Language.FRENCH);
+
+        NamedEntity actual = EntityReader.read(ne.getId(), source(ne, "NamedEntity"), NamedEntity.class);
+
+        assertThat(actual.getId()).isEqualTo(ne.getId());
+        assertThat(actual.getMention()).isEqualTo("John Doe");
+    }
+
+    @Test
+    public void test_read_unknown_type() throws IOException {
+        NamedEntity ne = NamedEntity.create(PERSON, "John Doe", 12, "docId", CORENLP, Language.FRENCH);
+
+        assertThat((Entity) reader.read(ne.getId(), source(ne, "Unknown"))).isNull();
+    }
+
+    @Test
+    public void test_entity_class_is_resolved_once() {
+        assertThat(EntityReader.getEntityClass("Document").get()).isEqualTo(Document.class);
+        assertThat(EntityReader.getEntityClass("Document")).isSameAs(EntityReader.getEntityClass("Document"));
+        assertThat(EntityReader.getEntityClass("Unknown").isPresent()).isFalse();
+    }
+
+    static BytesReference source(Entity entity, String type) throws IOException {
+        Map<String, Object> json = getJson(entity);
+        json.put("type", type);
+        return BytesReference.bytes(jsonBuilder().map(json));
+    }
+}
@@ -0,0 +1,52 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.test.ElasticsearchRule;
+import org.junit.After;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.elasticsearch.action.support.WriteRequest.RefreshPolicy.IMMEDIATE;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class IndexResharderTest {
+    private static final String INDEX = "test-reshard";
+    @ClassRule
+    public static ElasticsearchRule es = new ElasticsearchRule();
+    private final PropertiesProvider propertiesProvider = new PropertiesProvider(new HashMap<String, String>() {{
+        put("indexReplicas", "0");
+    }});
+
+    @Test
+    public void test_reshard_index() throws Exception {
+        ElasticsearchConfiguration.createIndex(es.client, INDEX, propertiesProvider);
+        es.client.index(new IndexRequest(INDEX, "doc", "id").routing("root").source("type", "Document").setRefreshPolicy(IMMEDIATE), RequestOptions.DEFAULT);
+        AtomicReference<Double> progress = new AtomicReference<>(0.0);
+
+        long nbDocuments = new IndexResharder(es.client, propertiesProvider).reshard(INDEX, 2, progress::set);
+
+        assertThat(nbDocuments).isEqualTo(1);
+        assertThat(progress.get()).isEqualTo(1.0);
+        assertThat(es.client.indices().getSettings(new GetSettingsRequest().indices(INDEX), RequestOptions.DEFAULT)
+                .getSetting(INDEX, "index.number_of_shards")).isEqualTo("2");
+        assertThat(es.client.get(new GetRequest(INDEX, "doc", "id").routing("root"), RequestOptions.DEFAULT).isExists()).isTrue();
+        assertThat(es.client.indices().exists(new GetIndexRequest().indices(INDEX + IndexResharder.RESHARD_SUFFIX), RequestOptions.DEFAULT)).isFalse();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        es.delete(INDEX, INDEX + IndexResharder.RESHARD_SUFFIX);
+        Request deleteTemplate = new Request("DELETE", "/_template/datashare-" + INDEX);
+        deleteTemplate.addParameter("ignore", "404");
+        es.client.getLowLevelClient().performRequest(deleteTemplate);
+    }
+}
@@ -0,0 +1,63 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.icij.datashare.test.ElasticsearchRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.test.ElasticsearchRule.TEST_INDEX;
+import static org.icij.datashare.text.indexing.elasticsearch.IngestMode.*;
+
+public class IngestModeTest {
+    @ClassRule
+    public static ElasticsearchRule es = new ElasticsearchRule();
+    private final IngestMode ingestMode = new IngestMode(es.client);
+
+    @Test
+    public void test_start_sets_ingest_settings() throws Exception {
+        ingestMode.start(TEST_INDEX);
+
+        GetSettingsResponse settings = getSettings();
+        assertThat(settings.getSetting(TEST_INDEX, REFRESH_INTERVAL)).isEqualTo("-1");
+        assertThat(settings.getSetting(TEST_INDEX, NUMBER_OF_REPLICAS)).isEqualTo("0");
+        assertThat(settings.getSetting(TEST_INDEX, TRANSLOG_DURABILITY)).isEqualTo("async");
+        assertThat(ingestMode.getIndices()).containsOnly(TEST_INDEX);
+
+        ingestMode.stop(TEST_INDEX);
+    }
+
+    @Test
+    public void test_stop_restores_original_settings() throws Exception {
+        String replicas = getSettings().getSetting(TEST_INDEX, NUMBER_OF_REPLICAS);
+
+        ingestMode.start(TEST_INDEX);
+        ingestMode.stop(TEST_INDEX);
+
+        GetSettingsResponse settings = getSettings();
+        assertThat(settings.getSetting(TEST_INDEX, REFRESH_INTERVAL)).isNull();
+        assertThat(settings.getSetting(TEST_INDEX, NUMBER_OF_REPLICAS)).isEqualTo(replicas);
+        assertThat(settings.getSetting(TEST_INDEX, TRANSLOG_DURABILITY)).isNull();
+        assertThat(ingestMode.getIndices()).isEmpty();
+    }
+
+    @Test
+    public void test_settings_are_restored_when_last_ingestion_stops() throws Exception {
+        ingestMode.start(TEST_INDEX);
+        ingestMode.start(TEST_INDEX);
+
+        ingestMode.stop(TEST_INDEX);
+        assertThat(getSettings().getSetting(TEST_INDEX, REFRESH_INTERVAL)).isEqualTo("-1");
+
+        ingestMode.stop(TEST_INDEX);
+        assertThat(getSettings().getSetting(TEST_INDEX, REFRESH_INTERVAL)).isNull();
+    }
+
+    private GetSettingsResponse getSettings() throws IOException {
+        return es.client.indices().getSettings(new GetSettingsRequest().indices(TEST_INDEX), RequestOptions.DEFAULT);
+    }
+}
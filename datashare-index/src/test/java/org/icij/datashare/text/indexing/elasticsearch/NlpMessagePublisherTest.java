@@ -0,0 +1,110 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.com.Channel;
+import org.icij.datashare.com.Message;
+import org.icij.datashare.com.Message.Field;
+import org.icij.datashare.com.Publisher;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.HashMap;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.MapAssert.entry;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class NlpMessagePublisherTest {
+    private final Publisher publisher = mock(Publisher.class);
+
+    @Test
+    public void test_publish_one_message_per_document_by_default() {
+        NlpMessagePublisher nlpPublisher = new NlpMessagePublisher(publisher, new PropertiesProvider());
+
+        nlpPublisher.publish("index", "docId", "rootId");
+
+        ArgumentCaptor<Message> argument = ArgumentCaptor.forClass(Message.class);
+        verify(publisher).publish(eq(Channel.NLP), argument.capture());
+        assertThat(argument.getValue().content).includes(entry(Field.INDEX_NAME, "index"),
+                entry(Field.DOC_ID, "docId"), entry(Field.R_ID, "rootId"));
+    }
+
+    @Test
+    public void test_publish_multi_document_message_when_batch_is_full() {
+        NlpMessagePublisher nlpPublisher = new NlpMessagePublisher(publisher, new PropertiesProvider(new HashMap<String, String>() {{
+            put("nlpMessageBatchSize", "2");
+            put("nlpMessageFlushIntervalMillis", "60000");
+        }}));
+
+        nlpPublisher.publish("index", "doc1", "root1");
+        verify(publisher, never()).publish(any(), any());
+        nlpPublisher.publish("index", "doc2", "root2");
+
+        ArgumentCaptor<Message> argument = ArgumentCaptor.forClass(Message.class);
+        verify(publisher).publish(eq(Channel.NLP), argument.capture());
+        assertThat(argument.getValue().content).includes(entry(Field.DOC_ID, "doc1,doc2"), entry(Field.R_ID, "root1,root2"));
+    }
+
+    @Test
+    public void test_flush_publishes_buffered_messages() {
+        NlpMessagePublisher nlpPublisher = new NlpMessagePublisher(publisher, new PropertiesProvider(new HashMap<String, String>() {{
+            put("nlpMessageBatchSize", "10");
+            put("nlpMessageFlushIntervalMillis", "60000");
+        }}));
+        nlpPublisher.publish("index", "doc1", "root1");
+
+        nlpPublisher.flush();
+
+        verify(publisher).publish(eq(Channel.NLP), any(Message.class));
+    }
+
+    @Test
+    public void test_close_publishes_buffered_messages_and_stops_the_flush_thread() throws Exception {
+        NlpMessagePublisher nlpPublisher = new NlpMessagePublisher(publisher, new PropertiesProvider(new HashMap<String, String>() {{
+            put("nlpMessageBatchSize", "10");
+            put("nlpMessageFlushIntervalMillis", "10");
+        }}));
+        nlpPublisher.publish("index", "doc1", "root1");
+
+        nlpPublisher.close();
+        verify(publisher).publish(eq(Channel.NLP), any(Message.class));
+
+        nlpPublisher.publish("index", "doc2", "root2");
+        Thread.sleep(100);
+        verify(publisher).publish(eq(Channel.NLP), any(Message.class));
+    }
+
+    @Test
+    public void test_publish_buffered_messages_after_flush_interval_without_new_message() {
+        NlpMessagePublisher nlpPublisher = new NlpMessagePublisher(publisher, new PropertiesProvider(new HashMap<String, String>() {{
+            put("nlpMessageBatchSize", "10");
+            put("nlpMessageFlushIntervalMillis", "50");
+        }}));
+
+        nlpPublisher.publish("index", "doc1", "root1");
+
+        ArgumentCaptor<Message> argument = ArgumentCaptor.forClass(Message.class);
+        verify(publisher, timeout(2000)).publish(eq(Channel.NLP), argument.capture());
+        assertThat(argument.getValue().content).includes(entry(Field.DOC_ID, "doc1"));
+    }
+
+    @Test
+    public void test_split_multi_document_message() {
+        List<Message> messages = NlpMessagePublisher.split(new Message(Message.Type.EXTRACT_NLP)
+                .add(Field.INDEX_NAME, "index").add(Field.DOC_ID, "doc1,doc2").add(Field.R_ID, "root1,root2"));
+
+        assertThat(messages).hasSize(2);
+        assertThat(messages.get(1).content).includes(entry(Field.INDEX_NAME, "index"),
+                entry(Field.DOC_ID, "doc2"), entry(Field.R_ID, "root2"));
+    }
+
+    @Test
+    public void test_split_single_document_message() {
+        Message message = new Message(Message.Type.EXTRACT_NLP).add(Field.INDEX_NAME, "index").add(Field.DOC_ID, "doc").add(Field.R_ID, "root");
+
+        assertThat(NlpMessagePublisher.split(message)).containsOnly(message);
+    }
+}
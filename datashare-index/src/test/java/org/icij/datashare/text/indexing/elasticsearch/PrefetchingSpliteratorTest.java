@@ -0,0 +1,87 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.StreamSupport;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PrefetchingSpliteratorTest {
+    @Test
+    public void test_empty_source() {
+        assertThat(StreamSupport.stream(new PrefetchingSpliterator<>(singletonList(new Pages())), false).count()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_read_pages_of_sources() {
+        List<Integer> items = StreamSupport.stream(new PrefetchingSpliterator<>(asList(
+                new Pages(asList(1, 2), singletonList(3)), new Pages(singletonList(4)))), false).collect(toList());
+
+        assertThat(items).containsExactly(1, 2, 3, 4);
+    }
+
+    @Test
+    public void test_next_page_is_requested_when_current_page_is_returned() {
+        Pages pages = new Pages(asList(1, 2), singletonList(3));
+        PrefetchingSpliterator<Integer> spliterator = new PrefetchingSpliterator<>(singletonList(pages));
+
+        spliterator.tryAdvance(i -> {});
+
+        assertThat(pages.requested).isEqualTo(2);
+    }
+
+    @Test
+    public void test_split_sources_not_started() {
+        PrefetchingSpliterator<Integer> spliterator = new PrefetchingSpliterator<>(asList(
+                new Pages(singletonList(1)), new Pages(singletonList(2)), new Pages(singletonList(3)), new Pages(singletonList(4))));
+
+        Spliterator<Integer> split = spliterator.trySplit();
+
+        List<Integer> splitItems = new ArrayList<>();
+        split.forEachRemaining(splitItems::add);
+        List<Integer> items = new ArrayList<>();
+        spliterator.forEachRemaining(items::add);
+        assertThat(splitItems).containsExactly(3, 4);
+        assertThat(items).containsExactly(1, 2);
+    }
+
+    @Test
+    public void test_cannot_split_single_source() {
+        assertThat(new PrefetchingSpliterator<>(singletonList(new Pages(singletonList(1)))).trySplit()).isNull();
+    }
+
+    @Test
+    public void test_parallel_stream_reads_all_sources() {
+        List<Pages> sources = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            sources.add(new Pages(asList(i * 2, i * 2 + 1)));
+        }
+
+        assertThat(StreamSupport.stream(new PrefetchingSpliterator<>(sources), true).count()).isEqualTo(16);
+    }
+
+    private static class Pages implements PrefetchingSpliterator.PageSource<Integer> {
+        private final LinkedList<List<Integer>> pages;
+        int requested = 0;
+
+        @SafeVarargs
+        Pages(List<Integer>... pages) {
+            this.pages = new LinkedList<>(asList(pages));
+        }
+
+        @Override
+        public CompletableFuture<List<Integer>> next() {
+            requested++;
+            return CompletableFuture.completedFuture(pages.isEmpty() ? Collections.<Integer>emptyList() : pages.poll());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.icij.datashare.PropertiesProvider;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static java.util.Arrays.asList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.text.indexing.elasticsearch.QueryAnalyzer.hasLuceneOperators;
+
+public class QueryAnalyzerTest {
+    private final QueryAnalyzer analyzer = new QueryAnalyzer(new PropertiesProvider());
+
+    @Test
+    public void test_query_string_without_fuzziness_nor_phrase_matches() {
+        assertThat(analyzer.queryString("a b", 0, false)).isEqualTo("a b");
+    }
+
+    @Test
+    public void test_query_string_with_fuzziness() {
+        assertThat(analyzer.queryString("a b", 2, false)).isEqualTo("a~2 b~2");
+    }
+
+    @Test
+    public void test_query_string_with_phrase_matches() {
+        assertThat(analyzer.queryString("a b", 0, true)).isEqualTo("\"a b\"");
+        assertThat(analyzer.queryString("a b", 1, true)).isEqualTo("\"a b\"~1");
+    }
+
+    @Test
+    public void test_query_string_with_lucene_operators_is_not_rewritten() {
+        assertThat(analyzer.queryString("a AND b", 2, true)).isEqualTo("a AND b");
+    }
+
+    @Test
+    public void test_query_string_with_parse_error_is_not_rewritten() {
+        assertThat(analyzer.queryString("a \"b", 2, false)).isEqualTo("a \"b");
+    }
+
+    @Test
+    public void test_query_strings_are_cached_by_query_fuzziness_and_phrase_matches() {
+        analyzer.queryString("a b", 0, false);
+        analyzer.queryString("a b", 0, false);
+        assertThat(analyzer.size()).isEqualTo(1);
+
+        analyzer.queryString("a b", 1, false);
+        analyzer.queryString("a b", 0, true);
+        assertThat(analyzer.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void test_prepare_queries() {
+        analyzer.prepare(asList("a", "b", "c AND d"), 1, false);
+
+        assertThat(analyzer.size()).isEqualTo(3);
+        assertThat(analyzer.queryString("a", 1, false)).isEqualTo("a~1");
+    }
+
+    @Test
+    public void test_cache_size() {
+        QueryAnalyzer smallAnalyzer = new QueryAnalyzer(new PropertiesProvider(new HashMap<String, String>() {{
+            put("queryCacheSize", "1");
+        }}));
+        smallAnalyzer.prepare(asList("a", "b", "c"), 0, false);
+
+        assertThat(smallAnalyzer.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_query_with_lucene_reserved_chars() throws Exception {
+        assertThat(hasLuceneOperators("a   b")).isFalse();
+        assertThat(hasLuceneOperators(" a b  ")).isFalse();
+        assertThat(hasLuceneOperators("a\\/b")).isFalse();
+        assertThat(hasLuceneOperators("a & b")).isFalse();
+        assertThat(hasLuceneOperators("a + b")).isFalse();
+        assertThat(hasLuceneOperators("a - b")).isFalse();
+        assertThat(hasLuceneOperators("a | b")).isFalse();
+        assertThat(hasLuceneOperators("a \\\"b c\\\"")).isFalse();
+        assertThat(hasLuceneOperators("a b, c. de f.g")).isFalse();
+        assertThat(hasLuceneOperators("a || b")).isFalse();
+        assertThat(hasLuceneOperators("a OR b")).isFalse();
+
+        assertThat(hasLuceneOperators("a /b/")).isTrue();
+        assertThat(hasLuceneOperators("f:a")).isTrue();
+        assertThat(hasLuceneOperators("a f:b")).isTrue();
+        assertThat(hasLuceneOperators("n:[1 TO 5]")).isTrue();
+        assertThat(hasLuceneOperators("n:>10")).isTrue();
+        assertThat(hasLuceneOperators("*a*")).isTrue();
+        assertThat(hasLuceneOperators("?a?")).isTrue();
+        assertThat(hasLuceneOperators("+a -b")).isTrue();
+        assertThat(hasLuceneOperators("a \"b c\"")).isTrue();
+        assertThat(hasLuceneOperators("a && b")).isTrue();
+        assertThat(hasLuceneOperators("\"a || b\"")).isTrue();
+        assertThat(hasLuceneOperators("a AND b")).isTrue();
+        assertThat(hasLuceneOperators("a NOT b")).isTrue();
+        assertThat(hasLuceneOperators("a^")).isTrue();
+        assertThat(hasLuceneOperators("a^2")).isTrue();
+        assertThat(hasLuceneOperators("a~")).isTrue();
+        assertThat(hasLuceneOperators("a~2")).isTrue();
+    }
+}
@@ -12,17 +12,24 @@ import org.icij.extract.extractor.UpdatableDigester;
 import org.icij.spewer.FieldNames;
 import org.icij.task.Options;
 import org.junit.ClassRule;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.HashMap;
+import java.util.List;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.Paths.get;
+import static java.util.stream.Collectors.toList;
 import static org.elasticsearch.action.support.WriteRequest.RefreshPolicy.IMMEDIATE;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.icij.datashare.test.ElasticsearchRule.TEST_INDEX;
@@ -31,6 +38,7 @@ import static org.icij.datashare.text.Project.project;
 public class SourceExtractorTest {
     @ClassRule
     public static ElasticsearchRule es = new ElasticsearchRule();
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
 
     @Test
     public void test_get_source_for_root_doc() throws IOException {
@@ -45,26 +53,151 @@ public class SourceExtractorTest {
 
     @Test
     public void test_get_source_for_embedded_doc() throws Exception {
+        Document attachedPdf = indexEmbeddedPdf();
+
+        assertThat(attachedPdf).isNotNull();
+        assertThat(attachedPdf.getContentType()).isEqualTo("application/pdf");
+        InputStream source = new SourceExtractor().getSource(project(TEST_INDEX), attachedPdf);
+        assertThat(source).isNotNull();
+        assertThat(getBytes(source)).hasSize(49779);
+    }
+
+    @Test
+    public void test_get_source_for_embedded_doc_is_cached() throws Exception {
+        Document attachedPdf = indexEmbeddedPdf();
+        EmbeddedSourceCache cache = new EmbeddedSourceCache(tmp.getRoot().toPath(), 1024 * 1024);
+        SourceExtractor sourceExtractor = new SourceExtractor(cache);
+
+        assertThat(getBytes(sourceExtractor.getSource(project(TEST_INDEX), attachedPdf))).hasSize(49779);
+        assertThat(cache.contains(attachedPdf.getId())).isTrue();
+        assertThat(getBytes(sourceExtractor.getSource(project(TEST_INDEX), attachedPdf))).hasSize(49779);
+        assertThat(cache.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_get_source_for_embedded_doc_caches_its_siblings() throws Exception {
+        Path email = createEmailWithAttachments(tmp.newFolder("docs").toPath(), "first attachment", "second attachment", "third attachment");
+        List<Document> attachments = indexEmbeddedDocs(email);
+        List<String> attachmentIds = attachments.stream().map(Document::getId).collect(toList());
+        EmbeddedSourceCache cache = new EmbeddedSourceCache(tmp.newFolder("cache").toPath(), 1024 * 1024);
+        SourceExtractor sourceExtractor = new SourceExtractor(cache, 0);
+        assertThat(attachments.size()).isGreaterThanOrEqualTo(3);
+
+        try (InputStream source = sourceExtractor.getSource(project(TEST_INDEX), attachments.get(0), () -> attachmentIds)) {
+            assertThat(getBytes(source)).isNotEmpty();
+        }
+
+        assertThat(attachmentIds.stream().allMatch(cache::contains)).isTrue();
+        long hits = cache.getHits();
+        assertThat(getBytes(sourceExtractor.getSource(project(TEST_INDEX), attachments.get(1), () -> attachmentIds))).isNotEmpty();
+        assertThat(getBytes(sourceExtractor.getSource(project(TEST_INDEX), attachments.get(2), () -> attachmentIds))).isNotEmpty();
+        assertThat(cache.getHits()).isEqualTo(hits + 2);
+        assertThat(sourceExtractor.getSpills()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_get_source_for_embedded_doc_in_memory_is_counted_until_closed() throws Exception {
+        Document attachedPdf = indexEmbeddedPdf();
+        SourceExtractor sourceExtractor = new SourceExtractor();
+
+        InputStream source = sourceExtractor.getSource(project(TEST_INDEX), attachedPdf);
+        assertThat(sourceExtractor.getMemoryBytes()).isEqualTo(49779);
+
+        assertThat(getBytes(source)).hasSize(49779);
+        source.close();
+        assertThat(sourceExtractor.getMemoryBytes()).isEqualTo(0);
+        assertThat(sourceExtractor.getPeakMemoryBytes()).isEqualTo(49779);
+        assertThat(sourceExtractor.getSpills()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_get_source_for_embedded_doc_above_threshold_is_spilled_to_disk() throws Exception {
+        Document attachedPdf = indexEmbeddedPdf();
+        Path spillDir = tmp.newFolder("spill").toPath();
+        SourceExtractor sourceExtractor = new SourceExtractor(new EmbeddedSourceCache(null, 0), 1024, spillDir);
+
+        InputStream source = sourceExtractor.getSource(project(TEST_INDEX), attachedPdf);
+        assertThat(sourceExtractor.getSpills()).isEqualTo(1);
+        assertThat(sourceExtractor.getSpilledBytes()).isEqualTo(49779);
+        assertThat(sourceExtractor.getMemoryBytes()).isEqualTo(0);
+        assertThat(spillDir.toFile().list()).hasSize(1);
+
+        assertThat(getBytes(source)).hasSize(49779);
+        source.close();
+        assertThat(sourceExtractor.getSpilledBytes()).isEqualTo(0);
+        assertThat(spillDir.toFile().list()).isEmpty();
+    }
+
+    @Test
+    public void test_get_source_for_embedded_doc_without_content_length_is_spilled_to_disk() throws Exception {
+        Document attachedPdf = indexEmbeddedPdf();
+        Document withoutLength = new Document(project(TEST_INDEX), attachedPdf.getId(), attachedPdf.getPath(), attachedPdf.getContent(),
+                attachedPdf.getLanguage(), attachedPdf.getContentEncoding(), attachedPdf.getContentType(), attachedPdf.getMetadata(),
+                attachedPdf.getStatus(), attachedPdf.getNerTags(), attachedPdf.getExtractionDate(), attachedPdf.getParentDocument(),
+                attachedPdf.getRootDocument(), attachedPdf.getExtractionLevel(), null);
+        Path spillDir = tmp.newFolder("spill").toPath();
+        SourceExtractor sourceExtractor = new SourceExtractor(new EmbeddedSourceCache(null, 0), 1024 * 1024, spillDir);
+
+        try (InputStream source = sourceExtractor.getSource(project(TEST_INDEX), withoutLength)) {
+            assertThat(sourceExtractor.getSpills()).isEqualTo(1);
+            assertThat(getBytes(source)).hasSize(49779);
+        }
+        assertThat(spillDir.toFile().list()).isEmpty();
+    }
+
+    @Test
+    public void test_delete_spilled_sources_of_previous_run() throws Exception {
+        Path dir = tmp.getRoot().toPath();
+        Path previous = Files.createTempFile(dir, SourceExtractor.SPILL_PREFIX, SourceExtractor.SPILL_SUFFIX);
+        Files.setLastModifiedTime(previous, FileTime.fromMillis(1000));
+        Path current = Files.createTempFile(dir, SourceExtractor.SPILL_PREFIX, SourceExtractor.SPILL_SUFFIX);
+        Path other = Files.createTempFile(dir, "other-", SourceExtractor.SPILL_SUFFIX);
+        Files.setLastModifiedTime(other, FileTime.fromMillis(1000));
+
+        SourceExtractor.deleteSpilledSources(dir, System.currentTimeMillis() - 60000);
+
+        assertThat(previous.toFile()).doesNotExist();
+        assertThat(current.toFile()).exists();
+        assertThat(other.toFile()).exists();
+    }
+
+    private Document indexEmbeddedPdf() throws Exception {
+        index(get(getClass().getResource("/docs/embedded_doc.eml").getPath()));
+        return new ElasticsearchIndexer(es.client, new PropertiesProvider()).
+                get(TEST_INDEX, "1bf2b6aa27dd8b45c7db58875004b8cb27a78ced5200b4976b63e351ebbae5ececb86076d90e156a7cdea06cde9573ca",
+                        "f4078910c3e73a192e3a82d205f3c0bdb749c4e7b23c1d05a622db0f07d7f0ededb335abdb62aef41ace5d3cdb9298bc");
+    }
+
+    private List<Document> indexEmbeddedDocs(Path path) throws Exception {
+        index(path);
+        return new ElasticsearchIndexer(es.client, new PropertiesProvider()).search(TEST_INDEX, Document.class).execute()
+                .map(entity -> (Document) entity).filter(doc -> !doc.isRootDocument() && doc.getPath().equals(path))
+                .collect(toList());
+    }
+
+    private void index(Path path) throws Exception {
         DocumentFactory tikaFactory = new DocumentFactory().configure(Options.from(new HashMap<String, String>() {{
             put("idDigestMethod", Document.HASHER.toString());
         }}));
-        Path path = get(getClass().getResource("/docs/embedded_doc.eml").getPath());
         Extractor extractor = new Extractor(tikaFactory);
         extractor.setDigester(new UpdatableDigester(TEST_INDEX, Document.HASHER.toString()));
         final TikaDocument document = extractor.extract(path);
         ElasticsearchSpewer spewer = new ElasticsearchSpewer(es.client,
                 l -> Language.ENGLISH, new FieldNames(), Mockito.mock(Publisher.class), new PropertiesProvider()).withRefresh(IMMEDIATE).withIndex(TEST_INDEX);
         spewer.write(document);
+    }
 
-        Document attachedPdf = new ElasticsearchIndexer(es.client, new PropertiesProvider()).
-                get(TEST_INDEX, "1bf2b6aa27dd8b45c7db58875004b8cb27a78ced5200b4976b63e351ebbae5ececb86076d90e156a7cdea06cde9573ca",
-                        "f4078910c3e73a192e3a82d205f3c0bdb749c4e7b23c1d05a622db0f07d7f0ededb335abdb62aef41ace5d3cdb9298bc");
-
-        assertThat(attachedPdf).isNotNull();
-        assertThat(attachedPdf.getContentType()).isEqualTo("application/pdf");
-        InputStream source = new SourceExtractor().getSource(project(TEST_INDEX), attachedPdf);
-        assertThat(source).isNotNull();
-        assertThat(getBytes(source)).hasSize(49779);
+    private static Path createEmailWithAttachments(Path dir, String... attachments) throws IOException {
+        StringBuilder email = new StringBuilder("From: sender@icij.org\r\nTo: recipient@icij.org\r\nSubject: attachments\r\n" +
+                "MIME-Version: 1.0\r\nContent-Type: multipart/mixed; boundary=\"BOUNDARY\"\r\n\r\n" +
+                "--BOUNDARY\r\nContent-Type: text/plain; charset=utf-8\r\n\r\nsee the attachments\r\n");
+        for (int i = 0; i < attachments.length; i++) {
+            email.append("--BOUNDARY\r\nContent-Type: application/octet-stream; name=\"attachment").append(i).append(".bin\"\r\n")
+                    .append("Content-Disposition: attachment; filename=\"attachment").append(i).append(".bin\"\r\n\r\n")
+                    .append(attachments[i]).append("\r\n");
+        }
+        email.append("--BOUNDARY--\r\n");
+        return Files.write(dir.resolve("attachments.eml"), email.toString().getBytes(UTF_8));
     }
 
     private byte[] getBytes(InputStream source) throws IOException {